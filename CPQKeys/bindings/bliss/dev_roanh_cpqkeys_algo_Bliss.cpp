@@ -17,62 +17,257 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 #include <dev_roanh_cpqkeys_algo_Bliss.h>
+#include <hardware_counters.h>
 #include <digraph.hh>
 #include <chrono>
+#include <vector>
+#include <algorithm>
+#include <cstring>
 
 using namespace bliss;
 using namespace std::chrono;
 
 /**
- * Computes the canonical labeling of the given colored graph. Returns
- * the time in nanoseconds required for computations.
- * @param env JNI environment.
- * @param obj Calling class.
- * @param edges The input graph as a list of edges with two consecutive
- *        indices representing the ID of the source and target vertex
- *        of an edge respectively.
- * @param colors An array with as length the number of vertices in the
- *        graph and at each index for the vertex with the same ID as the
- *        index its color (as an integer).
- * @return An array with two elements, first the time in nanoseconds it
- *         took to construct the graph and second the time in nanoseconds
- *         it took to compute the canonical form of the graph.
+ * Time limit value indicating that canonization is not limited.
  */
-JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_computeCanon(JNIEnv* env, jclass obj, jintArray edges, jintArray colors){
-	steady_clock::time_point start_time = steady_clock::now();
+#define NO_TIME_LIMIT 0x7FFFFFFFFFFFFFFFLL
 
-	//construct the graph
-	int size = env->GetArrayLength(colors);
-	Digraph* graph = new Digraph(size);
+/**
+ * Canonization time reported for graphs that exceeded their time limit.
+ */
+#define TIME_LIMIT_EXCEEDED -1LL
 
-	int len = env->GetArrayLength(edges);
-	jint* elem = env->GetIntArrayElements(edges, 0);
-	for(int i = 0; i < len; i += 2){
-		graph->add_edge(elem[i], elem[i + 1]);
+/**
+ * Number of elements appended to the result array of a single graph
+ * to report the search statistics of the graph.
+ */
+#define SEARCH_STATISTICS_LENGTH 5
+
+/**
+ * Writes the search statistics of a single graph to the given result buffer,
+ * see SearchStatistics for the format. The group size is written as the raw
+ * bits of its (double) mantissa and its base 10 exponent, since it can exceed
+ * the range of a double.
+ * @param data The buffer to write SEARCH_STATISTICS_LENGTH elements to.
+ * @param stats The search statistics reported by bliss.
+ */
+void writeSearchStatistics(jlong* data, Stats& stats){
+	long double size = stats.get_group_size_approx();
+	jlong exponent = 0;
+	while(size >= 10.0L){
+		size /= 10.0L;
+		exponent++;
 	}
-	env->ReleaseIntArrayElements(edges, elem, 0);
 
-	elem = env->GetIntArrayElements(colors, 0);
+	double mantissa = (double)size;
+	memcpy(data, &mantissa, sizeof(jlong));
+	data[1] = exponent;
+	data[2] = stats.get_nof_nodes();
+	data[3] = stats.get_nof_generators();
+	data[4] = stats.get_max_level();
+}
+
+/**
+ * Copies the canonical form of a graph to the given buffer. The canonical
+ * labelling is written first, followed by for each vertex in canonical order
+ * its out degree and the sorted canonical indices of its out neighbors.
+ * @param data The buffer to write the canonical form to.
+ * @param adj The canonically labelled graph in adjacency list format,
+ *        the rows of this adjacency list will be sorted.
+ * @param size The number of vertices in the graph.
+ * @param canon The canonical labelling computed by bliss, mapping
+ *        every vertex to its canonical index.
+ * @return The number of integers written to the buffer.
+ */
+jint copyKey(jint* data, std::vector<std::vector<jint>>& adj, int size, const unsigned int* canon){
 	for(int i = 0; i < size; i++){
-		graph->change_color(i, elem[i]);
+		data[canon[i]] = i;
 	}
-	env->ReleaseIntArrayElements(colors, elem, 0);
 
+	jint pos = size;
+	for(int i = 0; i < size; i++){
+		std::vector<jint>& row = adj[i];
+		std::sort(row.begin(), row.end());
+		row.erase(std::unique(row.begin(), row.end()), row.end());
+
+		data[pos++] = row.size();
+		for(jint node : row){
+			data[pos++] = node;
+		}
+	}
+
+	return pos;
+}
+
+/**
+ * Computes the canonical labeling of the given colored graph and copies
+ * its canonical form to the given buffer.
+ * @param record The record of the input graph, for the graph the number of
+ *        vertices n, the number of edges m, n + 1 offsets into the edge targets,
+ *        m edge targets and lastly the n vertex colors.
+ * @param key The buffer to write the canonical form of the graph to, can be NULL.
+ * @param times The buffer to write the time in nanoseconds it took to construct
+ *        the graph, the time in nanoseconds it took to compute the canonical form
+ *        of the graph (or TIME_LIMIT_EXCEEDED) and the number of integers written
+ *        to the key buffer to.
+ * @param search The buffer to write the search statistics of the graph to, can be NULL.
+ * @param counters The buffer to write the hardware counters read around the canonization
+ *        to, can be NULL. The counters are started before the canonization start time is
+ *        taken and stopped after the end time is taken, so reading them is not part of
+ *        the measured canonization time.
+ * @param timeout The time limit in nanoseconds for computing the canonical form,
+ *        or NO_TIME_LIMIT if canonization is not limited. Bliss checks the time
+ *        limit at every node of its search tree.
+ */
+void canonize(jint* record, jint* key, jlong* times, jlong* search, jlong* counters, jlong timeout){
+	steady_clock::time_point start_time = steady_clock::now();
+	int n = record[0];
+	int m = record[1];
+	jint* edges = record + 2;
+	jint* targets = edges + n + 1;
+	jint* colors = targets + m;
+
+	//construct the graph
+	Digraph graph(n);
+	for(int u = 0; u < n; u++){
+		for(int j = edges[u]; j < edges[u + 1]; j++){
+			graph.add_edge(u, targets[j]);
+		}
+	}
+
+	for(int u = 0; u < n; u++){
+		graph.change_color(u, colors[u]);
+	}
+
+	if(counters != NULL){
+		startHardwareCounters();
+	}
 	steady_clock::time_point mid_time = steady_clock::now();
 
 	//compute canonical form
 	Stats stats;
-	const unsigned int* canon = graph->canonical_form(stats);
+	bool exceeded = false;
+	const unsigned int* canon;
+	if(timeout == NO_TIME_LIMIT){
+		canon = graph.canonical_form(stats);
+	}else{
+		steady_clock::time_point deadline = mid_time + nanoseconds(timeout);
+		canon = graph.canonical_form(stats, nullptr, [&]{
+			return exceeded = steady_clock::now() >= deadline;
+		});
+	}
 
 	steady_clock::time_point end_time = steady_clock::now();
+	if(counters != NULL){
+		endHardwareCounters(counters);
+	}
 
-	//return times
-	jlongArray result = env->NewLongArray(2);
+	jint keyLength = 0;
+	if(key != NULL && !exceeded){
+		std::vector<std::vector<jint>> adj(n);
+		for(int u = 0; u < n; u++){
+			for(int j = edges[u]; j < edges[u + 1]; j++){
+				adj[canon[u]].push_back(canon[targets[j]]);
+			}
+		}
 
-	jlong data[2];
-	data[0] = duration_cast<nanoseconds>(mid_time - start_time).count();
-	data[1] = duration_cast<nanoseconds>(end_time - mid_time).count();
-	env->SetLongArrayRegion(result, 0, 2, data);
+		keyLength = copyKey(key, adj, n, canon);
+	}
+
+	times[0] = duration_cast<nanoseconds>(mid_time - start_time).count();
+	times[1] = exceeded ? TIME_LIMIT_EXCEEDED : duration_cast<nanoseconds>(end_time - mid_time).count();
+	times[2] = keyLength;
+	if(search != NULL){
+		writeSearchStatistics(search, stats);
+	}
+}
+
+/**
+ * Computes the canonical labeling of the given colored graph. Returns
+ * the time in nanoseconds required for computations.
+ * @param env JNI environment.
+ * @param obj Calling class.
+ * @param graph Direct buffer with the record of the input graph, for the graph the number
+ *        of vertices n, the number of edges m, n + 1 offsets into the edge targets, m edge
+ *        targets and lastly the n vertex colors.
+ * @param key The buffer to write the canonical form of the graph to, can be NULL.
+ * @param timeout The time limit in nanoseconds for computing the canonical form,
+ *        or NO_TIME_LIMIT if canonization is not limited.
+ * @return An array with first the time in nanoseconds it took to construct
+ *         the graph, second the time in nanoseconds it took to compute the
+ *         canonical form of the graph or TIME_LIMIT_EXCEEDED if the time limit
+ *         was exceeded, third the number of integers written to the key buffer,
+ *         then the SEARCH_STATISTICS_LENGTH search statistics elements and lastly
+ *         the HARDWARE_COUNTERS_LENGTH hardware counters.
+ */
+JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_computeCanon(JNIEnv* env, jclass obj, jobject graph, jintArray key, jlong timeout){
+	jint* record = (jint*)env->GetDirectBufferAddress(graph);
+
+	//the key is built natively and only the written part is copied to the Java array
+	std::vector<jint> keyData(key == NULL ? 0 : 2 * record[0] + record[1]);
+
+	jlong data[3 + SEARCH_STATISTICS_LENGTH + HARDWARE_COUNTERS_LENGTH];
+	canonize(record, key == NULL ? NULL : keyData.data(), data, data + 3, data + 3 + SEARCH_STATISTICS_LENGTH, timeout);
+
+	if(key != NULL && data[2] > 0){
+		env->SetIntArrayRegion(key, 0, data[2], keyData.data());
+	}
 
+	//return times, key length, search statistics and hardware counters
+	jlongArray result = env->NewLongArray(3 + SEARCH_STATISTICS_LENGTH + HARDWARE_COUNTERS_LENGTH);
+	env->SetLongArrayRegion(result, 0, 3 + SEARCH_STATISTICS_LENGTH + HARDWARE_COUNTERS_LENGTH, data);
 	return result;
 }
+
+/**
+ * Computes the canonical labeling of all the colored graphs in
+ * the given batch. All graphs are canonized in a single native call.
+ * @param env JNI environment.
+ * @param obj Calling class.
+ * @param data The packed graph records of the batch, for each graph the number of
+ *        vertices n, the number of edges m, n + 1 offsets into the edge targets,
+ *        m edge targets and lastly the n vertex colors.
+ * @param index The start of the record of every graph in the data array.
+ * @param count The number of graphs in the batch.
+ * @param keys The buffer to write the canonical forms of all graphs to back to back, can be NULL.
+ * @param results The buffer to write for every graph the time in nanoseconds it
+ *        took to construct the graph, the time in nanoseconds it took to compute the canonical form of the graph
+ *        (or TIME_LIMIT_EXCEEDED) and the number of integers written to the key buffer to.
+ * @param timeout The time limit in nanoseconds for computing the canonical form
+ *        of every graph, or NO_TIME_LIMIT if canonization is not limited.
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_computeCanonBatch(JNIEnv* env, jclass obj, jintArray data, jintArray index, jint count, jintArray keys, jlongArray results, jlong timeout){
+	jint* records = env->GetIntArrayElements(data, 0);
+	jint* offsets = env->GetIntArrayElements(index, 0);
+	jlong* times = env->GetLongArrayElements(results, 0);
+	std::vector<jint> keyData;
+	jint pos = 0;
+
+	for(int i = 0; i < count; i++){
+		jint* record = records + offsets[i];
+		if(keys != NULL){
+			keyData.resize(2 * record[0] + record[1]);
+		}
+
+		canonize(record, keys == NULL ? NULL : keyData.data(), times + i * 3, NULL, NULL, timeout);
+		if(keys != NULL && times[i * 3 + 2] > 0){
+			env->SetIntArrayRegion(keys, pos, times[i * 3 + 2], keyData.data());
+		}
+		pos += times[i * 3 + 2];
+	}
+
+	env->ReleaseLongArrayElements(results, times, 0);
+	env->ReleaseIntArrayElements(index, offsets, JNI_ABORT);
+	env->ReleaseIntArrayElements(data, records, JNI_ABORT);
+}
+
+/**
+ * Enables or disables reading hardware counters around the canonization
+ * of every graph that is not canonized as part of a batch.
+ * @param env JNI environment.
+ * @param obj Calling class.
+ * @param enabled True to enable reading hardware counters.
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_setHardwareCounters(JNIEnv* env, jclass obj, jboolean enabled){
+	setHardwareCountersEnabled(enabled);
+}
@@ -10,10 +10,26 @@ extern "C" {
 /*
  * Class:     dev_roanh_cpqkeys_algo_Bliss
  * Method:    computeCanon
- * Signature: ([I[I)[J
+ * Signature: (Ljava/nio/IntBuffer;[IJ)[J
  */
 JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_computeCanon
-  (JNIEnv *, jclass, jintArray, jintArray);
+  (JNIEnv *, jclass, jobject, jintArray, jlong);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_Bliss
+ * Method:    computeCanonBatch
+ * Signature: ([I[II[I[JJ)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_computeCanonBatch
+  (JNIEnv *, jclass, jintArray, jintArray, jint, jintArray, jlongArray, jlong);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_Bliss
+ * Method:    setHardwareCounters
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Bliss_setHardwareCounters
+  (JNIEnv *, jclass, jboolean);
 
 #ifdef __cplusplus
 }
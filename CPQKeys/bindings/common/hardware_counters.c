@@ -0,0 +1,222 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+#ifdef __linux__
+//required for syscall
+#define _GNU_SOURCE
+#endif
+
+#include <hardware_counters.h>
+
+#ifdef __linux__
+#include <linux/perf_event.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/ioctl.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#endif
+
+/**
+ * Whether hardware counters are read around the canonization of every graph.
+ */
+static volatile jboolean hardwareCounters = JNI_FALSE;
+
+#ifdef __linux__
+/**
+ * The perf events read as hardware counters, in the order they are reported:
+ * CPU cycles, retired instructions, last level cache misses and branch misses.
+ */
+static const __u64 counterEvents[HARDWARE_COUNTERS_LENGTH] = {
+	PERF_COUNT_HW_CPU_CYCLES,
+	PERF_COUNT_HW_INSTRUCTIONS,
+	PERF_COUNT_HW_CACHE_MISSES,
+	PERF_COUNT_HW_BRANCH_MISSES
+};
+
+/**
+ * The hardware counters opened for a single thread.
+ */
+typedef struct{
+	/**
+	 * File descriptors of the hardware counters,
+	 * -1 for counters that are not supported by the system.
+	 */
+	int fds[HARDWARE_COUNTERS_LENGTH];
+	/**
+	 * File descriptor of the first hardware counter that could be opened,
+	 * all other counters are in its group so they are read over the same
+	 * interval. This is -1 if no counter could be opened.
+	 */
+	int leader;
+} ThreadCounters;
+
+/**
+ * Key of the hardware counters of the calling thread, the
+ * counters are closed by its destructor when the thread exits.
+ */
+static pthread_key_t countersKey;
+
+/**
+ * Guard to create the thread key only once.
+ */
+static pthread_once_t countersKeyOnce = PTHREAD_ONCE_INIT;
+
+/**
+ * Whether the thread key was created, if it could not be
+ * created hardware counters are reported as unsupported.
+ */
+static int countersKeyCreated = 0;
+
+/**
+ * Closes the hardware counters of a thread, this is called
+ * when a thread that opened hardware counters exits.
+ * @param data The hardware counters of the thread.
+ */
+static void closeHardwareCounters(void* data){
+	ThreadCounters* counters = (ThreadCounters*)data;
+	for(int i = 0; i < HARDWARE_COUNTERS_LENGTH; i++){
+		if(counters->fds[i] != -1){
+			close(counters->fds[i]);
+		}
+	}
+
+	free(counters);
+}
+
+/**
+ * Creates the key used to store the hardware counters of every thread.
+ */
+static void createCountersKey(void){
+	countersKeyCreated = pthread_key_create(&countersKey, closeHardwareCounters) == 0;
+}
+
+/**
+ * Opens the hardware counters for the calling thread. Only events in user
+ * space are counted. Counters that cannot be opened, for example because
+ * the system has no performance monitoring unit or does not allow access to
+ * it (see perf_event_paranoid), are left unavailable. The counters stay open
+ * until the thread exits.
+ * @return The opened hardware counters or NULL if they could not be stored.
+ */
+static ThreadCounters* openHardwareCounters(void){
+	ThreadCounters* counters = (ThreadCounters*)malloc(sizeof(ThreadCounters));
+	if(counters == NULL){
+		return NULL;
+	}
+
+	counters->leader = -1;
+	for(int i = 0; i < HARDWARE_COUNTERS_LENGTH; i++){
+		struct perf_event_attr attr;
+		memset(&attr, 0, sizeof(attr));
+		attr.type = PERF_TYPE_HARDWARE;
+		attr.size = sizeof(attr);
+		attr.config = counterEvents[i];
+		attr.disabled = counters->leader == -1;
+		attr.exclude_kernel = 1;
+		attr.exclude_hv = 1;
+
+		counters->fds[i] = syscall(SYS_perf_event_open, &attr, 0, -1, counters->leader, 0);
+		if(counters->leader == -1){
+			counters->leader = counters->fds[i];
+		}
+	}
+
+	if(pthread_setspecific(countersKey, counters) != 0){
+		closeHardwareCounters(counters);
+		return NULL;
+	}
+
+	return counters;
+}
+
+/**
+ * Gets the hardware counters of the calling thread.
+ * @param open True to open the counters if the calling thread has none yet.
+ * @return The hardware counters of the calling thread or NULL if there are none.
+ */
+static ThreadCounters* getHardwareCounters(int open){
+	pthread_once(&countersKeyOnce, createCountersKey);
+	if(!countersKeyCreated){
+		return NULL;
+	}
+
+	ThreadCounters* counters = (ThreadCounters*)pthread_getspecific(countersKey);
+	return counters == NULL && open ? openHardwareCounters() : counters;
+}
+#endif
+
+/**
+ * Enables or disables reading hardware counters around the canonization
+ * of every graph. Every native library that includes this file has its
+ * own setting.
+ * @param enabled True to enable reading hardware counters.
+ */
+void setHardwareCountersEnabled(jboolean enabled){
+	hardwareCounters = enabled;
+}
+
+/**
+ * Starts the hardware counters for canonizing a single graph on the calling
+ * thread, this does nothing if reading hardware counters is not enabled or
+ * not supported. The counters are opened the first time they are started on
+ * a thread and are closed when the thread exits. The counters should be started before the canonization start
+ * time is taken, so the cost of starting them is not part of the measured
+ * canonization time.
+ * @see endHardwareCounters
+ */
+void startHardwareCounters(void){
+#ifdef __linux__
+	if(!hardwareCounters){
+		return;
+	}
+
+	ThreadCounters* counters = getHardwareCounters(1);
+	if(counters != NULL && counters->leader != -1){
+		ioctl(counters->leader, PERF_EVENT_IOC_RESET, PERF_IOC_FLAG_GROUP);
+		ioctl(counters->leader, PERF_EVENT_IOC_ENABLE, PERF_IOC_FLAG_GROUP);
+	}
+#endif
+}
+
+/**
+ * Stops the hardware counters on the calling thread and writes the number of
+ * events counted since they were started to the given result buffer. Counters
+ * that are not enabled or not supported are written as -1. The counters
+ * should be stopped after the canonization end time is taken.
+ * @param data The buffer to write HARDWARE_COUNTERS_LENGTH elements to.
+ * @see startHardwareCounters
+ */
+void endHardwareCounters(jlong* data){
+#ifdef __linux__
+	ThreadCounters* counters = hardwareCounters ? getHardwareCounters(0) : NULL;
+	if(counters != NULL && counters->leader != -1){
+		ioctl(counters->leader, PERF_EVENT_IOC_DISABLE, PERF_IOC_FLAG_GROUP);
+		for(int i = 0; i < HARDWARE_COUNTERS_LENGTH; i++){
+			__u64 value;
+			data[i] = counters->fds[i] != -1 && read(counters->fds[i], &value, sizeof(value)) == sizeof(value) ? (jlong)value : -1;
+		}
+		return;
+	}
+#endif
+
+	for(int i = 0; i < HARDWARE_COUNTERS_LENGTH; i++){
+		data[i] = -1;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+#ifndef include_dev_roanh_cpqkeys_hardware_counters
+#define include_dev_roanh_cpqkeys_hardware_counters
+
+#include <jni.h>
+
+/**
+ * Number of elements appended to the result array of a single graph
+ * to report the hardware counters read around its canonization.
+ */
+#define HARDWARE_COUNTERS_LENGTH 4
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/**
+ * Enables or disables reading hardware counters around
+ * the canonization of every graph.
+ */
+void setHardwareCountersEnabled(jboolean);
+
+/**
+ * Starts the hardware counters for canonizing a single
+ * graph on the calling thread, if enabled.
+ */
+void startHardwareCounters(void);
+
+/**
+ * Stops the hardware counters on the calling thread
+ * and writes them to the given result buffer.
+ */
+void endHardwareCounters(jlong*);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
@@ -17,71 +17,292 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 #include <core.h>
+#include <string.h>
+#include <dev_roanh_cpqkeys_algo_NautyWorkspace.h>
 
 /**
- * Constructs a sparse graph from the given adjacency list
- * representation of a graph.
- * @param env JNI environment.
- * @param adj The input graph in adjacency list format, n arrays with
- *        each the indices of the neighbors of the n-th vertex.
+ * Allocates a new empty workspace for nauty and traces.
+ * @param The JNI environment.
+ * @param Calling class.
+ * @return A pointer to the new workspace.
+ */
+JNIEXPORT jlong JNICALL Java_dev_roanh_cpqkeys_algo_NautyWorkspace_allocate(JNIEnv* env, jclass obj){
+	workspace* ws = (workspace*)calloc(1, sizeof(workspace));
+	SG_INIT(ws->input);
+	SG_INIT(ws->canon);
+	return (jlong)(intptr_t)ws;
+}
+
+/**
+ * Enables or disables reading hardware counters around the canonization
+ * of every graph that is not canonized as part of a batch.
+ * @param The JNI environment.
+ * @param Calling class.
+ * @param enabled True to enable reading hardware counters.
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_NautyWorkspace_setHardwareCounters(JNIEnv* env, jclass obj, jboolean enabled){
+	setHardwareCountersEnabled(enabled);
+}
+
+/**
+ * Ensures the labels, ptn and orbits arrays of the given workspace
+ * can hold at least the given number of vertices. Arrays are only
+ * reallocated if they are too small.
+ * @param ws The workspace to prepare.
+ * @param n The number of vertices in the graph.
+ */
+void prepareWorkspace(workspace* ws, int n){
+	DYNALLOC1(int, ws->labels, ws->labels_sz, n, "malloc");
+	DYNALLOC1(int, ws->ptn, ws->ptn_sz, n, "malloc");
+	DYNALLOC1(int, ws->orbits, ws->orbits_sz, n, "malloc");
+}
+
+/**
+ * Reads the coloring of a graph from a graph record into the
+ * 'labels' and 'ptn' arrays of the given workspace. Vertices are grouped
+ * by their color in increasing color order with the vertices of each
+ * color in increasing order. The workspace is prepared for the graph.
+ * @param record The record of the graph, see CsrGraph for the format.
+ * @param ws The workspace to read the coloring into.
+ * @return The number of vertices in the graph.
+ */
+int readColoring(jint* record, workspace* ws){
+	int n = record[0];
+	int m = record[1];
+	jint* colors = record + 2 + n + 1 + m;
+	nauty_check(WORDSIZE, SETWORDSNEEDED(n), n, NAUTYVERSIONID);
+	prepareWorkspace(ws, n);
+
+	//counting sort on color, the orbits array is not used yet
+	int* start = ws->orbits;
+	int k = 0;
+	for(int i = 0; i < n; i++){
+		if(colors[i] >= k){
+			k = colors[i] + 1;
+		}
+	}
+
+	for(int c = 0; c < k; c++){
+		start[c] = 0;
+	}
+
+	for(int i = 0; i < n; i++){
+		start[colors[i]]++;
+	}
+
+	int pos = 0;
+	for(int c = 0; c < k; c++){
+		int size = start[c];
+		start[c] = pos;
+		pos += size;
+	}
+
+	for(int i = 0; i < n; i++){
+		ws->labels[start[colors[i]]++] = i;
+		ws->ptn[i] = 1;
+	}
+
+	//start now holds the end of each color block, empty leading blocks end at 0
+	for(int c = 0; c < k; c++){
+		if(start[c] > 0){
+			ws->ptn[start[c] - 1] = 0;
+		}
+	}
+
+	return n;
+}
+
+/**
+ * Reads a sparse graph from a graph record. The arrays of the given sparse
+ * graph are only reallocated if they are too small to hold the graph.
+ * @param record The record of the graph, see CsrGraph for the format.
  * @param graph A pointer to the sparse graph instance to populate.
  */
-void constructSparseGraph(JNIEnv* env, jobjectArray* adj, sparsegraph* graph){
-	jsize len = (*env)->GetArrayLength(env, *adj);
-	nauty_check(WORDSIZE, SETWORDSNEEDED(len), len, NAUTYVERSIONID);
-	graph->nv = len;
+void readSparseGraph(jint* record, sparsegraph* graph){
+	int n = record[0];
+	int m = record[1];
+	jint* offsets = record + 2;
+	jint* targets = offsets + n + 1;
 
-	graph->nde = 0;
-	for(int i = 0; i < len; i++){
-		graph->nde += (*env)->GetArrayLength(env, (jintArray)((*env)->GetObjectArrayElement(env, *adj, i)));
+	SG_ALLOC(*graph, n, m, "malloc");
+	graph->nv = n;
+	graph->nde = m;
+	for(int i = 0; i < n; i++){
+		graph->v[i] = offsets[i];
+		graph->d[i] = offsets[i + 1] - offsets[i];
 	}
 
-	SG_ALLOC(*graph, len, graph->nde, "malloc");
-	int offset = 0;
-	for(int i = 0; i < len; i++){
-		jintArray row = (jintArray)((*env)->GetObjectArrayElement(env, *adj, i));
-		jsize rlen = (*env)->GetArrayLength(env, row);
-		jint* elem = (*env)->GetIntArrayElements(env, row, 0);
+	memcpy(graph->e, targets, m * sizeof(int));
+}
 
-		graph->v[i] = offset;
-		graph->d[i] = rlen;
+/**
+ * Reads a dense graph from a graph record into the dense input graph of the
+ * given workspace. The dense canonical graph of the workspace is also made large
+ * enough to hold the graph. Graphs are only reallocated if they are too small.
+ * @param record The record of the graph, see CsrGraph for the format.
+ * @param ws The workspace to read the graph into.
+ * @return The number of setwords per row of the graph.
+ */
+int readDenseGraph(jint* record, workspace* ws){
+	int n = record[0];
+	int m = SETWORDSNEEDED(n);
+	jint* offsets = record + 2;
+	jint* targets = offsets + n + 1;
+
+	DYNALLOC2(graph, ws->denseInput, ws->denseInput_sz, n, m, "malloc");
+	DYNALLOC2(graph, ws->denseCanon, ws->denseCanon_sz, n, m, "malloc");
+	graph* input = ws->denseInput;
+	EMPTYGRAPH(input, m, n);
 
-		for(int j = 0; j < rlen; j++){
-			graph->e[offset] = elem[j];
-			offset++;
+	for(int u = 0; u < n; u++){
+		for(int j = offsets[u]; j < offsets[u + 1]; j++){
+			ADDONEARC(input, u, targets[j], m);
 		}
+	}
+
+	return m;
+}
 
-		(*env)->ReleaseIntArrayElements(env, row, elem, 0);
+/**
+ * Ensures the key buffer of the given workspace can hold the canonical
+ * form of the graph with the given record. The canonical form of a graph
+ * with n vertices and m edges never takes more than 2n + m integers.
+ * @param ws The workspace to prepare the key buffer of.
+ * @param record The record of the graph, see CsrGraph for the format.
+ * @return The key buffer of the workspace.
+ */
+jint* prepareKey(workspace* ws, jint* record){
+	DYNALLOC1(jint, ws->key, ws->key_sz, 2 * record[0] + record[1], "malloc");
+	return ws->key;
+}
+
+/**
+ * Writes the canonical form of a graph to the given key buffer. The canonical
+ * labelling is written first, followed by for each vertex in canonical order
+ * its degree and the sorted canonical indices of its neighbors. The canonical
+ * form is built in the key buffer of the workspace and only the part that was
+ * written is copied back to the Java key buffer.
+ * @param env JNI environment.
+ * @param key The buffer to write the canonical form to, can be NULL.
+ * @param offset The index in the key buffer to start writing at.
+ * @param ws The workspace holding the canonical labelling as computed by nauty or traces.
+ * @param record The record of the input graph, see CsrGraph for the format.
+ * @param canon The canonically labeled graph, the neighbor lists of this
+ *        graph will be sorted.
+ * @return The number of integers written to the key buffer.
+ */
+jint writeSparseKey(JNIEnv* env, jintArray key, jint offset, workspace* ws, jint* record, sparsegraph* canon){
+	if(key == NULL){
+		return 0;
 	}
+
+	jint* data = prepareKey(ws, record);
+	jint pos = copySparseKey(data, ws->labels, canon);
+	(*env)->SetIntArrayRegion(env, key, offset, pos, data);
+	return pos;
 }
 
 /**
- * Constructs the graph coloring information arrays 'labels' and 'ptn'
- * from the given color data array.
+ * Copies the canonical form of a graph to the given buffer. The canonical
+ * labelling is written first, followed by for each vertex in canonical order
+ * its degree and the sorted canonical indices of its neighbors.
+ * @param data The buffer to write the canonical form to.
+ * @param lab The canonical labelling as computed by nauty or traces.
+ * @param canon The canonically labeled graph, the neighbor lists of this
+ *        graph will be sorted.
+ * @return The number of integers written to the buffer.
+ */
+jint copySparseKey(jint* data, int* lab, sparsegraph* canon){
+	sortlists_sg(canon);
+
+	int n = canon->nv;
+	jint pos = 0;
+	for(int i = 0; i < n; i++){
+		data[pos++] = lab[i];
+	}
+
+	for(int i = 0; i < n; i++){
+		data[pos++] = canon->d[i];
+		for(int j = 0; j < canon->d[i]; j++){
+			data[pos++] = canon->e[canon->v[i] + j];
+		}
+	}
+
+	return pos;
+}
+
+/**
+ * Writes the canonical form of a dense graph to the given key buffer. The
+ * canonical labelling is written first, followed by for each vertex in canonical
+ * order its out degree and the sorted canonical indices of its out neighbors.
+ * The canonical form is built in the key buffer of the workspace and only the
+ * part that was written is copied back to the Java key buffer.
  * @param env JNI environment.
- * @param len The number of vertices in the graph (and also the size of all the arrays).
- * @param colors The array containing raw color information data. Contains vertex
- *        indices in blocks of the same color with the start of a block of the same
- *        color being indicated by a negated value. All vertex indices are also always
- *        one higher than their actual index in the graph.
- * @param labels The array containing all the vertex indices for the color information,
- *        combined with the ptn array this describes the graph coloring.
- * @param ptn Array indicating at which indices in the labels array a new block of vertices
- *        with the same color starts. Start indices will have a value of 0 while
- *        all other indices will have a value of 1.
- */
-void parseColoring(JNIEnv* env, int len, jintArray* colors, int* labels, int* ptn){
-	jint* colorData = (*env)->GetIntArrayElements(env, *colors, 0);
-	for(int i = 0; i < len; i++){
-		if(colorData[i] < 0){
-			labels[i] = -colorData[i] - 1;
-			ptn[i] = 0;
-		}else{
-			labels[i] = colorData[i] - 1;
-			ptn[i] = 1;
+ * @param key The buffer to write the canonical form to, can be NULL.
+ * @param offset The index in the key buffer to start writing at.
+ * @param ws The workspace holding the canonical labelling and dense
+ *        canonical graph as computed by nauty.
+ * @param record The record of the input graph, see CsrGraph for the format.
+ * @return The number of integers written to the key buffer.
+ */
+jint writeDenseKey(JNIEnv* env, jintArray key, jint offset, workspace* ws, jint* record){
+	if(key == NULL){
+		return 0;
+	}
+
+	int n = record[0];
+	jint* data = prepareKey(ws, record);
+	jint pos = copyDenseKey(data, ws->labels, ws->denseCanon, SETWORDSNEEDED(n), n);
+	(*env)->SetIntArrayRegion(env, key, offset, pos, data);
+	return pos;
+}
+
+/**
+ * Copies the canonical form of a dense graph to the given buffer. The canonical
+ * labelling is written first, followed by for each vertex in canonical order its
+ * out degree and the sorted canonical indices of its out neighbors.
+ * @param data The buffer to write the canonical form to.
+ * @param lab The canonical labelling as computed by nauty.
+ * @param canon The canonically labeled graph.
+ * @param m The number of setwords per row of the graph.
+ * @param n The number of vertices in the graph.
+ * @return The number of integers written to the buffer.
+ */
+jint copyDenseKey(jint* data, int* lab, graph* canon, int m, int n){
+	jint pos = 0;
+	for(int i = 0; i < n; i++){
+		data[pos++] = lab[i];
+	}
+
+	for(int i = 0; i < n; i++){
+		set* row = GRAPHROW(canon, i, m);
+		jint deg = pos++;
+		for(int j = -1; (j = nextelement(row, m, j)) >= 0;){
+			data[pos++] = j;
 		}
+		data[deg] = pos - deg - 1;
 	}
-	(*env)->ReleaseIntArrayElements(env, *colors, colorData, 0);
+
+	return pos;
+}
+
+/**
+ * Writes the search statistics of a single graph to the given result buffer,
+ * see SearchStatistics for the format. The group size is written as its raw
+ * mantissa and base 10 exponent, since it can exceed the range of a double.
+ * @param data The buffer to write SEARCH_STATISTICS_LENGTH elements to.
+ * @param grpsize1 The mantissa of the size of the automorphism group.
+ * @param grpsize2 The base 10 exponent of the size of the automorphism group.
+ * @param nodes The number of nodes in the search tree.
+ * @param generators The number of generators found for the automorphism group.
+ * @param maxLevel The maximum level reached in the search tree.
+ */
+void writeSearchStatistics(jlong* data, double grpsize1, int grpsize2, unsigned long nodes, int generators, int maxLevel){
+	memcpy(data, &grpsize1, sizeof(jlong));
+	data[1] = grpsize2;
+	data[2] = nodes;
+	data[3] = generators;
+	data[4] = maxLevel;
 }
 
 /**
@@ -93,3 +314,92 @@ void parseColoring(JNIEnv* env, int len, jintArray* colors, int* labels, int* pt
 jlong totalTime(struct timespec* start, struct timespec* end){
 	return (end->tv_sec - start->tv_sec) * 1000000000 + (end->tv_nsec - start->tv_nsec);
 }
+
+/**
+ * The time after which canonization of the current graph on this
+ * thread is aborted, only relevant if a time limit was set.
+ */
+static TLS_ATTR struct timespec deadline;
+
+/**
+ * Starts the time limit for canonizing a single graph on the calling
+ * thread. Any pending kill request left on this thread is cleared. When
+ * a time limit is set the search is aborted by setting the (thread local)
+ * nauty kill request from one of the time limit hooks, so these hooks have
+ * to be installed in the options for the canonization call.
+ * @param timeout The time limit in nanoseconds starting from now,
+ *        or NO_TIME_LIMIT if canonization is not limited.
+ * @return True if a time limit was set and the time limit hooks are required.
+ * @see nodeTimeLimit
+ * @see automTimeLimit
+ * @see canonTimeLimit
+ */
+boolean startTimeLimit(jlong timeout){
+	nauty_kill_request = 0;
+	if(timeout == NO_TIME_LIMIT){
+		return FALSE;
+	}
+
+	clock_gettime(CLOCK_MONOTONIC_RAW, &deadline);
+	deadline.tv_sec += timeout / 1000000000;
+	deadline.tv_nsec += timeout % 1000000000;
+	if(deadline.tv_nsec >= 1000000000){
+		deadline.tv_sec++;
+		deadline.tv_nsec -= 1000000000;
+	}
+
+	return TRUE;
+}
+
+/**
+ * Ends the time limit for the current graph on the calling thread and
+ * clears the kill request. If the time limit was exceeded then the state
+ * of the canonical graph and labelling is undefined.
+ * @return True if the time limit was exceeded.
+ */
+boolean endTimeLimit(void){
+	boolean exceeded = nauty_kill_request != 0;
+	nauty_kill_request = 0;
+	return exceeded;
+}
+
+/**
+ * Checks if the time limit for the current graph has passed
+ * and if so requests the running search to be aborted.
+ */
+static void checkTimeLimit(void){
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC_RAW, &now);
+	if(now.tv_sec > deadline.tv_sec || (now.tv_sec == deadline.tv_sec && now.tv_nsec >= deadline.tv_nsec)){
+		nauty_kill_request = 1;
+	}
+}
+
+/**
+ * Time limit hook for nauty, nauty calls this function at every
+ * node of the search tree and checks the kill request right after.
+ * The signature is that of the usernodeproc option.
+ */
+void nodeTimeLimit(graph* g, int* lab, int* ptn, int level, int numcells, int tc, int code, int m, int n){
+	checkTimeLimit();
+}
+
+/**
+ * Time limit hook for traces called for every automorphism found. Traces
+ * only checks the kill request at the start of each stage of its search,
+ * so for traces the time limit is enforced on a best effort basis.
+ * The signature is that of the userautomproc option.
+ */
+void automTimeLimit(int count, int* perm, int n){
+	checkTimeLimit();
+}
+
+/**
+ * Time limit hook for traces called for every better labelling found.
+ * The signature is that of the usercanonproc option.
+ * @return Always 0, traces ignores the return value.
+ */
+int canonTimeLimit(graph* g, int* lab, graph* canong, int count, int code, int m, int n){
+	checkTimeLimit();
+	return 0;
+}
@@ -25,56 +25,127 @@
  * the time in nanoseconds required for computations.
  * @param The JNI environment.
  * @param Calling class.
- * @param adj The input graph in adjacency list format, n arrays with
- *        each the indices of the neighbors of the n-th vertex.
- * @param colors The array containing raw color information data. Contains vertex
- *        indices in blocks of the same color with the start of a block of the same
- *        color being indicated by a negated value. All vertex indices are also always
- *        one higher than their actual index in the graph.
- * @return An array with two elements, first the time in nanoseconds it
- *         took to construct the graph and second the time in nanoseconds
- *         it took to compute the canonical form of the graph.
+ * @param handle Pointer to the workspace to use, only one thread can use a workspace at a time.
+ * @param graph Direct buffer with the record of the input graph, for the graph the number
+ *        of vertices n, the number of edges m, n + 1 offsets into the edge targets, m edge
+ *        targets and lastly the n vertex colors.
+ * @param key The buffer to write the canonical form of the graph to, can be NULL.
+ * @param timeout The time limit in nanoseconds for computing the canonical form,
+ *        or NO_TIME_LIMIT if canonization is not limited.
+ * @return An array with first the time in nanoseconds it took to construct
+ *         the graph, second the time in nanoseconds it took to compute the
+ *         canonical form of the graph or TIME_LIMIT_EXCEEDED if the time limit
+ *         was exceeded, third the number of integers written to the key buffer,
+ *         then the SEARCH_STATISTICS_LENGTH search statistics elements and lastly
+ *         the HARDWARE_COUNTERS_LENGTH hardware counters.
  */
-JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Traces_computeCanon(JNIEnv* env, jclass obj, jobjectArray adj, jintArray colors){
+JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Traces_computeCanon(JNIEnv* env, jclass obj, jlong handle, jobject graph, jintArray key, jlong timeout){
 	struct timespec start;
 	clock_gettime(CLOCK_MONOTONIC_RAW, &start);
-	SG_DECL(graph);
+	workspace* ws = (workspace*)(intptr_t)handle;
+	jint* record = (jint*)(*env)->GetDirectBufferAddress(env, graph);
 
-	constructSparseGraph(env, &adj, &graph);
-
-	DYNALLSTAT(int, labels, labels_sz);
-	DYNALLSTAT(int, ptn, ptn_sz);
-	DYNALLSTAT(int, orbits, orbits_sz);
-
-	static DEFAULTOPTIONS_TRACES(options);
+	DEFAULTOPTIONS_TRACES(options);
 	TracesStats stats;
 	options.getcanon = TRUE;
 	options.defaultptn = FALSE;
 
-	int n = graph.nv;
-	DYNALLOC1(int, labels, labels_sz, n, "malloc");
-	DYNALLOC1(int, ptn, ptn_sz, n, "malloc");
-	DYNALLOC1(int, orbits, orbits_sz, n, "malloc");
-
-	parseColoring(env, n, &colors, labels, ptn);
+	readColoring(record, ws);
+	readSparseGraph(record, &ws->input);
 
+	startHardwareCounters();
 	struct timespec mid;
 	clock_gettime(CLOCK_MONOTONIC_RAW, &mid);
 
 	//compute canonical form and labeling
-	SG_DECL(canon);
-	Traces(&graph, labels, ptn, orbits, &options, &stats, &canon);
+	if(startTimeLimit(timeout)){
+		options.userautomproc = automTimeLimit;
+		options.usercanonproc = canonTimeLimit;
+	}
+	Traces(&ws->input, ws->labels, ws->ptn, ws->orbits, &options, &stats, &ws->canon);
 
 	struct timespec end;
 	clock_gettime(CLOCK_MONOTONIC_RAW, &end);
+	jlong data[3 + SEARCH_STATISTICS_LENGTH + HARDWARE_COUNTERS_LENGTH];
+	endHardwareCounters(data + 3 + SEARCH_STATISTICS_LENGTH);
 
-	//return times
-	jlongArray result = (*env)->NewLongArray(env, 2);
+	boolean exceeded = endTimeLimit();
+	jint keyLength = exceeded ? 0 : writeSparseKey(env, key, 0, ws, record, &ws->canon);
+
+	//return times, key length, search statistics and hardware counters
+	jlongArray result = (*env)->NewLongArray(env, 3 + SEARCH_STATISTICS_LENGTH + HARDWARE_COUNTERS_LENGTH);
 
-	jlong data[2];
 	data[0] = totalTime(&start, &mid);
-	data[1] = totalTime(&mid, &end);
-	(*env)->SetLongArrayRegion(env, result, 0, 2, data);
+	data[1] = exceeded ? TIME_LIMIT_EXCEEDED : totalTime(&mid, &end);
+	data[2] = keyLength;
+	writeSearchStatistics(data + 3, stats.grpsize1, stats.grpsize2, stats.numnodes, stats.numgenerators, stats.treedepth);
+	(*env)->SetLongArrayRegion(env, result, 0, 3 + SEARCH_STATISTICS_LENGTH + HARDWARE_COUNTERS_LENGTH, data);
 
 	return result;
 }
+
+/**
+ * Computes the canonical form of all the colored graphs in the given batch
+ * using traces. All graphs are canonized in a single native call.
+ * @param The JNI environment.
+ * @param Calling class.
+ * @param handle Pointer to the workspace to use, only one thread can use a workspace at a time.
+ * @param data The packed graph records of the batch, for each graph the number of
+ *        vertices n, the number of edges m, n + 1 offsets into the edge targets,
+ *        m edge targets and lastly the n vertex colors.
+ * @param index The start of the record of every graph in the data array.
+ * @param count The number of graphs in the batch.
+ * @param keys The buffer to write the canonical forms of all graphs to back to back, can be NULL.
+ * @param results The buffer to write for every graph the time in nanoseconds it
+ *        took to construct the graph, the time in nanoseconds it took to compute
+ *        the canonical form of the graph (or TIME_LIMIT_EXCEEDED) and the number of
+ *        integers written to the key buffer to.
+ * @param timeout The time limit in nanoseconds for computing the canonical form
+ *        of every graph, or NO_TIME_LIMIT if canonization is not limited.
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Traces_computeCanonBatch(JNIEnv* env, jclass obj, jlong handle, jintArray data, jintArray index, jint count, jintArray keys, jlongArray results, jlong timeout){
+	workspace* ws = (workspace*)(intptr_t)handle;
+	jint* records = (*env)->GetIntArrayElements(env, data, 0);
+	jint* offsets = (*env)->GetIntArrayElements(env, index, 0);
+	jlong* times = (*env)->GetLongArrayElements(env, results, 0);
+	jint pos = 0;
+
+	DEFAULTOPTIONS_TRACES(options);
+	TracesStats stats;
+	options.getcanon = TRUE;
+	options.defaultptn = FALSE;
+
+	for(int i = 0; i < count; i++){
+		struct timespec start;
+		clock_gettime(CLOCK_MONOTONIC_RAW, &start);
+
+		jint* record = records + offsets[i];
+		readColoring(record, ws);
+		readSparseGraph(record, &ws->input);
+
+		struct timespec mid;
+		clock_gettime(CLOCK_MONOTONIC_RAW, &mid);
+
+		//compute canonical form and labeling
+		if(startTimeLimit(timeout)){
+			options.userautomproc = automTimeLimit;
+			options.usercanonproc = canonTimeLimit;
+		}
+		Traces(&ws->input, ws->labels, ws->ptn, ws->orbits, &options, &stats, &ws->canon);
+
+		struct timespec end;
+		clock_gettime(CLOCK_MONOTONIC_RAW, &end);
+
+		boolean exceeded = endTimeLimit();
+		jint keyLength = exceeded ? 0 : writeSparseKey(env, keys, pos, ws, record, &ws->canon);
+		pos += keyLength;
+
+		times[i * 3] = totalTime(&start, &mid);
+		times[i * 3 + 1] = exceeded ? TIME_LIMIT_EXCEEDED : totalTime(&mid, &end);
+		times[i * 3 + 2] = keyLength;
+	}
+
+	(*env)->ReleaseLongArrayElements(env, results, times, 0);
+	(*env)->ReleaseIntArrayElements(env, index, offsets, JNI_ABORT);
+	(*env)->ReleaseIntArrayElements(env, data, records, JNI_ABORT);
+}
@@ -0,0 +1,3 @@
+set src="../../src/dev/roanh/cpqkeys/algo"
+javac -h ./include %src%/NautyWorkspace.java
+del %src%\NautyWorkspace.class
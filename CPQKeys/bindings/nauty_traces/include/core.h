@@ -20,6 +20,7 @@
 #define include_dev_roanh_cpqkeys_core
 
 #include <jni.h>
+#include <hardware_counters.h>
 #include <nausparse.h>
 #include <time.h>
 
@@ -28,16 +29,128 @@
 #endif
 
 /**
- * Constructs a sparse graph from the given adjacency list
- * representation of a graph.
+ * Time limit value indicating that canonization is not limited.
  */
-void constructSparseGraph(JNIEnv*, jobjectArray*, sparsegraph*);
+#define NO_TIME_LIMIT 0x7FFFFFFFFFFFFFFFLL
 
 /**
- * Constructs the graph coloring information arrays 'labels' and 'ptn'
- * from the given color data array.
+ * Canonization time reported for graphs that exceeded their time limit.
  */
-void parseColoring(JNIEnv*, int, jintArray*, int*, int*);
+#define TIME_LIMIT_EXCEEDED -1LL
+
+/**
+ * Number of elements appended to the result array of a single graph
+ * to report the search statistics of the graph.
+ */
+#define SEARCH_STATISTICS_LENGTH 5
+
+/**
+ * Native workspace holding all the buffers required to construct and
+ * canonize a graph with nauty or traces. Buffers only ever grow and a
+ * workspace is only ever used by a single thread at a time.
+ */
+typedef struct{
+	int* labels;
+	size_t labels_sz;
+	int* ptn;
+	size_t ptn_sz;
+	int* orbits;
+	size_t orbits_sz;
+	sparsegraph input;
+	sparsegraph canon;
+	graph* denseInput;
+	size_t denseInput_sz;
+	graph* denseCanon;
+	size_t denseCanon_sz;
+	jint* key;
+	size_t key_sz;
+} workspace;
+
+/**
+ * Ensures the labels, ptn and orbits arrays of the given
+ * workspace can hold at least the given number of vertices.
+ */
+void prepareWorkspace(workspace*, int);
+
+/**
+ * Reads the coloring of a graph from a graph
+ * record into the given workspace.
+ */
+int readColoring(jint*, workspace*);
+
+/**
+ * Reads a sparse graph from a graph record.
+ */
+void readSparseGraph(jint*, sparsegraph*);
+
+/**
+ * Reads a dense graph from a graph record
+ * into the given workspace.
+ */
+int readDenseGraph(jint*, workspace*);
+
+/**
+ * Ensures the key buffer of the given workspace can hold
+ * the canonical form of the graph with the given record.
+ */
+jint* prepareKey(workspace*, jint*);
+
+/**
+ * Writes the canonical labelling and canonical edge set of
+ * a sparse graph to the given key buffer at the given offset.
+ */
+jint writeSparseKey(JNIEnv*, jintArray, jint, workspace*, jint*, sparsegraph*);
+
+/**
+ * Copies the canonical labelling and canonical edge
+ * set of a sparse graph to the given buffer.
+ */
+jint copySparseKey(jint*, int*, sparsegraph*);
+
+/**
+ * Writes the canonical labelling and canonical edge set of
+ * a dense graph to the given key buffer at the given offset.
+ */
+jint writeDenseKey(JNIEnv*, jintArray, jint, workspace*, jint*);
+
+/**
+ * Copies the canonical labelling and canonical edge
+ * set of a dense graph to the given buffer.
+ */
+jint copyDenseKey(jint*, int*, graph*, int, int);
+
+/**
+ * Writes the search statistics of a single graph
+ * to the given result buffer.
+ */
+void writeSearchStatistics(jlong*, double, int, unsigned long, int, int);
+
+/**
+ * Starts the time limit for canonizing a single graph on the
+ * calling thread, returns whether the time limit hooks are required.
+ */
+boolean startTimeLimit(jlong);
+
+/**
+ * Ends the time limit for the current graph on the calling
+ * thread, returns whether the time limit was exceeded.
+ */
+boolean endTimeLimit(void);
+
+/**
+ * Time limit hook for nauty called at every search tree node.
+ */
+void nodeTimeLimit(graph*, int*, int*, int, int, int, int, int, int);
+
+/**
+ * Time limit hook for traces called for every automorphism found.
+ */
+void automTimeLimit(int, int*, int);
+
+/**
+ * Time limit hook for traces called for every better labelling found.
+ */
+int canonTimeLimit(graph*, int*, graph*, int, int, int, int);
 
 /**
  * Computes the time in nanoseconds between the given start and end time.
@@ -10,18 +10,34 @@ extern "C" {
 /*
  * Class:     dev_roanh_cpqkeys_algo_Nauty
  * Method:    computeCanonSparse
- * Signature: ([[I[I)[J
+ * Signature: (JLjava/nio/IntBuffer;[IJ)[J
  */
 JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Nauty_computeCanonSparse
-  (JNIEnv *, jclass, jobjectArray, jintArray);
+  (JNIEnv *, jclass, jlong, jobject, jintArray, jlong);
 
 /*
  * Class:     dev_roanh_cpqkeys_algo_Nauty
  * Method:    computeCanonDense
- * Signature: ([[I[I)[J
+ * Signature: (JLjava/nio/IntBuffer;[IJ)[J
  */
 JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Nauty_computeCanonDense
-  (JNIEnv *, jclass, jobjectArray, jintArray);
+  (JNIEnv *, jclass, jlong, jobject, jintArray, jlong);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_Nauty
+ * Method:    computeCanonSparseBatch
+ * Signature: (J[I[II[I[JJ)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Nauty_computeCanonSparseBatch
+  (JNIEnv *, jclass, jlong, jintArray, jintArray, jint, jintArray, jlongArray, jlong);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_Nauty
+ * Method:    computeCanonDenseBatch
+ * Signature: (J[I[II[I[JJ)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Nauty_computeCanonDenseBatch
+  (JNIEnv *, jclass, jlong, jintArray, jintArray, jint, jintArray, jlongArray, jlong);
 
 #ifdef __cplusplus
 }
@@ -0,0 +1,29 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class dev_roanh_cpqkeys_algo_NautyWorkspace */
+
+#ifndef _Included_dev_roanh_cpqkeys_algo_NautyWorkspace
+#define _Included_dev_roanh_cpqkeys_algo_NautyWorkspace
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     dev_roanh_cpqkeys_algo_NautyWorkspace
+ * Method:    allocate
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_dev_roanh_cpqkeys_algo_NautyWorkspace_allocate
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_NautyWorkspace
+ * Method:    setHardwareCounters
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_NautyWorkspace_setHardwareCounters
+  (JNIEnv *, jclass, jboolean);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -10,10 +10,18 @@ extern "C" {
 /*
  * Class:     dev_roanh_cpqkeys_algo_Traces
  * Method:    computeCanon
- * Signature: ([[I[I)[J
+ * Signature: (JLjava/nio/IntBuffer;[IJ)[J
  */
 JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Traces_computeCanon
-  (JNIEnv *, jclass, jobjectArray, jintArray);
+  (JNIEnv *, jclass, jlong, jobject, jintArray, jlong);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_Traces
+ * Method:    computeCanonBatch
+ * Signature: (J[I[II[I[JJ)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Traces_computeCanonBatch
+  (JNIEnv *, jclass, jlong, jintArray, jintArray, jint, jintArray, jlongArray, jlong);
 
 #ifdef __cplusplus
 }
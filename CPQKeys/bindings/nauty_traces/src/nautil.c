@@ -91,7 +91,7 @@ static TLS_ATTR int workperm[MAXN];
 #endif
 
 int labelorg = 0;   /* no TLS_ATTR on purpose */
-volatile int nauty_kill_request = 0;   /* no TLS_ATTR on purpose */
+TLS_ATTR volatile int nauty_kill_request = 0;   /* CPQKeys: TLS_ATTR for per-thread time limits */
 
 /* aproto: header new_nauty_protos.h */
 
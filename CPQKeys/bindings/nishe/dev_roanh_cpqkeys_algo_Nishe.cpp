@@ -21,65 +21,97 @@
 #include <nishe/Refiner-inl.h>
 #include <nishe/DirectedGraph.h>
 #include <chrono>
+#include <vector>
+#include <algorithm>
 
 using namespace nishe;
 using namespace std::chrono;
 
 /**
- * Computes the canonical trace value and new partition nest for the
- * given graph with the given vertex coloring. Returns the time in
- * nanoseconds required for computations.
- * @param env JNI environment.
- * @param obj Calling class.
- * @param adj The input graph in adjacency list format, n arrays with
- *        each the indices of the neighbors of the n-th vertex.
- * @param colors An array defining the color of each vertex, the array
- *        is expected to contain the indices of the vertices with the
- *        same color in the following format. The index used to refer
- *        to a vertex is always one higher than the actual index in the
- *        adjacency list. A negative index indicates the start of a new
- *        color group with all following vertices being of the same color.
- *        Vertices within each color group are expected to be in sorted
- *        ascending order.
- * @return An array with two elements, first the time in nanoseconds it
- *         took to construct the partition nest and graph and second the
- *         time in nanoseconds it took to compute the refinement trace.
+ * Copies the refined form of the given graph to the given buffer. The
+ * order of the refined partition is written first, followed by for each vertex
+ * in this order its out degree and the sorted indices of its out neighbors.
+ * @param key The buffer to write the refined form to.
+ * @param n The number of vertices in the graph.
+ * @param edges The n + 1 offsets into the edge targets of the graph.
+ * @param targets The edge targets of the graph.
+ * @param pi The refined partition nest.
+ * @return The number of integers written to the buffer.
  */
-JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Nishe_computeCanon(JNIEnv* env, jclass obj, jobjectArray adj, jintArray colors){
+jint copyKey(jint* key, int n, jint* edges, jint* targets, PartitionNest& pi){
+	std::vector<jint> order(n);
+	for(int u = 0; u < n; u++){
+		order[pi.elements()[u]] = u;
+	}
+
+	jint pos = 0;
+	for(int u = 0; u < n; u++){
+		key[pos++] = pi.elements()[u];
+	}
+
+	for(int u = 0; u < n; u++){
+		int node = pi.elements()[u];
+		int degree = edges[node + 1] - edges[node];
+		key[pos++] = degree;
+		for(int j = 0; j < degree; j++){
+			key[pos + j] = order[targets[edges[node] + j]];
+		}
+		std::sort(key + pos, key + pos + degree);
+		pos += degree;
+	}
+
+	return pos;
+}
+
+/**
+ * Computes the canonical trace value and new partition nest for the given
+ * colored graph and copies its refined form to the given buffer. The vertices
+ * of each color are put in increasing order.
+ * @param record The record of the input graph, for the graph the number of
+ *        vertices n, the number of edges m, n + 1 offsets into the edge targets,
+ *        m edge targets and lastly the n vertex colors.
+ * @param key The buffer to write the refined form of the graph to, can be NULL.
+ * @param times The buffer to write the time in nanoseconds it took to construct the
+ *        partition nest and graph, the time in nanoseconds it took to compute the
+ *        refinement trace and the number of integers written to the key buffer to.
+ */
+void canonize(jint* record, jint* key, jlong* times){
 	steady_clock::time_point start_time = steady_clock::now();
+	int n = record[0];
+	int m = record[1];
+	jint* edges = record + 2;
+	jint* targets = edges + n + 1;
+	jint* colors = targets + m;
 
-	//construct pi
+	//construct pi with a counting sort on color
 	PartitionNest pi;
+	pi.unit(n);
 
-	jsize len = env->GetArrayLength(adj);
-	pi.unit(len);
-
-	jint* colorData = env->GetIntArrayElements(colors, 0);
-	for(int i = 0; i < len; i++){
-		if(colorData[i] < 0){
-			pi.elements()[i] = -colorData[i] - 1;
-			if(i != 0){
-				pi.enqueue_new_index(i);
-			}
-		}else{
-			pi.elements()[i] = colorData[i] - 1;
-		}
+	int k = 0;
+	for(int u = 0; u < n; u++){
+		k = std::max(k, colors[u] + 1);
+	}
+
+	std::vector<int> start(k + 1, 0);
+	for(int u = 0; u < n; u++){
+		start[colors[u] + 1]++;
+	}
+
+	for(int c = 1; c < k; c++){
+		pi.enqueue_new_index(start[c] += start[c - 1]);
+	}
+
+	for(int u = 0; u < n; u++){
+		pi.elements()[start[colors[u]]++] = u;
 	}
 	pi.commit_pending_indices();
-	env->ReleaseIntArrayElements(colors, colorData, 0);
 
 	//construct graph
 	DirectedGraph graph;
-	for(int u = 0; u < len; u++){
-		jintArray row = (jintArray)(env->GetObjectArrayElement(adj, u));
-		jsize rlen = env->GetArrayLength(row);
-		jint* elem = env->GetIntArrayElements(row, 0);
-
-		for(int i = 0; i < rlen; i++){
-			graph.add_arc(u, elem[i]);
+	for(int u = 0; u < n; u++){
+		for(int j = edges[u]; j < edges[u + 1]; j++){
+			graph.add_arc(u, targets[j]);
 		}
-
-		env->ReleaseIntArrayElements(row, elem, 0);
 	}
 
 	steady_clock::time_point mid_time = steady_clock::now();
@@ -92,13 +124,77 @@ JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Nishe_computeCanon(JNIE
 
 	steady_clock::time_point end_time = steady_clock::now();
 
-	//return times
-	jlongArray result = env->NewLongArray(2);
+	times[0] = duration_cast<nanoseconds>(mid_time - start_time).count();
+	times[1] = duration_cast<nanoseconds>(end_time - mid_time).count();
+	times[2] = key == NULL ? 0 : copyKey(key, n, edges, targets, pi);
+}
+
+/**
+ * Computes the canonical trace value and new partition nest for the
+ * given graph with the given vertex coloring. Returns the time in
+ * nanoseconds required for computations.
+ * @param env JNI environment.
+ * @param obj Calling class.
+ * @param graph Direct buffer with the record of the input graph, for the graph the number
+ *        of vertices n, the number of edges m, n + 1 offsets into the edge targets, m edge
+ *        targets and lastly the n vertex colors.
+ * @param key The buffer to write the refined form of the graph to, can be NULL.
+ *        As Nishe only computes the equitable refinement of the coloring, the
+ *        written labelling is only canonical if the refined partition is discrete.
+ * @return An array with three elements, first the time in nanoseconds it
+ *         took to construct the partition nest and graph, second the time in
+ *         nanoseconds it took to compute the refinement trace and third the
+ *         number of integers written to the key buffer.
+ */
+JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Nishe_computeCanon(JNIEnv* env, jclass obj, jobject graph, jintArray key){
+	jint* record = (jint*)env->GetDirectBufferAddress(graph);
+	jint* keyData = key == NULL ? NULL : env->GetIntArrayElements(key, 0);
 
-	jlong data[2];
-	data[0] = duration_cast<nanoseconds>(mid_time - start_time).count();
-	data[1] = duration_cast<nanoseconds>(end_time - mid_time).count();
-	env->SetLongArrayRegion(result, 0, 2, data);
+	jlong data[3];
+	canonize(record, keyData, data);
 
+	if(keyData != NULL){
+		env->ReleaseIntArrayElements(key, keyData, 0);
+	}
+
+	//return times and key length
+	jlongArray result = env->NewLongArray(3);
+	env->SetLongArrayRegion(result, 0, 3, data);
 	return result;
 }
+
+/**
+ * Computes the canonical trace value and new partition nest for all the
+ * colored graphs in the given batch. All graphs are refined in a single
+ * native call.
+ * @param env JNI environment.
+ * @param obj Calling class.
+ * @param data The packed graph records of the batch, for each graph the number of
+ *        vertices n, the number of edges m, n + 1 offsets into the edge targets,
+ *        m edge targets and lastly the n vertex colors.
+ * @param index The start of the record of every graph in the data array.
+ * @param count The number of graphs in the batch.
+ * @param keys The buffer to write the refined forms of all graphs to back to back, can be NULL.
+ * @param results The buffer to write for every graph the time in nanoseconds it
+ *        took to construct the partition nest and graph, the time in nanoseconds it took to compute the refinement trace
+ *        and the number of integers written to the key buffer to.
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Nishe_computeCanonBatch(JNIEnv* env, jclass obj, jintArray data, jintArray index, jint count, jintArray keys, jlongArray results){
+	jint* records = env->GetIntArrayElements(data, 0);
+	jint* offsets = env->GetIntArrayElements(index, 0);
+	jint* keyData = keys == NULL ? NULL : env->GetIntArrayElements(keys, 0);
+	jlong* times = env->GetLongArrayElements(results, 0);
+	jint pos = 0;
+
+	for(int i = 0; i < count; i++){
+		canonize(records + offsets[i], keyData == NULL ? NULL : keyData + pos, times + i * 3);
+		pos += times[i * 3 + 2];
+	}
+
+	env->ReleaseLongArrayElements(results, times, 0);
+	if(keyData != NULL){
+		env->ReleaseIntArrayElements(keys, keyData, 0);
+	}
+	env->ReleaseIntArrayElements(index, offsets, JNI_ABORT);
+	env->ReleaseIntArrayElements(data, records, JNI_ABORT);
+}
@@ -10,10 +10,18 @@ extern "C" {
 /*
  * Class:     dev_roanh_cpqkeys_algo_Nishe
  * Method:    computeCanon
- * Signature: ([[I[I)[J
+ * Signature: (Ljava/nio/IntBuffer;[I)[J
  */
 JNIEXPORT jlongArray JNICALL Java_dev_roanh_cpqkeys_algo_Nishe_computeCanon
-  (JNIEnv *, jclass, jobjectArray, jintArray);
+  (JNIEnv *, jclass, jobject, jintArray);
+
+/*
+ * Class:     dev_roanh_cpqkeys_algo_Nishe
+ * Method:    computeCanonBatch
+ * Signature: ([I[II[I[J)V
+ */
+JNIEXPORT void JNICALL Java_dev_roanh_cpqkeys_algo_Nishe_computeCanonBatch
+  (JNIEnv *, jclass, jintArray, jintArray, jint, jintArray, jlongArray);
 
 #ifdef __cplusplus
 }
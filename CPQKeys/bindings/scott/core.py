@@ -20,6 +20,7 @@ import sys
 sys.path.insert(0, './scott')
 import scott as st
 import fileinput
+import time
 
 def read_graph(directed = False):
 	'''
@@ -67,4 +68,52 @@ def read_graph(directed = False):
 		args = line.split(" ", 4)
 		graph.add_edge(st.structs.edge.Edge(args[0], nodes[int(args[1])], nodes[int(args[2])], modality = args[3], directed = directed))
 	
-	return graph
\ No newline at end of file
+	return graph
+
+def canonize(directed = False):
+	'''
+	Reads a single graph from standard input using read_graph, computes
+	its canonical form and reports the time taken to construct the graph
+	and to compute the canonical form on standard output. Both times are
+	in nanoseconds and are written as 'setup time: <time>' and 'canon time:
+	<time>' on two separate lines.
+	
+		Parameters:
+			directed (bool): Whether the input graph should be interpreted as directed.
+	'''
+	
+	#construct input graph
+	start = time.time_ns()
+	graph = read_graph(directed)
+	
+	#compute canonical form
+	mid = time.time_ns()
+	canon = st.canonize.to_cgraph(graph)
+	
+	#report times
+	end = time.time_ns()
+	print("setup time:", mid - start)
+	print("canon time:", end - mid, flush = True)
+
+def serve(directed = False):
+	'''
+	Runs a persistent worker that canonizes graphs from standard input until
+	the line 'exit' is read or standard input is closed. Every graph has to
+	be preceded by the line 'graph' followed by the graph in the format
+	expected by read_graph. The runtimes for each graph are reported in the
+	same format as for canonize.
+	
+		Parameters:
+			directed (bool): Whether the input graphs should be interpreted as directed.
+	'''
+	
+	while True:
+		try:
+			line = input().rstrip("\n")
+		except EOFError:
+			break
+		
+		if line == "exit":
+			break
+		elif line == "graph":
+			canonize(directed)
\ No newline at end of file
@@ -18,19 +18,10 @@
 # Slightly hacky imports to keep Scott as a git submodule
 import sys
 sys.path.insert(0, './scott')
-import scott as st
-from core import read_graph
-import time
+from core import canonize, serve
 
-#construct input graph
-start = time.time_ns()
-graph = read_graph(directed = True)
-
-#compute canonical form
-mid = time.time_ns()
-canon = st.canonize.to_cgraph(graph)
-
-#report times
-end = time.time_ns()
-print("setup time:", mid - start)
-print("canon time:", end - mid, flush = True)
\ No newline at end of file
+#run as a persistent worker when requested
+if len(sys.argv) > 1 and sys.argv[1] == "worker":
+	serve(directed = True)
+else:
+	canonize(directed = True)
\ No newline at end of file
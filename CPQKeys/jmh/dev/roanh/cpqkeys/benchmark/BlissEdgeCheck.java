@@ -0,0 +1,115 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.GraphDataSet;
+import dev.roanh.cpqkeys.Main;
+import dev.roanh.cpqkeys.algo.Bliss;
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Util;
+
+/**
+ * Standalone check that Bliss sees every edge of the graphs it canonizes.
+ * The canonical form written by Bliss lists every edge of the transformed
+ * graph, where every input edge became two edges via its label node. So the
+ * edge count reported by the native code can be compared with the edge count
+ * of the input graph. Both the single graph and the batch binding are checked
+ * on the same data sets as used by {@link GraphState}.
+ * @author Roan
+ * @see Bliss
+ */
+public class BlissEdgeCheck{
+	/**
+	 * Number of graphs in each data set.
+	 */
+	private static final int GRAPHS = 100;
+	/**
+	 * Random seed to use to generate the data sets.
+	 */
+	private static final int SEED = 1234;
+	/**
+	 * Numbers of rule applications to generate data sets for.
+	 */
+	private static final int[] RULES = {4, 16, 64, 256, 1024};
+	/**
+	 * Numbers of labels to generate data sets for.
+	 */
+	private static final int[] LABELS = {1, 10};
+
+	/**
+	 * Runs the edge count check, natives are loaded from the 'native'
+	 * folder in the working directory.
+	 * @param args No valid command line arguments.
+	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalStateException When Bliss canonized a graph
+	 *         without seeing all of its edges.
+	 */
+	public static void main(String[] args) throws IOException{
+		Main.loadNatives();
+
+		int checked = 0;
+		for(int rules : RULES){
+			for(int labels : LABELS){
+				Util.setRandomSeed(SEED);
+				List<Graph<Vertex, Predicate>> graphs = new ArrayList<Graph<Vertex, Predicate>>();
+				GraphDataSet.fromCPQ(GRAPHS, rules, labels).forEach(graphs::add);
+
+				CanonicalForm[] keys = new CanonicalForm[graphs.size()];
+				for(int i = 0; i < keys.length; i++){
+					keys[i] = new CanonicalForm();
+				}
+				Bliss.INSTANCE.canonize(graphs, keys);
+
+				CanonicalForm key = new CanonicalForm();
+				for(int i = 0; i < graphs.size(); i++){
+					Bliss.INSTANCE.canonize(graphs.get(i), key);
+					checkEdges(graphs.get(i), key, "single");
+					checkEdges(graphs.get(i), keys[i], "batch");
+					checked++;
+				}
+			}
+		}
+
+		System.out.println("Bliss saw every edge of all " + checked + " graphs.");
+	}
+
+	/**
+	 * Checks that the given canonical form computed by Bliss contains
+	 * every edge of the given input graph.
+	 * @param input The input graph.
+	 * @param key The canonical form computed by Bliss for the input graph.
+	 * @param binding The name of the binding that computed the canonical form.
+	 * @throws IllegalStateException When the canonical form does not
+	 *         contain every edge of the input graph.
+	 */
+	private static void checkEdges(Graph<Vertex, Predicate> input, CanonicalForm key, String binding){
+		//the key lists every edge seen natively, every input edge becomes two edges via its label node
+		long edges = key.getLength() - 2L * key.getNodeCount();
+		if(edges != 2L * input.getEdgeCount()){
+			throw new IllegalStateException("Bliss (" + binding + ") canonized a graph with " + edges + " edges instead of " + (2L * input.getEdgeCount()) + " edges.");
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.Main;
+import dev.roanh.cpqkeys.algo.Scott;
+
+/**
+ * Benchmark for the complete canonization of a single graph by each of
+ * the algorithms evaluated by {@link Main}. Besides the total time per
+ * graph, the time spent in the graph transform, native setup and canonization
+ * phases is reported separately as secondary results. The JNI natives are
+ * loaded from the same 'native' folder as used by {@link Main}.
+ * @author Roan
+ * @see Main#algorithms
+ * @see PhaseCounters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3)
+public class CanonizationBenchmark{
+	/**
+	 * The name of the algorithm to benchmark.
+	 * @see Algorithm#getName()
+	 */
+	@Param({
+		"Scott (undirected)",
+		"Scott (undirected, worker)",
+		"Nishe",
+		"Nauty (sparse)",
+		"Nauty (dense)",
+		"Nauty (auto)",
+		"Traces",
+		"Bliss",
+		"Refinement"
+	})
+	public String algorithm;
+	/**
+	 * The algorithm to benchmark.
+	 */
+	private Algorithm algo;
+
+	/**
+	 * Loads the JNI natives and finds the algorithm to benchmark.
+	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalArgumentException When the algorithm is not
+	 *         one of the algorithms evaluated by {@link Main}.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException{
+		Main.loadNatives();
+		algo = Main.algorithms.stream().filter(a->a.getName().equals(algorithm)).findFirst().orElseThrow(()->new IllegalArgumentException("Unknown algorithm: " + algorithm));
+	}
+
+	/**
+	 * Stops any persistent worker processes started by the algorithm.
+	 */
+	@TearDown(Level.Trial)
+	public void shutdown(){
+		Scott.shutdownWorkers();
+	}
+
+	/**
+	 * Canonizes the next graph from the data set.
+	 * @param graphs The data set to take the graph from.
+	 * @param counters The counters to record the phase times with.
+	 * @return The phase times reported by the algorithm.
+	 */
+	@Benchmark
+	public long[] canonize(GraphState graphs, PhaseCounters counters){
+		long[] times = algo.canonize(graphs.next());
+		counters.record(times);
+		return times;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.roanh.cpqkeys.GraphDataSet;
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Util;
+
+/**
+ * Benchmark state holding a data set of randomly generated CPQ graphs.
+ * Benchmarks cycle through the graphs in the data set, so every invocation
+ * is given the next graph. Data sets are generated from a fixed seed so all
+ * benchmarks with the same parameters run on exactly the same graphs.
+ * @author Roan
+ * @see GraphDataSet#fromCPQ(int, int, int)
+ */
+@State(Scope.Thread)
+public class GraphState{
+	/**
+	 * Number of graphs in the data set.
+	 */
+	private static final int GRAPHS = 100;
+	/**
+	 * Random seed to use to generate the data set.
+	 */
+	private static final int SEED = 1234;
+	/**
+	 * Number of rule applications to use to generate the data set.
+	 */
+	@Param({"4", "16", "64", "256", "1024"})
+	public int rules;
+	/**
+	 * Number of labels to use for the data set.
+	 */
+	@Param({"1", "10"})
+	public int labels;
+	/**
+	 * The graphs in the data set.
+	 */
+	private List<Graph<Vertex, Predicate>> graphs = new ArrayList<Graph<Vertex, Predicate>>();
+	/**
+	 * Index of the next graph to return.
+	 */
+	private int next = 0;
+
+	/**
+	 * Generates the data set for the current parameters.
+	 */
+	@Setup(Level.Trial)
+	public void generate(){
+		Util.setRandomSeed(SEED);
+		graphs.clear();
+		GraphDataSet.fromCPQ(GRAPHS, rules, labels).forEach(graphs::add);
+	}
+
+	/**
+	 * Gets the next graph from the data set, after
+	 * the last graph the first graph is returned again.
+	 * @return The next graph.
+	 */
+	public Graph<Vertex, Predicate> next(){
+		Graph<Vertex, Predicate> graph = graphs.get(next);
+		next = (next + 1) % graphs.size();
+		return graph;
+	}
+}
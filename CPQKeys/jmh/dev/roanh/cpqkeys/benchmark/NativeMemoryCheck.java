@@ -0,0 +1,146 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.GraphDataSet;
+import dev.roanh.cpqkeys.Main;
+import dev.roanh.cpqkeys.algo.Nauty;
+import dev.roanh.cpqkeys.algo.Traces;
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Util;
+
+/**
+ * Standalone check that the nauty and Traces bindings do not leak native
+ * memory. Every algorithm canonizes a large number of graphs while the
+ * resident set size of the process is sampled from <code>/proc/self/status</code>,
+ * so this check only runs on Linux. The check fails if the resident set size
+ * grows by more than a small margin after the warm up phase.
+ * @author Roan
+ * @see Nauty
+ * @see Traces
+ */
+public class NativeMemoryCheck{
+	/**
+	 * Number of graphs in the data set.
+	 */
+	private static final int GRAPHS = 100;
+	/**
+	 * Random seed to use to generate the data set.
+	 */
+	private static final int SEED = 1234;
+	/**
+	 * Number of rule applications to use to generate the data set.
+	 */
+	private static final int RULES = 256;
+	/**
+	 * Number of labels to use for the data set.
+	 */
+	private static final int LABELS = 3;
+	/**
+	 * Number of graphs to canonize before the baseline resident set size is taken.
+	 */
+	private static final int WARMUP = 10000;
+	/**
+	 * Number of graphs to canonize with each algorithm after the warm up.
+	 */
+	private static final int RUNS = 100000;
+	/**
+	 * Number of graphs between resident set size samples.
+	 */
+	private static final int SAMPLE = 20000;
+	/**
+	 * Maximum allowed growth of the resident set size in kilobytes.
+	 */
+	private static final long MAX_GROWTH = 8 * 1024;
+
+	/**
+	 * Runs the memory check, natives are loaded from the 'native'
+	 * folder in the working directory.
+	 * @param args No valid command line arguments.
+	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalStateException When the resident set size grew
+	 *         by more than the allowed margin for some algorithm.
+	 */
+	public static void main(String[] args) throws IOException{
+		Main.loadNatives();
+
+		Util.setRandomSeed(SEED);
+		List<Graph<Vertex, Predicate>> graphs = new ArrayList<Graph<Vertex, Predicate>>();
+		GraphDataSet.fromCPQ(GRAPHS, RULES, LABELS).forEach(graphs::add);
+
+		CanonicalForm key = new CanonicalForm();
+		for(Algorithm algo : new Algorithm[]{Nauty.DENSE, Nauty.SPARSE, Traces.INSTANCE}){
+			canonize(algo, graphs, key, WARMUP);
+			long base = getResidentSetSize();
+			System.out.println(algo.getName() + " after warm up: " + base + " kB");
+
+			long max = base;
+			for(int done = 0; done < RUNS; done += SAMPLE){
+				canonize(algo, graphs, key, SAMPLE);
+				long rss = getResidentSetSize();
+				max = Math.max(max, rss);
+				System.out.println(algo.getName() + " after " + (done + SAMPLE) + " graphs: " + rss + " kB");
+			}
+
+			if(max - base > MAX_GROWTH){
+				throw new IllegalStateException(algo.getName() + " grew the resident set size by " + (max - base) + " kB over " + RUNS + " graphs.");
+			}
+		}
+
+		System.out.println("Resident set size stayed flat for all algorithms.");
+	}
+
+	/**
+	 * Canonizes the given number of graphs by cycling through the given data set.
+	 * @param algo The algorithm to use.
+	 * @param graphs The data set to cycle through.
+	 * @param key The canonical form buffer to reuse.
+	 * @param count The number of graphs to canonize.
+	 */
+	private static void canonize(Algorithm algo, List<Graph<Vertex, Predicate>> graphs, CanonicalForm key, int count){
+		for(int i = 0; i < count; i++){
+			algo.canonize(graphs.get(i % graphs.size()), key);
+		}
+		System.gc();
+	}
+
+	/**
+	 * Reads the current resident set size of this process.
+	 * @return The resident set size in kilobytes.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private static long getResidentSetSize() throws IOException{
+		for(String line : Files.readAllLines(Paths.get("/proc/self/status"))){
+			if(line.startsWith("VmRSS:")){
+				return Long.parseLong(line.replaceAll("[^0-9]", ""));
+			}
+		}
+		throw new IOException("VmRSS not found in /proc/self/status");
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.cpqkeys.GraphDataSet;
+import dev.roanh.cpqkeys.Main;
+import dev.roanh.cpqkeys.algo.Nauty;
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+
+/**
+ * Benchmark used to calibrate which version of nauty {@link Nauty#AUTO}
+ * runs. The graphs of the rule sweep done by {@link Main} are bucketed by
+ * the number of vertices of their transformed graph and both the dense and
+ * the sparse version of nauty are run on every bucket. The largest bucket
+ * for which the dense version is faster gives {@link Nauty#DENSE_MAX_NODES}.
+ * @author Roan
+ * @see Nauty#isDense(int)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3)
+public class NautyDensityBenchmark{
+	/**
+	 * Maximum number of graphs in a bucket.
+	 */
+	private static final int GRAPHS = 100;
+	/**
+	 * Number of graphs to generate for every number of rule applications.
+	 */
+	private static final int SWEEP_SIZE = 1000;
+	/**
+	 * Random seed to use to generate the data sets.
+	 */
+	private static final int SEED = 1234;
+	/**
+	 * Number of labels to use for the data sets.
+	 */
+	private static final int LABELS = 10;
+	/**
+	 * Number of rule applications to start the sweep at.
+	 */
+	private static final int MIN_RULES = 4;
+	/**
+	 * Number of rule applications to end the sweep at.
+	 */
+	private static final int MAX_RULES = 1024;
+	/**
+	 * The number of vertices of the transformed graphs in the bucket.
+	 */
+	@Param({"4", "5", "6", "7", "8", "10", "12", "16", "20", "24", "28", "32"})
+	public int nodes;
+	/**
+	 * The version of nauty to run, either dense or sparse.
+	 */
+	@Param({"dense", "sparse"})
+	public String version;
+	/**
+	 * The version of nauty to run.
+	 */
+	private Algorithm algo;
+	/**
+	 * The graphs in the bucket.
+	 */
+	private List<Graph<Vertex, Predicate>> graphs = new ArrayList<Graph<Vertex, Predicate>>();
+	/**
+	 * Index of the next graph to run.
+	 */
+	private int next = 0;
+
+	/**
+	 * Loads the JNI natives and collects the graphs for the bucket by
+	 * going through the data sets of the rule sweep in order.
+	 * @throws IOException When an IOException occurs.
+	 * @throws IllegalStateException When the rule sweep did not
+	 *         contain any graphs for the bucket.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException{
+		Main.loadNatives();
+		algo = version.equals("dense") ? Nauty.DENSE : Nauty.SPARSE;
+
+		graphs.clear();
+		for(int rules = MIN_RULES; rules <= MAX_RULES && graphs.size() < GRAPHS; rules *= 2){
+			for(Graph<Vertex, Predicate> graph : GraphDataSet.fromCPQ(SWEEP_SIZE, rules, LABELS, SEED)){
+				if(CsrGraph.local().loadLabelled(graph).getNodeCount() == nodes){
+					graphs.add(graph);
+					if(graphs.size() == GRAPHS){
+						break;
+					}
+				}
+			}
+		}
+
+		if(graphs.isEmpty()){
+			throw new IllegalStateException("No graphs with " + nodes + " vertices in the rule sweep.");
+		}
+	}
+
+	/**
+	 * Canonizes the next graph from the bucket, after the
+	 * last graph the first graph is canonized again.
+	 * @return The phase times reported by nauty.
+	 */
+	@Benchmark
+	public long[] canonize(){
+		long[] times = algo.canonize(graphs.get(next));
+		next = (next + 1) % graphs.size();
+		return times;
+	}
+}
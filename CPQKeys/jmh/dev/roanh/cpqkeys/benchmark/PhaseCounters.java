@@ -0,0 +1,104 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.roanh.cpqkeys.Algorithm;
+
+/**
+ * Secondary benchmark results with the average time spent in every phase
+ * of a canonization call. The phase times are reported by the algorithm
+ * bindings themselves, so the native setup and canonization phases can be
+ * reported separately even though they happen in a single native call.
+ * All averages are in nanoseconds per graph over a single iteration.
+ * @author Roan
+ * @see Algorithm#canonize(dev.roanh.gmark.util.Graph)
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class PhaseCounters{
+	/**
+	 * Total graph transform time in nanoseconds.
+	 */
+	private long transform;
+	/**
+	 * Total native setup time in nanoseconds.
+	 */
+	private long setup;
+	/**
+	 * Total canonization time in nanoseconds.
+	 */
+	private long canonization;
+	/**
+	 * Number of recorded canonization calls.
+	 */
+	private long count;
+
+	/**
+	 * Clears all recorded times at the start of an iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void reset(){
+		transform = 0;
+		setup = 0;
+		canonization = 0;
+		count = 0;
+	}
+
+	/**
+	 * Records the phase times of a single canonization call.
+	 * @param times The times returned by the algorithm.
+	 * @see Algorithm#canonize(dev.roanh.gmark.util.Graph)
+	 */
+	public void record(long[] times){
+		transform += times[0];
+		setup += times[1];
+		canonization += times[2];
+		count++;
+	}
+
+	/**
+	 * Gets the average graph transform time.
+	 * @return The average graph transform time in nanoseconds.
+	 */
+	public double transformTime(){
+		return count == 0 ? 0.0D : ((double)transform / count);
+	}
+
+	/**
+	 * Gets the average native setup time.
+	 * @return The average native setup time in nanoseconds.
+	 */
+	public double setupTime(){
+		return count == 0 ? 0.0D : ((double)setup / count);
+	}
+
+	/**
+	 * Gets the average canonization time.
+	 * @return The average canonization time in nanoseconds.
+	 */
+	public double canonizationTime(){
+		return count == 0 ? 0.0D : ((double)canonization / count);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.cpqkeys.GraphUtil;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Util;
+
+/**
+ * Benchmark for the graph transforms that are applied to the input
+ * graphs before they are given to the canonization algorithms. Both
+ * the individual graph transforms and the fused transforms into the
+ * CSR graphs given to the native bindings are measured.
+ * @author Roan
+ * @see GraphUtil
+ * @see CsrGraph
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3)
+public class TransformBenchmark{
+	/**
+	 * Reusable CSR graph to load graphs into.
+	 */
+	private final CsrGraph csr = new CsrGraph();
+
+	/**
+	 * Converts the edge labels of the next graph to nodes.
+	 * @param graphs The data set to take the graph from.
+	 * @return The transformed graph.
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 */
+	@Benchmark
+	public Graph<Object, Void> edgeLabelsToNodes(GraphState graphs){
+		return Util.edgeLabelsToNodes(graphs.next());
+	}
+
+	/**
+	 * Converts the next graph to an undirected graph.
+	 * @param graphs The data set to take the graph from.
+	 * @return The transformed graph.
+	 * @see GraphUtil#toUndirectedGraph(Graph)
+	 */
+	@Benchmark
+	public Graph<Object, Predicate> toUndirectedGraph(GraphState graphs){
+		return GraphUtil.toUndirectedGraph(graphs.next());
+	}
+
+	/**
+	 * Loads the next graph with its edge labels converted to nodes
+	 * into a CSR graph by first constructing the transformed graph.
+	 * @param graphs The data set to take the graph from.
+	 * @return The loaded CSR graph.
+	 * @see CsrGraph#load(Graph, boolean)
+	 */
+	@Benchmark
+	public CsrGraph loadLabelledGraph(GraphState graphs){
+		return csr.load(Util.edgeLabelsToNodes(graphs.next()), false);
+	}
+
+	/**
+	 * Loads the next graph with its edge labels converted to nodes
+	 * into a CSR graph using the fused transform, as used by nauty,
+	 * Bliss and Nishe.
+	 * @param graphs The data set to take the graph from.
+	 * @return The loaded CSR graph.
+	 * @see CsrGraph#loadLabelled(Graph)
+	 */
+	@Benchmark
+	public CsrGraph loadLabelled(GraphState graphs){
+		return csr.loadLabelled(graphs.next());
+	}
+
+	/**
+	 * Loads the undirected version of the next graph with its edge labels
+	 * converted to nodes into a CSR graph by first constructing both
+	 * transformed graphs.
+	 * @param graphs The data set to take the graph from.
+	 * @return The loaded CSR graph.
+	 * @see CsrGraph#load(Graph, boolean)
+	 */
+	@Benchmark
+	public CsrGraph loadUndirectedGraph(GraphState graphs){
+		return csr.load(Util.edgeLabelsToNodes(GraphUtil.toUndirectedGraph(graphs.next())), true);
+	}
+
+	/**
+	 * Loads the undirected version of the next graph with its edge labels
+	 * converted to nodes into a CSR graph using the fused transform, as
+	 * used by Traces.
+	 * @param graphs The data set to take the graph from.
+	 * @return The loaded CSR graph.
+	 * @see CsrGraph#loadUndirected(Graph)
+	 */
+	@Benchmark
+	public CsrGraph loadUndirected(GraphState graphs){
+		return csr.loadUndirected(graphs.next());
+	}
+}
@@ -1,6 +1,11 @@
 package dev.roanh.cpqkeys;
 
-import java.util.function.Function;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
 
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
@@ -12,25 +17,119 @@ import dev.roanh.gmark.util.Graph;
  * @author Roan
  */
 public class Algorithm{
+	/**
+	 * Time limit value indicating that canonization is not limited.
+	 * @see #getTimeLimit()
+	 */
+	public static final long NO_TIME_LIMIT = Long.MAX_VALUE;
+	/**
+	 * Canonization time reported for graphs for which computing
+	 * the canonical form was aborted because the time limit for
+	 * the graph was exceeded. No canonical form is written for
+	 * these graphs.
+	 * @see #getTimeLimit()
+	 */
+	public static final long TIME_LIMIT_EXCEEDED = -1L;
+	/**
+	 * Canonization time reported for graphs for which computing the
+	 * canonical form was skipped entirely because a cheap invariant
+	 * already showed the graph to be distinct from all other graphs.
+	 * No canonical form is written for these graphs.
+	 * @see InvariantFilter
+	 */
+	public static final long CANONIZATION_SKIPPED = -2L;
+	/**
+	 * Canonization time reported for graphs for which the worker process
+	 * running the native stage of an isolated algorithm crashed. No canonical
+	 * form is written for these graphs and the next graph is canonized by a
+	 * new worker process.
+	 * @see NativeWorker
+	 */
+	public static final long WORKER_CRASHED = -3L;
+	/**
+	 * Bean used to measure the CPU time of the thread running an algorithm.
+	 */
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	/**
+	 * The time limit in nanoseconds for canonizing a
+	 * single graph for each thread running an algorithm.
+	 * @see #getTimeLimit()
+	 */
+	private static final ThreadLocal<Long> timeLimit = ThreadLocal.withInitial(()->NO_TIME_LIMIT);
+	/**
+	 * The search statistics reported by the algorithm for the
+	 * last graph canonized by each thread running an algorithm.
+	 * @see #setSearchStatistics(SearchStatistics)
+	 */
+	private static final ThreadLocal<SearchStatistics> searchStatistics = new ThreadLocal<SearchStatistics>();
+	/**
+	 * The hardware counters reported by the algorithm for the
+	 * last graph canonized by each thread running an algorithm.
+	 * @see #setHardwareCounters(HardwareCounters)
+	 */
+	private static final ThreadLocal<HardwareCounters> hardwareCounters = new ThreadLocal<HardwareCounters>();
 	/**
 	 * The display name of this algorithm.
 	 */
 	private String name;
 	/**
-	 * The canonization function for this algorithm.
-	 * @see #canonize(Graph)
+	 * Whether this algorithm can safely run on multiple threads at the same time.
+	 */
+	private boolean threadSafe;
+	/**
+	 * The canonization function for this algorithm. The second
+	 * argument is the buffer to write the canonical form to, or
+	 * <code>null</code> if the canonical form is not required.
+	 * @see #canonize(Graph, CanonicalForm)
+	 */
+	private BiFunction<Graph<Vertex, Predicate>, CanonicalForm, long[]> canonFun;
+	/**
+	 * The batch canonization function for this algorithm, or <code>null</code>
+	 * if this algorithm can only canonize one graph at a time. The second
+	 * argument is the array of buffers to write the canonical forms to, or
+	 * <code>null</code> if the canonical forms are not required.
+	 * @see #canonize(List, CanonicalForm[])
+	 */
+	private BiFunction<List<Graph<Vertex, Predicate>>, CanonicalForm[], long[]> batchFun;
+	
+	/**
+	 * Constructs a new algorithm instance with the given display name
+	 * and canonization function. The algorithm is assumed to not be
+	 * thread safe.
+	 * @param name The display name of this algorithm.
+	 * @param canonFun The canonization function of this algorithm.
 	 */
-	private Function<Graph<Vertex, Predicate>, long[]> canonFun;
+	public Algorithm(String name, BiFunction<Graph<Vertex, Predicate>, CanonicalForm, long[]> canonFun){
+		this(name, canonFun, false);
+	}
 	
 	/**
 	 * Constructs a new algorithm instance with the given
 	 * display name and canonization function.
 	 * @param name The display name of this algorithm.
 	 * @param canonFun The canonization function of this algorithm.
+	 * @param threadSafe True if the canonization function can safely
+	 *        be called from multiple threads at the same time.
+	 */
+	public Algorithm(String name, BiFunction<Graph<Vertex, Predicate>, CanonicalForm, long[]> canonFun, boolean threadSafe){
+		this(name, canonFun, null, threadSafe);
+	}
+	
+	/**
+	 * Constructs a new algorithm instance with the given display
+	 * name, canonization function and batch canonization function.
+	 * @param name The display name of this algorithm.
+	 * @param canonFun The canonization function of this algorithm.
+	 * @param batchFun The function to canonize a batch of graphs in a
+	 *        single call, or <code>null</code> if not supported.
+	 * @param threadSafe True if the canonization function can safely
+	 *        be called from multiple threads at the same time.
 	 */
-	public Algorithm(String name, Function<Graph<Vertex, Predicate>, long[]> canonFun){
+	public Algorithm(String name, BiFunction<Graph<Vertex, Predicate>, CanonicalForm, long[]> canonFun, BiFunction<List<Graph<Vertex, Predicate>>, CanonicalForm[], long[]> batchFun, boolean threadSafe){
 		this.name = name;
 		this.canonFun = canonFun;
+		this.batchFun = batchFun;
+		this.threadSafe = threadSafe;
 	}
 	
 	/**
@@ -41,9 +140,66 @@ public class Algorithm{
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 * @see #time(Graph)
+	 * @see #canonize(Graph, CanonicalForm)
 	 */
 	public long[] canonize(Graph<Vertex, Predicate> graph){
-		return canonFun.apply(graph);
+		return canonFun.apply(graph, null);
+	}
+	
+	/**
+	 * Runs this algorithm on the given input graph and writes the
+	 * computed canonical form to the given buffer. The given buffer
+	 * is only reallocated if it is too small to hold the canonical form,
+	 * so the same buffer can be reused to canonize many graphs.
+	 * @param graph The input graph.
+	 * @param key The buffer to write the canonical form to, if the
+	 *        algorithm does not produce a canonical form that can
+	 *        be exported then the buffer is cleared instead.
+	 * @return An array of time measurements containing in the first
+	 *         index the graph transform time, in the second index the
+	 *         native setup time (graph construction) and in the third
+	 *         index the canonization time. All times are in nanoseconds.
+	 * @see CanonicalForm
+	 */
+	public long[] canonize(Graph<Vertex, Predicate> graph, CanonicalForm key){
+		return canonFun.apply(graph, key);
+	}
+	
+	/**
+	 * Runs this algorithm on all the given input graphs. If this algorithm
+	 * supports batches then all graphs are canonized in a single call,
+	 * otherwise the graphs are canonized one at a time.
+	 * @param graphs The input graphs.
+	 * @param keys The buffers to write the canonical forms to, one for
+	 *        every input graph, or <code>null</code> if the canonical
+	 *        forms are not required.
+	 * @return An array of time measurements containing for every graph in
+	 *         order the graph transform time, the native setup time (graph
+	 *         construction) and the canonization time. All times are in
+	 *         nanoseconds.
+	 * @see #supportsBatch()
+	 * @see #canonize(Graph, CanonicalForm)
+	 */
+	public long[] canonize(List<Graph<Vertex, Predicate>> graphs, CanonicalForm[] keys){
+		if(batchFun != null){
+			return batchFun.apply(graphs, keys);
+		}
+		
+		long[] times = new long[graphs.size() * 3];
+		for(int i = 0; i < graphs.size(); i++){
+			System.arraycopy(canonize(graphs.get(i), keys == null ? null : keys[i]), 0, times, i * 3, 3);
+		}
+		return times;
+	}
+	
+	/**
+	 * Checks if this algorithm can canonize a batch
+	 * of graphs in a single (native) call.
+	 * @return True if this algorithm supports batches.
+	 * @see #canonize(List, CanonicalForm[])
+	 */
+	public boolean supportsBatch(){
+		return batchFun != null;
 	}
 	
 	/**
@@ -54,18 +210,186 @@ public class Algorithm{
 		return name;
 	}
 	
+	/**
+	 * Checks if this algorithm can safely be run on
+	 * multiple threads at the same time.
+	 * @return True if this algorithm is thread safe.
+	 */
+	public boolean isThreadSafe(){
+		return threadSafe;
+	}
+	
 	/**
 	 * Runs this algorithm on the given input graph
 	 * and returns a runtime report with runtime information.
 	 * @param graph The input graph.
 	 * @return A report with runtime information.
 	 * @see #canonize(Graph)
+	 * @see #time(Graph, long)
 	 */
 	public RuntimeReport time(Graph<Vertex, Predicate> graph){
+		return time(graph, NO_TIME_LIMIT);
+	}
+	
+	/**
+	 * Runs this algorithm on the given input graph with the given time limit
+	 * and returns a runtime report with runtime information. If the algorithm
+	 * exceeds the time limit then canonization is aborted and the returned
+	 * report is marked as having exceeded the time limit.
+	 * @param graph The input graph.
+	 * @param limit The time limit in nanoseconds for canonizing
+	 *        the graph, or {@link #NO_TIME_LIMIT}.
+	 * @return A report with runtime information.
+	 * @see #canonize(Graph)
+	 * @see #getTimeLimit()
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 */
+	public RuntimeReport time(Graph<Vertex, Predicate> graph, long limit){
+		timeLimit.set(limit);
+		searchStatistics.remove();
+		hardwareCounters.remove();
+		try{
+			long cpuStart = getThreadCpuTime();
+			long start = System.nanoTime();
+			long[] times = canonize(graph);
+			long end = System.nanoTime();
+			long cpuEnd = getThreadCpuTime();
+			
+			return new RuntimeReport(this, graph, times, end - start, cpuStart == -1L ? -1L : cpuEnd - cpuStart, searchStatistics.get(), hardwareCounters.get());
+		}finally{
+			timeLimit.remove();
+			searchStatistics.remove();
+			hardwareCounters.remove();
+		}
+	}
+	
+	/**
+	 * Runs this algorithm on the given batch of input graphs and returns a
+	 * runtime report for every graph. Any time spent on the batch that is
+	 * not attributed to a specific graph is divided evenly over all graphs.
+	 * CPU time, search statistics and hardware counters are not recorded for
+	 * individual graphs in a batch.
+	 * @param graphs The input graphs.
+	 * @return A report with runtime information for every input graph.
+	 * @see #canonize(List, CanonicalForm[])
+	 * @see #time(List, long)
+	 */
+	public List<RuntimeReport> time(List<Graph<Vertex, Predicate>> graphs){
+		return time(graphs, NO_TIME_LIMIT);
+	}
+	
+	/**
+	 * Runs this algorithm on the given batch of input graphs and returns a
+	 * runtime report for every graph. The given time limit applies to every
+	 * graph in the batch separately. Graphs that exceeded the time limit
+	 * are charged the time limit as their canonization time, since they were
+	 * only aborted after running for the time limit. Any remaining time spent
+	 * on the batch that is not attributed to a specific graph is divided
+	 * evenly over all graphs. CPU time, search statistics and hardware
+	 * counters are not recorded for individual graphs in a batch.
+	 * @param graphs The input graphs.
+	 * @param limit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link #NO_TIME_LIMIT}.
+	 * @return A report with runtime information for every input graph.
+	 * @see #canonize(List, CanonicalForm[])
+	 * @see #getTimeLimit()
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 */
+	public List<RuntimeReport> time(List<Graph<Vertex, Predicate>> graphs, long limit){
+		long[] times;
+		timeLimit.set(limit);
 		long start = System.nanoTime();
-		long[] times = canonize(graph);
+		try{
+			times = canonize(graphs, null);
+		}finally{
+			timeLimit.remove();
+			searchStatistics.remove();
+			hardwareCounters.remove();
+		}
 		long end = System.nanoTime();
 		
-		return new RuntimeReport(this, times, end - start);
+		long other = end - start;
+		int exceeded = 0;
+		for(int i = 0; i < times.length; i++){
+			if(times[i] >= 0){
+				other -= times[i];
+			}else if(times[i] == TIME_LIMIT_EXCEEDED && i % 3 == 2){
+				exceeded++;
+			}
+		}
+		
+		//graphs that exceeded their time limit were only aborted after running for the time limit
+		long exceededTime = exceeded == 0 ? 0L : Math.max(0L, Math.min(limit, other / exceeded));
+		other -= exceededTime * exceeded;
+		other /= Math.max(1, graphs.size());
+		
+		List<RuntimeReport> reports = new ArrayList<RuntimeReport>(graphs.size());
+		for(int i = 0; i < graphs.size(); i++){
+			long[] graph = Arrays.copyOfRange(times, i * 3, i * 3 + 3);
+			long canon = graph[2] == TIME_LIMIT_EXCEEDED ? exceededTime : Math.max(0L, graph[2]);
+			reports.add(new RuntimeReport(this, graphs.get(i), graph, graph[0] + graph[1] + canon + other));
+		}
+		return reports;
+	}
+	
+	/**
+	 * Gets the time limit for canonizing a single graph on the current
+	 * thread. Algorithm implementations should abort canonization of a
+	 * graph when it takes longer than this time limit and report a
+	 * canonization time of {@link #TIME_LIMIT_EXCEEDED} instead. The
+	 * time limit is only set while running {@link #time(Graph, long)}
+	 * or {@link #time(List, long)}.
+	 * @return The time limit in nanoseconds for canonizing a single
+	 *         graph, or {@link #NO_TIME_LIMIT} if there is no limit.
+	 */
+	public static final long getTimeLimit(){
+		return timeLimit.get();
+	}
+	
+	/**
+	 * Sets the time limit for canonizing a single graph on the current
+	 * thread, used to pass on the time limit to native worker processes.
+	 * @param limit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link #NO_TIME_LIMIT}.
+	 * @see #getTimeLimit()
+	 * @see NativeWorker
+	 */
+	static final void setTimeLimit(long limit){
+		timeLimit.set(limit);
+	}
+	
+	/**
+	 * Reports the search statistics for the graph that is being canonized
+	 * on the current thread. Algorithm implementations that can report
+	 * statistics about their search tree should call this method after
+	 * canonizing a graph, the statistics are then included in the runtime
+	 * report for the graph when it was canonized by {@link #time(Graph, long)}.
+	 * @param stats The search statistics for the graph.
+	 * @see RuntimeReport#getSearchStatistics()
+	 */
+	public static final void setSearchStatistics(SearchStatistics stats){
+		searchStatistics.set(stats);
+	}
+	
+	/**
+	 * Reports the hardware counters for the graph that is being canonized
+	 * on the current thread. Algorithm implementations that read hardware
+	 * counters around their canonization should call this method after
+	 * canonizing a graph, the counters are then included in the runtime
+	 * report for the graph when it was canonized by {@link #time(Graph, long)}.
+	 * @param counters The hardware counters for the graph.
+	 * @see RuntimeReport#getHardwareCounters()
+	 */
+	public static final void setHardwareCounters(HardwareCounters counters){
+		hardwareCounters.set(counters);
+	}
+	
+	/**
+	 * Gets the CPU time of the current thread.
+	 * @return The CPU time of the current thread in nanoseconds
+	 *         or -1 if CPU time measurement is not supported.
+	 */
+	private static final long getThreadCpuTime(){
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1L;
 	}
 }
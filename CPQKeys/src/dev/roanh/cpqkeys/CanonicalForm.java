@@ -0,0 +1,242 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reusable buffer for the canonical form of a coloured graph as computed
+ * by one of the canonization algorithms. The buffer is only reallocated
+ * when a larger graph is written to it, so a single instance can be used
+ * to canonize many graphs without allocating a new array for every graph.
+ * <p>
+ * The raw data of a canonical form of a graph with <code>n</code> vertices
+ * consists of the canonical labelling followed by the canonical edge set.
+ * The first <code>n</code> integers give for each canonical position the ID
+ * of the vertex in the input graph that was placed at that position. After
+ * this, for every vertex in canonical order, first its out degree is given
+ * followed by the sorted canonical indices of its out neighbours. Vertex
+ * colours are described by the colour signature of the graph, which lists
+ * all colours in the order of the colour partition together with their size.
+ * <p>
+ * Two canonical forms are considered equal if their colour signature and
+ * canonical edge set are the same. The canonical labelling is not taken into
+ * account as it depends on the vertex IDs of the specific input graph.
+ * @author Roan
+ * @see Algorithm#canonize(dev.roanh.gmark.util.Graph, CanonicalForm)
+ */
+public class CanonicalForm{
+	/**
+	 * The raw canonical form data buffer.
+	 */
+	private int[] data;
+	/**
+	 * The number of vertices in the canonized graph.
+	 */
+	private int nodes;
+	/**
+	 * The number of valid integers in the data buffer.
+	 */
+	private int length;
+	/**
+	 * The colour signature of the canonized graph.
+	 */
+	private String colors;
+
+	/**
+	 * Constructs a new empty canonical form buffer.
+	 */
+	public CanonicalForm(){
+		this(0);
+	}
+
+	/**
+	 * Constructs a new empty canonical form buffer with
+	 * the given initial capacity.
+	 * @param capacity The initial buffer capacity.
+	 */
+	public CanonicalForm(int capacity){
+		data = new int[capacity];
+	}
+
+	/**
+	 * Prepares this canonical form to receive the canonical form of
+	 * a graph with the given number of vertices and edges. The internal
+	 * buffer is only reallocated if it is too small.
+	 * @param nodes The number of vertices in the graph.
+	 * @param edges An upper bound on the number of edges in the graph.
+	 * @param colors The colour signature of the graph.
+	 * @return The buffer the canonical form should be written to.
+	 * @see #setLength(int)
+	 */
+	public int[] prepare(int nodes, int edges, String colors){
+		int size = 2 * nodes + edges;
+		if(data.length < size){
+			data = new int[Math.max(size, data.length * 2)];
+		}
+
+		this.nodes = nodes;
+		this.colors = colors;
+		length = 0;
+		return data;
+	}
+
+	/**
+	 * Sets the number of integers that were written to the buffer
+	 * returned by the last call to {@link #prepare(int, int, String)}.
+	 * @param length The number of valid integers in the buffer.
+	 */
+	public void setLength(int length){
+		this.length = length;
+	}
+
+	/**
+	 * Clears this canonical form, used by algorithms that
+	 * do not compute a canonical form that can be exported.
+	 */
+	public void clear(){
+		nodes = 0;
+		length = 0;
+		colors = null;
+	}
+
+	/**
+	 * Checks if this canonical form currently holds any data.
+	 * @return True if this canonical form is empty.
+	 */
+	public boolean isEmpty(){
+		return length == 0;
+	}
+
+	/**
+	 * Gets the number of vertices in the canonized graph.
+	 * @return The number of vertices in the canonized graph.
+	 */
+	public int getNodeCount(){
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of valid integers in the raw data buffer.
+	 * @return The length of the canonical form data.
+	 * @see #getData()
+	 */
+	public int getLength(){
+		return length;
+	}
+
+	/**
+	 * Gets the ID of the input graph vertex that was placed
+	 * at the given position in the canonical labelling.
+	 * @param index The canonical index of the vertex.
+	 * @return The ID of the vertex in the input graph.
+	 */
+	public int getVertex(int index){
+		return data[index];
+	}
+
+	/**
+	 * Gets the colour signature of the canonized graph.
+	 * @return The colour signature of the canonized graph.
+	 */
+	public String getColorSignature(){
+		return colors;
+	}
+
+	/**
+	 * Gets the raw data buffer for this canonical form. Only
+	 * the first {@link #getLength()} integers are valid.
+	 * @return The raw data buffer.
+	 */
+	public int[] getData(){
+		return data;
+	}
+
+	/**
+	 * Computes a 64-bit hash of this canonical form. Equal canonical
+	 * forms are guaranteed to have the same hash.
+	 * @return A 64-bit hash of this canonical form.
+	 */
+	public long hash(){
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ Objects.hashCode(colors)) * 0x100000001b3L;
+		hash = (hash ^ nodes) * 0x100000001b3L;
+		for(int i = nodes; i < length; i++){
+			hash = (hash ^ data[i]) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Replaces the contents of this canonical form with the contents
+	 * of the given canonical form. The internal buffer is only
+	 * reallocated if it is too small.
+	 * @param other The canonical form to copy.
+	 */
+	public void set(CanonicalForm other){
+		if(data.length < other.length){
+			data = new int[Math.max(other.length, data.length * 2)];
+		}
+
+		System.arraycopy(other.data, 0, data, 0, other.length);
+		nodes = other.nodes;
+		length = other.length;
+		colors = other.colors;
+	}
+
+	/**
+	 * Constructs a copy of this canonical form with
+	 * a buffer that is exactly large enough.
+	 * @return A copy of this canonical form.
+	 */
+	public CanonicalForm copy(){
+		CanonicalForm copy = new CanonicalForm(0);
+		copy.data = Arrays.copyOf(data, length);
+		copy.nodes = nodes;
+		copy.length = length;
+		copy.colors = colors;
+		return copy;
+	}
+
+	@Override
+	public int hashCode(){
+		return Long.hashCode(hash());
+	}
+
+	@Override
+	public boolean equals(Object obj){
+		if(obj instanceof CanonicalForm){
+			CanonicalForm other = (CanonicalForm)obj;
+			if(nodes != other.nodes || length != other.length || !Objects.equals(colors, other.colors)){
+				return false;
+			}
+
+			for(int i = nodes; i < length; i++){
+				if(data[i] != other.data[i]){
+					return false;
+				}
+			}
+
+			return true;
+		}else{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+/**
+ * Native stage of a canonization algorithm that computes the canonical
+ * form of a graph that was already transformed into a CSR graph. This is
+ * the part of an algorithm that can be run in a separate worker process.
+ * @author Roan
+ * @see CsrGraph
+ * @see NativeWorker
+ */
+@FunctionalInterface
+public interface CsrCanonizer{
+	
+	/**
+	 * Computes the canonical form of the given CSR graph. Canonization
+	 * is limited to the time limit of the calling thread.
+	 * @param graph The graph to canonize.
+	 * @param key The buffer to write the canonical form to or <code>null</code>
+	 *        if the canonical form is not required.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer and lastly
+	 *         optionally the search statistics of the graph.
+	 * @see Algorithm#getTimeLimit()
+	 * @see SearchStatistics#fromNative(long[], int)
+	 * @see CsrGraph#prepareKey(CanonicalForm)
+	 */
+	public abstract long[] canonize(CsrGraph graph, int[] key);
+}
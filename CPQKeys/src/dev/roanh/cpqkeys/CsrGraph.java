@@ -0,0 +1,512 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Graph.GraphEdge;
+import dev.roanh.gmark.util.Graph.GraphNode;
+import dev.roanh.gmark.util.Util;
+
+/**
+ * Coloured graph in compressed sparse row format that can be passed to native
+ * code without any per vertex JNI calls. For a graph with <code>n</code> vertices
+ * and <code>m</code> edges the graph is stored as a single record consisting of:
+ * <ol>
+ * <li>The number of vertices <code>n</code>.</li>
+ * <li>The number of edges <code>m</code>.</li>
+ * <li><code>n + 1</code> offsets, where the out neighbours of vertex <code>i</code>
+ * are the targets between offset <code>i</code> and offset <code>i + 1</code>.</li>
+ * <li><code>m</code> edge targets.</li>
+ * <li><code>n</code> vertex colours, colours are numbered from 0 in the order of
+ * the colour groups of the graph (so by colour name), vertices without a colour
+ * have colour 0.</li>
+ * </ol>
+ * The record is kept both in a Java array and in a direct buffer in native
+ * byte order, so native code can read the record in place. A single instance
+ * can be reused for many graphs, its buffers only grow when a larger graph is
+ * loaded. Instances are not thread safe, but each thread can use its own
+ * instance obtained from {@link #local()}.
+ * <p>
+ * Besides loading an arbitrary graph, a CSR graph can also directly load the
+ * result of the graph transforms used by the canonization algorithms. These fused
+ * transforms produce exactly the same record and colour signature as running the
+ * transforms first, but without constructing any of the intermediate graphs.
+ * @author Roan
+ * @see GraphBatch
+ * @see GraphUtil#computeColorGroups(Graph)
+ * @see Util#edgeLabelsToNodes(Graph)
+ * @see GraphUtil#toUndirectedGraph(Graph)
+ */
+public class CsrGraph{
+	/**
+	 * Colour name of the head vertices added by {@link GraphUtil#toUndirectedGraph(Graph)}.
+	 */
+	private static final String HEAD = "head";
+	/**
+	 * Colour name of the tail vertices added by {@link GraphUtil#toUndirectedGraph(Graph)}.
+	 */
+	private static final String TAIL = "tail";
+	/**
+	 * Reusable instance for each thread.
+	 */
+	private static final ThreadLocal<CsrGraph> local = ThreadLocal.withInitial(CsrGraph::new);
+	/**
+	 * The graph record.
+	 */
+	private int[] data = new int[64];
+	/**
+	 * The number of valid integers in the graph record.
+	 */
+	private int length = 0;
+	/**
+	 * Direct buffer with a copy of the graph record.
+	 */
+	private IntBuffer buffer = allocate(64);
+	/**
+	 * The colour signature of the graph.
+	 */
+	private String signature;
+	/**
+	 * Scratch space used to place edges.
+	 */
+	private int[] work = new int[16];
+	/**
+	 * The number of vertices of the graph being loaded.
+	 */
+	private int nodes;
+	/**
+	 * The number of edges of the graph being loaded.
+	 */
+	private int edges;
+	/**
+	 * The source and target of every edge of the graph being loaded.
+	 */
+	private int[] edgeList = new int[32];
+	/**
+	 * For every vertex of the graph being loaded the index of its colour name.
+	 */
+	private int[] nodeColors = new int[16];
+	/**
+	 * The distinct colour names of the graph being loaded.
+	 */
+	private String[] names = new String[4];
+	/**
+	 * The number of distinct colour names of the graph being loaded.
+	 */
+	private int nameCount;
+	/**
+	 * Scratch space used to sort the colour names.
+	 */
+	private int[] order = new int[4];
+	/**
+	 * Reusable builder for the colour signature.
+	 */
+	private final StringBuilder signatureBuilder = new StringBuilder();
+
+	/**
+	 * Loads the given graph into this CSR graph, replacing the graph
+	 * that was loaded before. Vertex colours are computed in the same
+	 * way as for {@link GraphUtil#computeColorGroups(Graph)}.
+	 * @param <V> The vertex data type.
+	 * @param <E> The edge label data type.
+	 * @param graph The graph to load.
+	 * @param bidirectional True if every edge should also be added
+	 *        in the reverse direction, this is used to represent
+	 *        undirected graphs.
+	 * @return This CSR graph.
+	 */
+	public <V, E> CsrGraph load(Graph<V, E> graph, boolean bidirectional){
+		reset(graph.getNodeCount(), graph.getEdgeCount());
+		for(GraphNode<V, E> node : graph.getNodes()){
+			addNode(GraphUtil.getColorName(node.getData()));
+		}
+
+		for(GraphEdge<V, E> edge : graph.getEdges()){
+			addEdge(edge.getSourceNode().getID(), edge.getTargetNode().getID());
+		}
+
+		return build(bidirectional);
+	}
+
+	/**
+	 * Loads the given graph with its edge labels converted to nodes into this CSR graph,
+	 * replacing the graph that was loaded before. The loaded graph is exactly the same
+	 * as the graph loaded by <code>load(Util.edgeLabelsToNodes(graph), false)</code>, but
+	 * the intermediate graph with labelled vertices is never constructed.
+	 * @param <V> The vertex data type.
+	 * @param <E> The edge label data type.
+	 * @param graph The graph to load.
+	 * @return This CSR graph.
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 * @see #load(Graph, boolean)
+	 */
+	public <V, E> CsrGraph loadLabelled(Graph<V, E> graph){
+		reset(graph.getNodeCount() + graph.getEdgeCount(), graph.getEdgeCount() * 2);
+		for(GraphNode<V, E> node : graph.getNodes()){
+			addNode(GraphUtil.getColorName(node.getData()));
+		}
+
+		for(GraphEdge<V, E> edge : graph.getEdges()){
+			addLabelledEdge(edge.getSourceNode().getID(), edge.getTargetNode().getID(), edge.getData());
+		}
+
+		return build(false);
+	}
+
+	/**
+	 * Loads the undirected version of the given graph with its edge labels converted to
+	 * nodes into this CSR graph, replacing the graph that was loaded before. The loaded
+	 * graph is exactly the same as the graph loaded by <code>load(Util.edgeLabelsToNodes(
+	 * GraphUtil.toUndirectedGraph(graph)), true)</code>, but none of the intermediate
+	 * graphs are ever constructed.
+	 * @param <V> The vertex data type.
+	 * @param <E> The edge label data type.
+	 * @param graph The graph to load.
+	 * @return This CSR graph.
+	 * @see GraphUtil#toUndirectedGraph(Graph)
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 * @see #load(Graph, boolean)
+	 */
+	public <V, E> CsrGraph loadUndirected(Graph<V, E> graph){
+		int n = graph.getNodeCount();
+		int m = graph.getEdgeCount();
+		reset(n + m * 3, m * 4);
+		for(GraphNode<V, E> node : graph.getNodes()){
+			addNode(GraphUtil.getColorName(node.getData()));
+		}
+
+		//all head and tail vertices precede the vertices for edge labels
+		for(int i = 0; i < m; i++){
+			addNode(HEAD);
+			addNode(TAIL);
+		}
+
+		int head = n;
+		for(GraphEdge<V, E> edge : graph.getEdges()){
+			addEdge(edge.getSourceNode().getID(), head + 1);
+			addLabelledEdge(head + 1, head, edge.getData());
+			addEdge(head, edge.getTargetNode().getID());
+			head += 2;
+		}
+
+		return build(true);
+	}
+
+	/**
+	 * Clears the graph being loaded and ensures there is scratch
+	 * space for a graph of at most the given size.
+	 * @param maxNodes The maximum number of vertices in the graph.
+	 * @param maxEdges The maximum number of edges in the graph.
+	 */
+	private void reset(int maxNodes, int maxEdges){
+		nodes = 0;
+		edges = 0;
+		nameCount = 0;
+		if(nodeColors.length < maxNodes){
+			nodeColors = new int[Math.max(maxNodes, nodeColors.length * 2)];
+		}
+
+		if(edgeList.length < maxEdges * 2){
+			edgeList = new int[Math.max(maxEdges * 2, edgeList.length * 2)];
+		}
+	}
+
+	/**
+	 * Adds a new vertex with the given colour to the graph being loaded.
+	 * @param color The colour name of the vertex, <code>null</code> if the
+	 *        vertex is not coloured.
+	 * @return The ID of the new vertex.
+	 */
+	private int addNode(String color){
+		int idx = 0;
+		while(idx < nameCount && !(color == null ? names[idx] == null : color.equals(names[idx]))){
+			idx++;
+		}
+
+		if(idx == nameCount){
+			if(names.length == nameCount){
+				names = Arrays.copyOf(names, nameCount * 2);
+			}
+			names[nameCount++] = color;
+		}
+
+		nodeColors[nodes] = idx;
+		return nodes++;
+	}
+
+	/**
+	 * Adds a new edge to the graph being loaded.
+	 * @param src The ID of the source vertex of the edge.
+	 * @param dst The ID of the target vertex of the edge.
+	 */
+	private void addEdge(int src, int dst){
+		edgeList[edges * 2] = src;
+		edgeList[edges * 2 + 1] = dst;
+		edges++;
+	}
+
+	/**
+	 * Adds a new edge to the graph being loaded in the same way as
+	 * {@link Util#edgeLabelsToNodes(Graph)} does. If the edge is labelled
+	 * a new vertex coloured by the label is added in the middle of the edge.
+	 * @param src The ID of the source vertex of the edge.
+	 * @param dst The ID of the target vertex of the edge.
+	 * @param label The label of the edge, possibly <code>null</code>.
+	 * @see GraphUtil#getProxyColorName(Object)
+	 */
+	private void addLabelledEdge(int src, int dst, Object label){
+		if(label == null){
+			addEdge(src, dst);
+		}else{
+			int mid = addNode(GraphUtil.getProxyColorName(label));
+			addEdge(src, mid);
+			addEdge(mid, dst);
+		}
+	}
+
+	/**
+	 * Constructs the record and colour signature of the graph being loaded.
+	 * Colours are numbered by colour name with uncoloured vertices first,
+	 * the same order as used by {@link GraphUtil#computeColorGroups(Graph)}.
+	 * @param bidirectional True if every edge should also be added
+	 *        in the reverse direction, this is used to represent
+	 *        undirected graphs.
+	 * @return This CSR graph.
+	 * @see GraphUtil#getColorSignature(java.util.SortedMap)
+	 */
+	private CsrGraph build(boolean bidirectional){
+		int n = nodes;
+		int m = edges * (bidirectional ? 2 : 1);
+		length = 2 + n + 1 + m + n;
+		if(data.length < length){
+			data = new int[Math.max(length, data.length * 2)];
+		}
+
+		if(work.length < Math.max(n + 1, nameCount * 2)){
+			work = new int[Math.max(Math.max(n + 1, nameCount * 2), work.length * 2)];
+		}
+
+		//count out degrees
+		int[] pos = work;
+		Arrays.fill(pos, 0, n + 1, 0);
+		for(int i = 0; i < edges; i++){
+			pos[edgeList[i * 2] + 1]++;
+			if(bidirectional){
+				pos[edgeList[i * 2 + 1] + 1]++;
+			}
+		}
+
+		//offsets
+		data[0] = n;
+		data[1] = m;
+		int offsets = 2;
+		for(int i = 0; i < n; i++){
+			pos[i + 1] += pos[i];
+		}
+		System.arraycopy(pos, 0, data, offsets, n + 1);
+
+		//targets
+		int targets = offsets + n + 1;
+		for(int i = 0; i < edges; i++){
+			int src = edgeList[i * 2];
+			int dst = edgeList[i * 2 + 1];
+			data[targets + pos[src]++] = dst;
+			if(bidirectional){
+				data[targets + pos[dst]++] = src;
+			}
+		}
+
+		//sort colour names, uncoloured first
+		if(order.length < nameCount){
+			order = new int[Math.max(nameCount, order.length * 2)];
+		}
+
+		for(int i = 0; i < nameCount; i++){
+			String name = names[i];
+			int j = i;
+			while(j > 0 && compareNames(names[order[j - 1]], name) > 0){
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+
+		//rank of every colour name followed by the size of every colour
+		int[] rank = work;
+		for(int i = 0; i < nameCount; i++){
+			rank[order[i]] = i;
+			rank[nameCount + i] = 0;
+		}
+
+		//colours
+		int colors = targets + m;
+		for(int i = 0; i < n; i++){
+			int color = rank[nodeColors[i]];
+			data[colors + i] = color;
+			rank[nameCount + color]++;
+		}
+
+		//colour signature
+		signatureBuilder.setLength(0);
+		for(int i = 0; i < nameCount; i++){
+			if(names[order[i]] != null){
+				signatureBuilder.append(names[order[i]]);
+			}
+			signatureBuilder.append(':');
+			signatureBuilder.append(rank[nameCount + i]);
+			signatureBuilder.append(' ');
+		}
+		signature = signatureBuilder.toString();
+		return flush();
+	}
+
+	/**
+	 * Loads a graph record produced by another CSR graph into this CSR
+	 * graph, replacing the graph that was loaded before. The colour names
+	 * are not part of the record, so the colour signature of the loaded
+	 * graph is not known.
+	 * @param record The array holding the graph record.
+	 * @param length The length of the graph record.
+	 * @return This CSR graph.
+	 * @see #getData()
+	 * @see #getLength()
+	 */
+	public CsrGraph loadRecord(int[] record, int length){
+		if(data.length < length){
+			data = new int[Math.max(length, data.length * 2)];
+		}
+
+		System.arraycopy(record, 0, data, 0, length);
+		this.length = length;
+		signature = null;
+		return flush();
+	}
+
+	/**
+	 * Copies the graph record to the direct buffer.
+	 * @return This CSR graph.
+	 */
+	private CsrGraph flush(){
+		if(buffer.capacity() < length){
+			buffer = allocate(Math.max(length, buffer.capacity() * 2));
+		}
+		buffer.clear();
+		buffer.put(data, 0, length);
+		return this;
+	}
+	/**
+	 * Gets the number of vertices in this graph.
+	 * @return The number of vertices in this graph.
+	 */
+	public int getNodeCount(){
+		return data[0];
+	}
+
+	/**
+	 * Gets the number of edges in this graph.
+	 * @return The number of edges in this graph.
+	 */
+	public int getEdgeCount(){
+		return data[1];
+	}
+
+	/**
+	 * Gets the colour signature of this graph.
+	 * @return The colour signature of this graph or <code>null</code>
+	 *         if the graph was loaded from a graph record.
+	 * @see GraphUtil#getColorSignature(java.util.SortedMap)
+	 */
+	public String getColorSignature(){
+		return signature;
+	}
+
+	/**
+	 * Gets the array holding the record for this graph. Only
+	 * the first {@link #getLength()} integers are valid.
+	 * @return The graph record.
+	 */
+	public int[] getData(){
+		return data;
+	}
+
+	/**
+	 * Gets the length of the record for this graph.
+	 * @return The length of the graph record.
+	 */
+	public int getLength(){
+		return length;
+	}
+
+	/**
+	 * Gets the direct buffer holding the record for this graph.
+	 * @return The direct buffer with the graph record.
+	 */
+	public IntBuffer getBuffer(){
+		return buffer;
+	}
+
+	/**
+	 * Prepares the given canonical form buffer to receive the
+	 * canonical form of this graph.
+	 * @param key The canonical form to prepare, possibly <code>null</code>.
+	 * @return The buffer the native code should write the canonical form
+	 *         to or <code>null</code> if no canonical form was requested.
+	 */
+	public int[] prepareKey(CanonicalForm key){
+		return key == null ? null : key.prepare(getNodeCount(), getEdgeCount(), signature);
+	}
+
+	/**
+	 * Gets the reusable CSR graph instance for the calling thread.
+	 * @return The CSR graph for the calling thread.
+	 */
+	public static CsrGraph local(){
+		return local.get();
+	}
+
+	/**
+	 * Compares two colour names with <code>null</code>
+	 * (uncoloured) ordered before all other names.
+	 * @param a The first colour name.
+	 * @param b The second colour name.
+	 * @return A negative integer, zero or a positive integer if the first
+	 *         name is less than, equal to or greater than the second name.
+	 */
+	private static int compareNames(String a, String b){
+		if(a == null || b == null){
+			return a == b ? 0 : (a == null ? -1 : 1);
+		}else{
+			return a.compareTo(b);
+		}
+	}
+
+	/**
+	 * Allocates a new direct int buffer in native byte order.
+	 * @param size The capacity of the buffer in integers.
+	 * @return The newly allocated buffer.
+	 */
+	private static IntBuffer allocate(int size){
+		return ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+}
@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
 /**
@@ -35,6 +37,11 @@ public class EvaluationResults{
 	 * The evaluation result on different datasets.
 	 */
 	private LinkedHashMap<GraphDataSet, ReportSummaryStatistics> results = new LinkedHashMap<GraphDataSet, ReportSummaryStatistics>();
+	/**
+	 * The key cache counters (hits, misses, evictions) for
+	 * datasets that were evaluated with a key cache.
+	 */
+	private Map<GraphDataSet, long[]> caches = new HashMap<GraphDataSet, long[]>();
 	
 	/**
 	 * Add a new result for evaluating an algorithm on a specific dataset.
@@ -45,6 +52,22 @@ public class EvaluationResults{
 		results.put(data, stats);
 	}
 	
+	/**
+	 * Add a new result for evaluating an algorithm on a specific dataset
+	 * together with the counters of the key cache used by the algorithm.
+	 * @param data The dataset the algorithm was evaluated on.
+	 * @param stats The evaluation runtime statistics.
+	 * @param cache The key cache used by the algorithm, or
+	 *        <code>null</code> if the algorithm was not cached.
+	 * @see KeyCache
+	 */
+	public void addRun(GraphDataSet data, ReportSummaryStatistics stats, KeyCache cache){
+		addRun(data, stats);
+		if(cache != null){
+			caches.put(data, new long[]{cache.getHits(), cache.getMisses(), cache.getEvictions()});
+		}
+	}
+	
 	/**
 	 * Saves the evaluation results to the given file.
 	 * @param file The file to save to.
@@ -56,14 +79,40 @@ public class EvaluationResults{
 			for(Entry<GraphDataSet, ReportSummaryStatistics> pair : results.entrySet()){
 				pair.getKey().print(out);
 				pair.getValue().print(out);
+				long[] cache = caches.get(pair.getKey());
+				if(cache != null){
+					out.println("Cache hits: " + cache[0]);
+					out.println("Cache misses: " + cache[1]);
+					out.println("Cache evictions: " + cache[2]);
+				}
+				if(!pair.getValue().isRetainingReports()){
+					out.println("Raw report data was not retained");
+					out.println();
+					continue;
+				}
+				
 				out.println("Raw report data (setup, native setup, canonization, other, total)");
 				for(RuntimeReport report : pair.getValue().getReports()){
 					report.writeData(out);
 				}
+				
+				if(!pair.getValue().getExceededReports().isEmpty()){
+					out.println("Raw report data for graphs that exceeded the time limit (setup, native setup, canonization lower bound, other, total)");
+					for(RuntimeReport report : pair.getValue().getExceededReports()){
+						report.writeData(out);
+					}
+				}
+				
+				if(!pair.getValue().getCrashedReports().isEmpty()){
+					out.println("Raw report data for graphs that crashed the worker process (setup, native setup, time until crash, other, total)");
+					for(RuntimeReport report : pair.getValue().getCrashedReports()){
+						report.writeData(out);
+					}
+				}
 				out.println();
 			}
 			
-			out.println("Raw data (setup avg, setup stddev, native setup avg, native setup stddev, canonization avg, canonization stddev, other avg, other stddev, total avg, total stddev)");
+			out.println("Raw data (setup avg, setup stddev, native setup avg, native setup stddev, canonization avg, canonization stddev, other avg, other stddev, total avg, total stddev, setup p50, setup p99, setup p99.9, native setup p50, native setup p99, native setup p99.9, canonization p50, canonization p99, canonization p99.9, other p50, other p99, other p99.9, total p50, total p99, total p99.9, search nodes avg, search nodes stddev, search nodes canonization correlation, generators avg, max level avg, log10 group size avg, cycles avg, instructions avg, llc misses avg, branch misses avg)");
 			for(ReportSummaryStatistics stats : results.values()){
 				stats.writeData(out);
 			}
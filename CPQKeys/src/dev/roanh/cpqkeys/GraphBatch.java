@@ -0,0 +1,240 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+
+/**
+ * A batch of coloured graphs packed into a single integer buffer, so that
+ * all the graphs in the batch can be passed to native code in a single call.
+ * Each graph is stored as a record in compressed sparse row format as described
+ * by {@link CsrGraph}, with all the records stored back to back. The start of the
+ * record for each graph is given by the batch index, which has an additional final
+ * entry marking the end of the last record.
+ * <p>
+ * Native code writes the results for all graphs to a single result buffer, with
+ * for every graph in order the native setup time, canonization time and length
+ * of the canonical form. Canonical forms are written back to back to a single key
+ * buffer in the format described by {@link CanonicalForm}.
+ * @author Roan
+ * @see Algorithm#canonize(List, CanonicalForm[])
+ * @see CsrGraph
+ */
+public class GraphBatch{
+	/**
+	 * The packed graph records.
+	 */
+	private int[] data;
+	/**
+	 * The number of valid integers in the data buffer.
+	 */
+	private int length = 0;
+	/**
+	 * The start of the record of each graph in the data buffer.
+	 */
+	private int[] index;
+	/**
+	 * The colour signature of each graph.
+	 */
+	private String[] signatures;
+	/**
+	 * The time in nanoseconds it took to transform and pack each graph.
+	 */
+	private long[] setup;
+	/**
+	 * The number of graphs in this batch.
+	 */
+	private int count = 0;
+	/**
+	 * Upper bound on the total length of the canonical forms of all graphs.
+	 */
+	private int keyCapacity = 0;
+	/**
+	 * The native result buffer, three values for every graph.
+	 */
+	private long[] results;
+	/**
+	 * The buffer the canonical forms of all graphs are written to.
+	 */
+	private int[] keys;
+
+	/**
+	 * Constructs a new empty batch.
+	 * @param graphs The expected number of graphs in the batch.
+	 */
+	public GraphBatch(int graphs){
+		data = new int[Math.max(16, graphs * 16)];
+		index = new int[graphs + 1];
+		signatures = new String[graphs];
+		setup = new long[graphs];
+	}
+
+	/**
+	 * Appends a copy of the given graph to this batch.
+	 * @param graph The graph to append.
+	 */
+	public void add(CsrGraph graph){
+		add(graph, 0L);
+	}
+
+	/**
+	 * Appends a copy of the given graph to this batch.
+	 * @param graph The graph to append.
+	 * @param setupTime The time in nanoseconds it took to construct
+	 *        the given graph, reported as the setup time of the graph.
+	 * @see #getTimes()
+	 */
+	public void add(CsrGraph graph, long setupTime){
+		ensureCapacity(count + 1, length + graph.getLength());
+		System.arraycopy(graph.getData(), 0, data, length, graph.getLength());
+		length += graph.getLength();
+
+		signatures[count] = graph.getColorSignature();
+		setup[count] = setupTime;
+		keyCapacity += 2 * graph.getNodeCount() + graph.getEdgeCount();
+		count++;
+		index[count] = length;
+	}
+
+	/**
+	 * Ensures this batch has enough space for the given number
+	 * of graphs and the given data buffer length.
+	 * @param graphs The required number of graphs.
+	 * @param size The required data buffer length.
+	 */
+	private void ensureCapacity(int graphs, int size){
+		if(data.length < size){
+			data = Arrays.copyOf(data, Math.max(size, data.length * 2));
+		}
+
+		if(signatures.length < graphs){
+			int capacity = Math.max(graphs, signatures.length * 2);
+			index = Arrays.copyOf(index, capacity + 1);
+			signatures = Arrays.copyOf(signatures, capacity);
+			setup = Arrays.copyOf(setup, capacity);
+		}
+	}
+
+	/**
+	 * Gets the number of graphs in this batch.
+	 * @return The number of graphs in this batch.
+	 */
+	public int getGraphCount(){
+		return count;
+	}
+
+	/**
+	 * Gets the buffer with the packed graph records.
+	 * @return The packed graph data.
+	 */
+	public int[] getData(){
+		return data;
+	}
+
+	/**
+	 * Gets the batch index with the start of every graph record.
+	 * @return The batch index.
+	 */
+	public int[] getIndex(){
+		return index;
+	}
+
+	/**
+	 * Gets the buffer native code should write the results to.
+	 * @return The result buffer.
+	 */
+	public long[] getResultBuffer(){
+		if(results == null || results.length < count * 3){
+			results = new long[count * 3];
+		}
+		return results;
+	}
+
+	/**
+	 * Gets the buffer native code should write the canonical forms to.
+	 * @return The key buffer, large enough for the canonical forms of all graphs.
+	 */
+	public int[] getKeyBuffer(){
+		if(keys == null || keys.length < keyCapacity){
+			keys = new int[keyCapacity];
+		}
+		return keys;
+	}
+
+	/**
+	 * Copies the canonical forms written by native code to the given
+	 * canonical forms, one for every graph in this batch.
+	 * @param forms The canonical forms to write to, the array may
+	 *        contain <code>null</code> for graphs whose canonical
+	 *        form is not required.
+	 */
+	public void readKeys(CanonicalForm[] forms){
+		int pos = 0;
+		for(int i = 0; i < count; i++){
+			int len = (int)results[i * 3 + 2];
+			if(forms[i] != null){
+				int[] buffer = forms[i].prepare(data[index[i]], data[index[i] + 1], signatures[i]);
+				System.arraycopy(keys, pos, buffer, 0, len);
+				forms[i].setLength(len);
+			}
+			pos += len;
+		}
+	}
+
+	/**
+	 * Gets the runtimes for all graphs in this batch after native code
+	 * wrote its results. For every graph in order the setup time, native
+	 * setup time and canonization time are given.
+	 * @return The runtimes for all graphs in this batch in nanoseconds.
+	 */
+	public long[] getTimes(){
+		long[] times = new long[count * 3];
+		for(int i = 0; i < count; i++){
+			times[i * 3] = setup[i];
+			times[i * 3 + 1] = results[i * 3];
+			times[i * 3 + 2] = results[i * 3 + 1];
+		}
+		return times;
+	}
+
+	/**
+	 * Constructs a new batch by transforming all the given graphs to CSR
+	 * graphs. The time it takes to transform and pack each graph is recorded
+	 * as the setup time for that graph.
+	 * @param graphs The graphs to pack.
+	 * @param transform The function to transform a graph to a CSR graph,
+	 *        the returned CSR graph is copied so it can be reused.
+	 * @return The constructed batch.
+	 */
+	public static GraphBatch pack(List<Graph<Vertex, Predicate>> graphs, Function<Graph<Vertex, Predicate>, CsrGraph> transform){
+		GraphBatch batch = new GraphBatch(graphs.size());
+		for(Graph<Vertex, Predicate> graph : graphs){
+			long start = System.nanoTime();
+			batch.add(transform.apply(graph));
+			batch.setup[batch.count - 1] = System.nanoTime() - start;
+		}
+		return batch;
+	}
+}
@@ -1,36 +1,181 @@
 package dev.roanh.cpqkeys;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.IntSummaryStatistics;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.function.ToIntFunction;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 import dev.roanh.gmark.conjunct.cpq.CPQ;
-import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Graph.GraphEdge;
+import dev.roanh.gmark.util.Util;
 
 /**
- * Represents a data set consisting of graph instances.
+ * Represents a data set consisting of graph instances. Data sets do not need
+ * to hold all of their graphs in memory, instead graphs can be generated on
+ * demand while iterating over the data set. Generated data sets produce the
+ * exact same graphs every time they are iterated over. Statistics about the
+ * graphs in the data set are computed incrementally as graphs are iterated
+ * over, if statistics are requested before the data set was iterated over
+ * completely then the remaining graphs are generated first. Data sets can
+ * be saved to a binary data set file once and then be loaded again from the
+ * memory mapped file instead of being regenerated.
  * @author Roan
- * @see #fromCPQ(int, int, int)
+ * @see #fromCPQ(int, int, int, long)
+ * @see #save(Path)
+ * @see #load(Path)
+ * @see #setPrefetch(int, int)
  */
 public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	/**
-	 * The graphs for this data set.
+	 * Lock held while generating a random CPQ, as CPQ
+	 * generation uses the shared random instance from gMark.
+	 * @see Util#getRandom()
 	 */
-	private List<Graph<Vertex, Predicate>> data;
+	private static final Object GENERATOR_LOCK = new Object();
+	/**
+	 * Magic number at the start of every data set file (<code>CPQD</code>).
+	 */
+	private static final int MAGIC = 0x43505144;
+	/**
+	 * Version of the data set file format.
+	 */
+	private static final int VERSION = 2;
+	/**
+	 * Size in bytes of the header of a data set file.
+	 */
+	private static final int HEADER_SIZE = 32;
+	/**
+	 * The number of graphs in this data set.
+	 */
+	private final int size;
+	/**
+	 * Function returning the graph at a given index in this data set.
+	 */
+	private final IntFunction<Graph<Vertex, Predicate>> source;
+	/**
+	 * The number of graphs to generate ahead of iteration on a separate
+	 * thread, zero if graphs are generated on the iterating thread.
+	 */
+	private int prefetch = 0;
+	/**
+	 * The number of threads to generate graphs on ahead of iteration.
+	 */
+	private int threads = 1;
+	/**
+	 * The number of graphs, from the start of this data set, that are
+	 * included in the statistics of the data set.
+	 */
+	private int recorded = 0;
+	/**
+	 * Running mean of the number of nodes in the recorded graphs.
+	 */
+	private double nodesMean = 0.0D;
+	/**
+	 * Running sum of squared differences from the mean of the number
+	 * of nodes in the recorded graphs.
+	 */
+	private double nodesM2 = 0.0D;
+	/**
+	 * Running mean of the number of edges in the recorded graphs.
+	 */
+	private double edgesMean = 0.0D;
+	/**
+	 * Running sum of squared differences from the mean of the number
+	 * of edges in the recorded graphs.
+	 */
+	private double edgesM2 = 0.0D;
 	
 	/**
 	 * Constructs a new data set with the given data.
 	 * @param data The data for this data set.
 	 */
 	public GraphDataSet(List<Graph<Vertex, Predicate>> data){
-		this.data = data;
+		this(data.size(), data::get);
+	}
+	
+	/**
+	 * Constructs a new data set of the given size that obtains
+	 * its graphs from the given function. The function has to
+	 * return the same graph every time it is given the same index.
+	 * @param size The number of graphs in this data set.
+	 * @param source Function returning the graph at a given index.
+	 */
+	public GraphDataSet(int size, IntFunction<Graph<Vertex, Predicate>> source){
+		this.size = size;
+		this.source = source;
+	}
+	
+	/**
+	 * Sets the number of graphs to generate ahead of iteration on a single
+	 * separate thread.
+	 * @param graphs The number of graphs to generate ahead of iteration,
+	 *        zero to generate graphs on the iterating thread.
+	 * @return This data set.
+	 * @see #setPrefetch(int, int)
+	 */
+	public GraphDataSet setPrefetch(int graphs){
+		return setPrefetch(graphs, 1);
+	}
+	
+	/**
+	 * Sets the number of graphs to generate ahead of iteration. If larger
+	 * than zero, graphs are generated on the given number of separate threads
+	 * while the graphs generated before are processed, with at most the given
+	 * number of graphs being generated or waiting to be processed at any time.
+	 * Graphs are still returned in data set order and are the same graphs as
+	 * generated without prefetching. Note that generating graphs at the same
+	 * time as running an algorithm may influence the measured runtimes.
+	 * @param graphs The number of graphs to generate ahead of iteration,
+	 *        zero to generate graphs on the iterating thread.
+	 * @param threads The number of threads to generate graphs on.
+	 * @return This data set.
+	 */
+	public GraphDataSet setPrefetch(int graphs, int threads){
+		prefetch = graphs;
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+	
+	/**
+	 * Gets a data set containing all the graphs in this data set except for
+	 * the given number of graphs at the start of this data set. The returned
+	 * data set obtains its graphs from this data set and uses the same prefetch
+	 * settings, but keeps its own statistics.
+	 * @param graphs The number of graphs to skip.
+	 * @return A data set with the remaining graphs of this data set.
+	 */
+	public GraphDataSet skip(int graphs){
+		int offset = Math.min(graphs, size);
+		return new GraphDataSet(size - offset, i->source.apply(offset + i)).setPrefetch(prefetch, threads);
+	}
+	
+	/**
+	 * Gets the number of graphs in this data set.
+	 * @return The number of graphs in this data set.
+	 */
+	public int getSize(){
+		return size;
 	}
 	
 	/**
@@ -38,7 +183,10 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	 * @return The average number of nodes in the graphs for this data set.
 	 */
 	public double getNodesAverage(){
-		return data.stream().mapToInt(Graph::getNodeCount).average().orElse(0.0D);
+		computeStatistics();
+		synchronized(this){
+			return nodesMean;
+		}
 	}
 	
 	/**
@@ -46,7 +194,10 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	 * @return The sample standard deviation of the number of nodes in the graphs for this data set.
 	 */
 	public double getNodesStdDev(){
-		return stdDev(Graph::getNodeCount);
+		computeStatistics();
+		synchronized(this){
+			return Math.sqrt(nodesM2 / (recorded - 1));
+		}
 	}
 	
 	/**
@@ -54,7 +205,10 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	 * @return The average number of edges in the graphs for this data set.
 	 */
 	public double getEdgesAverage(){
-		return data.stream().mapToInt(Graph::getEdgeCount).average().orElse(0.0D);
+		computeStatistics();
+		synchronized(this){
+			return edgesMean;
+		}
 	}
 	
 	/**
@@ -62,17 +216,51 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	 * @return The sample standard deviation of the number of edges in the graphs for this data set.
 	 */
 	public double getEdgesStdDev(){
-		return stdDev(Graph::getEdgeCount);
+		computeStatistics();
+		synchronized(this){
+			return Math.sqrt(edgesM2 / (recorded - 1));
+		}
 	}
 	
 	/**
-	 * Computes the sample standard deviation of the given field in the data set.
-	 * @param field The field to compute the standard deviation of.
-	 * @return The sample standard deviation of the given field.
+	 * Ensures that all graphs in this data set are included in the statistics
+	 * of this data set by obtaining all graphs that were not recorded yet.
 	 */
-	private double stdDev(ToIntFunction<Graph<Vertex, Predicate>> field){
-		IntSummaryStatistics stats = data.stream().mapToInt(field).summaryStatistics();
-		return Math.sqrt(data.stream().mapToInt(field).mapToDouble(x->Math.pow(x - stats.getAverage(), 2.0D)).sum() / (stats.getCount() - 1));
+	private void computeStatistics(){
+		int next;
+		while((next = getRecorded()) < size){
+			record(next, source.apply(next));
+		}
+	}
+	
+	/**
+	 * Gets the number of graphs included in the statistics of this data set.
+	 * @return The number of recorded graphs.
+	 */
+	private synchronized int getRecorded(){
+		return recorded;
+	}
+	
+	/**
+	 * Includes the given graph in the statistics of this data set
+	 * if it is the next graph to record.
+	 * @param index The index of the graph in this data set.
+	 * @param graph The graph at the given index.
+	 * @return The given graph.
+	 */
+	private synchronized Graph<Vertex, Predicate> record(int index, Graph<Vertex, Predicate> graph){
+		if(index == recorded){
+			recorded++;
+			
+			double delta = graph.getNodeCount() - nodesMean;
+			nodesMean += delta / recorded;
+			nodesM2 += delta * (graph.getNodeCount() - nodesMean);
+			
+			delta = graph.getEdgeCount() - edgesMean;
+			edgesMean += delta / recorded;
+			edgesM2 += delta * (graph.getEdgeCount() - edgesMean);
+		}
+		return graph;
 	}
 	
 	/**
@@ -90,7 +278,7 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	 */
 	public void print(PrintStream out){
 		out.println("========== Dataset Report ==========");
-		out.println("Graphs: " + data.size());
+		out.println("Graphs: " + size);
 		out.println("Nodes: " + getNodesAverage() + " \u00B1 " + getNodesStdDev());
 		out.println("Edges: " + getEdgesAverage() + " \u00B1 " + getEdgesStdDev());
 		out.println("====================================");
@@ -98,12 +286,200 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	
 	@Override
 	public Iterator<Graph<Vertex, Predicate>> iterator(){
-		return data.iterator();
+		return prefetch > 0 ? new PrefetchIterator() : new Iterator<Graph<Vertex, Predicate>>(){
+			/**
+			 * Index of the next graph to return.
+			 */
+			private int next = 0;
+			
+			@Override
+			public boolean hasNext(){
+				return next < size;
+			}
+			
+			@Override
+			public Graph<Vertex, Predicate> next(){
+				if(next >= size){
+					throw new NoSuchElementException();
+				}
+				
+				return record(next, source.apply(next++));
+			}
+		};
+	}
+	
+	/**
+	 * Saves this data set to the given binary data set file, graphs that are
+	 * not in memory are generated while writing the file. The file starts with
+	 * a header containing a magic number, the format version, the number of graphs,
+	 * the number of distinct labels and the file offsets of the label table and
+	 * graph index. The header is followed by a record for every graph, each record
+	 * contains the number of nodes and edges followed by the source node, target node
+	 * and index in the label table of the label of every edge. Edges are written in the
+	 * same order as they are returned by {@link Graph#getEdges()}, so a loaded graph is
+	 * converted to the exact same input for every algorithm as the original graph. The
+	 * label table lists the ID and alias of each label and the graph
+	 * index lists the file offset of every graph record. All values are stored as
+	 * big endian integers, except for the file offsets which are stored as longs.
+	 * @param file The file to write the data set to.
+	 * @throws IOException When an IOException occurs.
+	 * @see #load(Path)
+	 */
+	public void save(Path file) throws IOException{
+		Map<Predicate, Integer> labelIndex = new HashMap<Predicate, Integer>();
+		List<Predicate> labels = new ArrayList<Predicate>();
+		long[] index = new long[size];
+		
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			channel.position(HEADER_SIZE);
+			
+			int i = 0;
+			for(Graph<Vertex, Predicate> graph : this){
+				index[i++] = channel.position();
+				
+				int m = graph.getEdgeCount();
+				ByteBuffer record = ByteBuffer.allocate(4 * (2 + 3 * m));
+				record.putInt(graph.getNodeCount());
+				record.putInt(m);
+				
+				//edges are kept in their original order as the bindings number label nodes in edge order
+				for(GraphEdge<Vertex, Predicate> edge : graph.getEdges()){
+					record.putInt(edge.getSourceNode().getID());
+					record.putInt(edge.getTargetNode().getID());
+					record.putInt(labelIndex.computeIfAbsent(edge.getData(), label->{
+						labels.add(label);
+						return labels.size() - 1;
+					}));
+				}
+				
+				record.rewind();
+				writeFully(channel, record);
+			}
+			
+			long labelPos = channel.position();
+			for(Predicate label : labels){
+				byte[] alias = label.getAlias().getBytes(StandardCharsets.UTF_8);
+				ByteBuffer entry = ByteBuffer.allocate(8 + ((alias.length + 3) & ~3));
+				entry.putInt(label.getID());
+				entry.putInt(alias.length);
+				entry.put(alias);
+				entry.rewind();
+				writeFully(channel, entry);
+			}
+			
+			long indexPos = channel.position();
+			ByteBuffer offsets = ByteBuffer.allocate(8 * size);
+			offsets.asLongBuffer().put(index);
+			writeFully(channel, offsets);
+			
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(size);
+			header.putInt(labels.size());
+			header.putLong(labelPos);
+			header.putLong(indexPos);
+			header.rewind();
+			channel.position(0);
+			writeFully(channel, header);
+		}
+	}
+	
+	/**
+	 * Loads a data set from the given binary data set file. The file is
+	 * memory mapped and every graph is rebuilt from its record in the
+	 * mapped file each time it is needed, so only the label table is
+	 * read into memory beforehand.
+	 * @param file The data set file to load.
+	 * @return The loaded data set.
+	 * @throws IOException When an IOException occurs or when the
+	 *         given file is not a valid data set file.
+	 * @see #save(Path)
+	 */
+	public static GraphDataSet load(Path file) throws IOException{
+		ByteBuffer data;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			if(channel.size() > Integer.MAX_VALUE){
+				throw new IOException("Data set file too large to map: " + file);
+			}
+			
+			data = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		if(data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC){
+			throw new IOException("Not a data set file: " + file);
+		}
+		
+		if(data.getInt(4) != VERSION){
+			throw new IOException("Unsupported data set file version " + data.getInt(4) + ": " + file);
+		}
+		
+		int size = data.getInt(8);
+		Predicate[] labels = new Predicate[data.getInt(12)];
+		int pos = (int)data.getLong(16);
+		for(int i = 0; i < labels.length; i++){
+			int len = data.getInt(pos + 4);
+			byte[] alias = new byte[len];
+			for(int j = 0; j < len; j++){
+				alias[j] = data.get(pos + 8 + j);
+			}
+			
+			labels[i] = new Predicate(data.getInt(pos), new String(alias, StandardCharsets.UTF_8));
+			pos += 8 + ((len + 3) & ~3);
+		}
+		
+		int indexPos = (int)data.getLong(24);
+		return new GraphDataSet(size, i->readGraph(data, (int)data.getLong(indexPos + 8 * i), labels));
+	}
+	
+	/**
+	 * Constructs the graph from the graph record at the given
+	 * position in a data set file. Only absolute reads are used
+	 * so graphs can be read from the same buffer concurrently.
+	 * @param data The contents of the data set file.
+	 * @param pos The position of the graph record.
+	 * @param labels The label table of the data set file.
+	 * @return The graph read from the data set file.
+	 * @see #save(Path)
+	 */
+	private static Graph<Vertex, Predicate> readGraph(ByteBuffer data, int pos, Predicate[] labels){
+		int n = data.getInt(pos);
+		int m = data.getInt(pos + 4);
+		
+		Graph<Vertex, Predicate> graph = new Graph<Vertex, Predicate>();
+		Vertex[] vertices = new Vertex[n];
+		for(int v = 0; v < n; v++){
+			vertices[v] = new Vertex();
+			graph.addUniqueNode(vertices[v]);
+		}
+		
+		for(int e = pos + 8; e < pos + 8 + 12 * m; e += 12){
+			graph.addUniqueEdge(vertices[data.getInt(e)], vertices[data.getInt(e + 4)], labels[data.getInt(e + 8)]);
+		}
+		
+		return graph;
+	}
+	
+	/**
+	 * Writes all remaining bytes in the given buffer to the given channel.
+	 * @param channel The channel to write to.
+	 * @param buffer The buffer to write.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
 	}
 	
 	/**
 	 * Generates a data set consisting of CPQ query graphs using
-	 * {@link CPQ#generateRandomCPQ(int, int)}.
+	 * {@link CPQ#generateRandomCPQ(int, int)}. The seed for the data set
+	 * is taken from the shared random instance from gMark, so this data set
+	 * is only the same across runs if the seed of that random instance is set
+	 * right before. Generating graphs with {@link #fromCPQ(int, int, int, long)}
+	 * reseeds the shared random instance, so runs that generate other data sets
+	 * should use that method directly with a fixed seed instead.
 	 * @param n The number of CPQ query graphs to generate.
 	 * @param rules The maximum number of rule applications
 	 *        when generating CPQs (influences the size of the CPQ).
@@ -111,8 +487,137 @@ public class GraphDataSet implements Iterable<Graph<Vertex, Predicate>>{
 	 *        when generating a CPQ.
 	 * @return The newly generated data set of CPQ query graphs.
 	 * @see CPQ#generateRandomCPQ(int, int)
+	 * @see Util#setRandomSeed(long)
+	 * @see #fromCPQ(int, int, int, long)
 	 */
 	public static GraphDataSet fromCPQ(int n, int rules, int labels){
-		return new GraphDataSet(Stream.generate(()->CPQ.generateRandomCPQ(rules, labels)).limit(n).map(CPQ::toQueryGraph).map(QueryGraphCPQ::toGraph).collect(Collectors.toList()));
+		return fromCPQ(n, rules, labels, Util.getRandom().nextLong());
+	}
+	
+	/**
+	 * Generates a data set consisting of CPQ query graphs using
+	 * {@link CPQ#generateRandomCPQ(int, int)}. Graphs are not generated
+	 * until they are needed, every graph is generated using a seed derived
+	 * from the given seed and the index of the graph in the data set. The
+	 * generated graphs only depend on the seed and not on the order in which
+	 * or the number of threads on which the graphs are generated. Only drawing
+	 * the random CPQ is done under a global lock, the construction of its query
+	 * graph can run in parallel. The shared random instance from gMark is reseeded
+	 * for every generated graph and is left in an unspecified state.
+	 * @param n The number of CPQ query graphs to generate.
+	 * @param rules The maximum number of rule applications
+	 *        when generating CPQs (influences the size of the CPQ).
+	 * @param labels The maximum number of distinct labels to use
+	 *        when generating a CPQ.
+	 * @param seed The random seed to generate the data set with.
+	 * @return The newly generated data set of CPQ query graphs.
+	 * @see CPQ#generateRandomCPQ(int, int)
+	 */
+	public static GraphDataSet fromCPQ(int n, int rules, int labels, long seed){
+		return new GraphDataSet(n, i->{
+			CPQ cpq;
+			synchronized(GENERATOR_LOCK){
+				Util.setRandomSeed(getGraphSeed(seed, i));
+				cpq = CPQ.generateRandomCPQ(rules, labels);
+			}
+			return cpq.toQueryGraph().toGraph();
+		});
+	}
+	
+	/**
+	 * Derives the seed for the graph at the given index in a data set
+	 * generated from the given seed using the SplitMix64 finalizer, so
+	 * that graphs at adjacent indices get unrelated seeds.
+	 * @param seed The seed of the data set.
+	 * @param index The index of the graph in the data set.
+	 * @return The seed for the graph at the given index.
+	 */
+	private static long getGraphSeed(long seed, int index){
+		long value = seed + (index + 1) * 0x9e3779b97f4a7c15L;
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+	
+	/**
+	 * Iterator over the graphs in this data set that are generated ahead
+	 * of iteration on separate threads. The iterator keeps a window of
+	 * pending graphs that are generated in parallel and returned in order.
+	 * @author Roan
+	 * @see GraphDataSet#setPrefetch(int, int)
+	 */
+	private final class PrefetchIterator implements Iterator<Graph<Vertex, Predicate>>{
+		/**
+		 * Executor generating the graphs, idle threads terminate so an
+		 * iterator that is no longer used does not leave threads behind.
+		 */
+		private final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), task->{
+			Thread thread = new Thread(task, "GraphDataSet generator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		/**
+		 * The graphs being generated in data set order.
+		 */
+		private final Deque<Future<Graph<Vertex, Predicate>>> pending = new ArrayDeque<Future<Graph<Vertex, Predicate>>>(prefetch);
+		/**
+		 * Index of the next graph to return.
+		 */
+		private int next = 0;
+		/**
+		 * Index of the next graph to start generating.
+		 */
+		private int submitted = 0;
+		
+		/**
+		 * Constructs a new prefetching iterator and starts generating graphs.
+		 */
+		private PrefetchIterator(){
+			executor.allowCoreThreadTimeOut(true);
+			fill();
+		}
+		
+		/**
+		 * Starts generating graphs until the prefetch window is full.
+		 */
+		private void fill(){
+			while(submitted < size && pending.size() < prefetch){
+				final int index = submitted++;
+				pending.add(executor.submit(()->source.apply(index)));
+			}
+			
+			if(submitted == size){
+				executor.shutdown();
+			}
+		}
+		
+		@Override
+		public boolean hasNext(){
+			return next < size;
+		}
+		
+		@Override
+		public Graph<Vertex, Predicate> next(){
+			if(next >= size){
+				throw new NoSuchElementException();
+			}
+			
+			try{
+				Graph<Vertex, Predicate> graph = pending.peek().get();
+				pending.poll();
+				fill();
+				return record(next++, graph);
+			}catch(InterruptedException e){
+				pending.forEach(task->task.cancel(true));
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next graph.", e);
+			}catch(ExecutionException e){
+				if(e.getCause() instanceof RuntimeException){
+					throw (RuntimeException)e.getCause();
+				}
+				throw new IllegalStateException("Failed to generate graph " + next + ".", e.getCause());
+			}
+		}
 	}
 }
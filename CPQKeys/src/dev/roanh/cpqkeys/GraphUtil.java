@@ -19,11 +19,13 @@
 package dev.roanh.cpqkeys;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
+import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.DataProxy;
 import dev.roanh.gmark.util.Graph;
 import dev.roanh.gmark.util.Graph.GraphEdge;
@@ -77,84 +79,72 @@ public class GraphUtil{
 	}
 	
 	/**
-	 * Converts the given input graph to a coloured graph instance
-	 * by grouping vertices with their colour determined by the
-	 * content of their {@link DataProxy} instance. All vertex data
-	 * objects that are not DataProxy instances are given the same colour.
+	 * Groups the vertices of the given graph by their colour. The colour of a
+	 * vertex is determined by the content of its {@link DataProxy} instance, all
+	 * vertex data objects that are not DataProxy instances are given the same colour.
+	 * The returned colour groups are sorted by colour name with the uncoloured group
+	 * first, so the order of the colour groups does not depend on the vertex IDs or
+	 * object identity. This is required for the computed canonical forms to be comparable
+	 * between graphs. Within each group vertex IDs are in ascending order.
 	 * @param <V> The vertex data type.
 	 * @param <E> The edge label data type.
-	 * @param graph The input graph to transform.
-	 * @return The constructed coloured graph.
-	 * @see ColoredGraph
+	 * @param graph The graph to compute the colour groups for.
+	 * @return The vertex IDs of each colour group by colour name.
+	 * @see #getColorName(Object)
 	 */
-	public static <V, E> ColoredGraph toColoredGraph(Graph<V, E> graph){
-		Map<Object, List<Integer>> colorMap = new HashMap<Object, List<Integer>>();
-		int[][] adj = graph.toAdjacencyList();
-		final Object nolabel = new Object();
-		
+	public static <V, E> SortedMap<String, List<Integer>> computeColorGroups(Graph<V, E> graph){
+		SortedMap<String, List<Integer>> colorMap = new TreeMap<String, List<Integer>>(Comparator.nullsFirst(Comparator.naturalOrder()));
 		for(GraphNode<V, E> node : graph.getNodes()){
-			V data = node.getData();
-			if(data instanceof DataProxy){
-				colorMap.computeIfAbsent(((DataProxy<?>)data).getData(), k->new ArrayList<Integer>()).add(node.getID());
-			}else{
-				colorMap.computeIfAbsent(nolabel, k->new ArrayList<Integer>()).add(node.getID());
-			}
+			colorMap.computeIfAbsent(getColorName(node.getData()), k->new ArrayList<Integer>()).add(node.getID());
 		}
-		
-		return new ColoredGraph(adj, colorMap.values());
+		return colorMap;
 	}
 	
 	/**
-	 * Represents a coloured graph.
-	 * @author Roan
-	 * @see GraphUtil#toColoredGraph(Graph)
+	 * Gets the name of the colour of a vertex with the given vertex data.
+	 * Only vertices with a {@link DataProxy} as their data are coloured.
+	 * If the proxy wraps a {@link Predicate} the colour name is the alias
+	 * of the predicate, otherwise it is the string form of the wrapped object.
+	 * @param data The vertex data object.
+	 * @return The colour name of the vertex, or <code>null</code> if the vertex
+	 *         is not coloured.
 	 */
-	public static class ColoredGraph{
-		/**
-		 * The adjacency list representing the graph.
-		 */
-		private int[][] graph;
-		/**
-		 * A collection of lists where each list has the
-		 * IDs of nodes with the same colour.
-		 */
-		private Collection<List<Integer>> colorMap;
-		
-		/**
-		 * Constructs a new coloured graph with the given
-		 * adjacency list and colour information.
-		 * @param adj The adjacency list of the graph.
-		 * @param colors The colour information.
-		 */
-		private ColoredGraph(int[][] adj, Collection<List<Integer>> colors){
-			graph = adj;
-			colorMap = colors;
-		}
-		
-		/**
-		 * Gets the total number of nodes in this graph.
-		 * @return The total number of nodes in this graph.
-		 */
-		public int getNodeCount(){
-			return graph.length;
-		}
-		
-		/**
-		 * Gets the colour map for this coloured graph, each
-		 * list in the returned collection contains the IDs
-		 * of nodes with the same colour.
-		 * @return The colour map for this coloured graph.
-		 */
-		public Collection<List<Integer>> getColorMap(){
-			return colorMap;
-		}
-		
-		/**
-		 * Gets the adjacency list representation of this graph.
-		 * @return The adjacency list representation of this graph.
-		 */
-		public int[][] getAdjacencyList(){
-			return graph;
+	public static String getColorName(Object data){
+		return data instanceof DataProxy ? getProxyColorName(((DataProxy<?>)data).getData()) : null;
+	}
+	
+	/**
+	 * Gets the name of the colour of a vertex with a {@link DataProxy}
+	 * wrapping the given object as its data. If the object is a {@link Predicate}
+	 * the colour name is the alias of the predicate, otherwise it is the string
+	 * form of the object.
+	 * @param color The object wrapped by the vertex data proxy.
+	 * @return The colour name of the vertex.
+	 * @see #getColorName(Object)
+	 */
+	public static String getProxyColorName(Object color){
+		return color instanceof Predicate ? ((Predicate)color).getAlias() : String.valueOf(color);
+	}
+	
+	/**
+	 * Computes the colour signature of a graph with the given colour groups. The
+	 * signature lists every colour name in partition order together with the size
+	 * of its colour group.
+	 * @param colorMap The colour groups of the graph by colour name.
+	 * @return The colour signature of the graph.
+	 * @see #computeColorGroups(Graph)
+	 * @see CanonicalForm#getColorSignature()
+	 */
+	public static String getColorSignature(SortedMap<String, List<Integer>> colorMap){
+		StringBuilder buffer = new StringBuilder();
+		for(Entry<String, List<Integer>> group : colorMap.entrySet()){
+			if(group.getKey() != null){
+				buffer.append(group.getKey());
+			}
+			buffer.append(':');
+			buffer.append(group.getValue().size());
+			buffer.append(' ');
 		}
+		return buffer.toString();
 	}
 }
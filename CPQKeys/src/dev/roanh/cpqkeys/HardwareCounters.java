@@ -0,0 +1,133 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+/**
+ * Hardware performance counters read by native code around the canonization
+ * of a single graph. These counters show whether an algorithm is bound by
+ * cache misses or branch misses, which the measured runtimes alone do not
+ * show. Counters are only read when enabled for a native binding, since
+ * reading them slightly increases the measured canonization time. Only
+ * events in user space on the thread canonizing the graph are counted.
+ * Algorithms report these counters using {@link Algorithm#setHardwareCounters(HardwareCounters)}.
+ * @author Roan
+ * @see RuntimeReport#getHardwareCounters()
+ */
+public class HardwareCounters{
+	/**
+	 * The number of elements native code appends to its result array to
+	 * report hardware counters. These are in order the number of CPU cycles,
+	 * the number of retired instructions, the number of last level cache misses
+	 * and the number of branch misses. Counters that are not available are
+	 * reported as {@link #UNAVAILABLE}.
+	 * @see #fromNative(long[], int)
+	 */
+	public static final int NATIVE_LENGTH = 4;
+	/**
+	 * Value reported for counters that could not be read, either because
+	 * reading hardware counters is disabled or because the counter is not
+	 * supported by the system (e.g., in most virtual machines).
+	 */
+	public static final long UNAVAILABLE = -1L;
+	/**
+	 * The number of CPU cycles.
+	 */
+	private final long cycles;
+	/**
+	 * The number of retired instructions.
+	 */
+	private final long instructions;
+	/**
+	 * The number of last level cache misses.
+	 */
+	private final long cacheMisses;
+	/**
+	 * The number of mispredicted branches.
+	 */
+	private final long branchMisses;
+	
+	/**
+	 * Constructs new hardware counters.
+	 * @param cycles The number of CPU cycles.
+	 * @param instructions The number of retired instructions.
+	 * @param cacheMisses The number of last level cache misses.
+	 * @param branchMisses The number of mispredicted branches.
+	 * @see #UNAVAILABLE
+	 */
+	public HardwareCounters(long cycles, long instructions, long cacheMisses, long branchMisses){
+		this.cycles = cycles;
+		this.instructions = instructions;
+		this.cacheMisses = cacheMisses;
+		this.branchMisses = branchMisses;
+	}
+	
+	/**
+	 * Gets the number of CPU cycles.
+	 * @return The number of CPU cycles or {@link #UNAVAILABLE}.
+	 */
+	public long getCycles(){
+		return cycles;
+	}
+	
+	/**
+	 * Gets the number of retired instructions.
+	 * @return The number of retired instructions or {@link #UNAVAILABLE}.
+	 */
+	public long getInstructions(){
+		return instructions;
+	}
+	
+	/**
+	 * Gets the number of last level cache misses.
+	 * @return The number of last level cache misses or {@link #UNAVAILABLE}.
+	 */
+	public long getCacheMisses(){
+		return cacheMisses;
+	}
+	
+	/**
+	 * Gets the number of mispredicted branches.
+	 * @return The number of mispredicted branches or {@link #UNAVAILABLE}.
+	 */
+	public long getBranchMisses(){
+		return branchMisses;
+	}
+	
+	/**
+	 * Reads the hardware counters appended by native code to its result array.
+	 * @param results The result array returned by native code.
+	 * @param offset The index of the first hardware counter element.
+	 * @return The read hardware counters, or <code>null</code> if the given
+	 *         result array does not contain any available hardware counters.
+	 * @see #NATIVE_LENGTH
+	 */
+	public static HardwareCounters fromNative(long[] results, int offset){
+		if(results.length < offset + NATIVE_LENGTH){
+			return null;
+		}
+		
+		for(int i = 0; i < NATIVE_LENGTH; i++){
+			if(results[offset + i] != UNAVAILABLE){
+				return new HardwareCounters(results[offset], results[offset + 1], results[offset + 2], results[offset + 3]);
+			}
+		}
+		
+		return null;
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+
+/**
+ * Pre-filter that skips canonization for graphs that are trivially distinct
+ * from all other graphs in a data set. Before a data set is evaluated an
+ * isomorphism invariant is computed for every graph in the data set using
+ * colour refinement (the 1-dimensional Weisfeiler-Lehman algorithm) on the
+ * labelled version of the graph. Graphs with an invariant that no other graph
+ * in the data set has cannot be isomorphic to any other graph in the data set,
+ * so for the purpose of deduplicating the data set they do not need to be
+ * canonized. Only graphs that share their invariant with another graph are
+ * given to the canonization algorithm.
+ * <p>
+ * The time spent computing the invariant of a graph is reported as part of
+ * the setup time of the graph, the invariants computed while preparing a data
+ * set are not timed. Graphs that were filtered report a canonization
+ * time of {@link Algorithm#CANONIZATION_SKIPPED} and no canonical form.
+ * @author Roan
+ * @see #prepare(GraphDataSet)
+ * @see #getAlgorithm()
+ * @see RuntimeReport#isFiltered()
+ */
+public class InvariantFilter{
+	/**
+	 * Initial value for all computed hashes.
+	 */
+	private static final long SEED = 0xcbf29ce484222325L;
+	/**
+	 * The algorithm to canonize ambiguous graphs with.
+	 */
+	private final Algorithm algo;
+	/**
+	 * The filtered algorithm that skips distinct graphs.
+	 */
+	private final Algorithm filtered;
+	/**
+	 * The number of graphs in the prepared data set with each invariant.
+	 */
+	private Map<Long, Integer> counts = new HashMap<Long, Integer>();
+
+	/**
+	 * Constructs a new invariant filter for the given algorithm.
+	 * @param algo The algorithm to canonize ambiguous graphs with.
+	 */
+	public InvariantFilter(Algorithm algo){
+		this.algo = algo;
+		String name = algo.getName();
+		filtered = new Algorithm(name.endsWith(")") ? (name.substring(0, name.length() - 1) + ", filtered)") : (name + " (filtered)"), this::canonize, algo.isThreadSafe());
+	}
+
+	/**
+	 * Gets the algorithm that canonizes graphs using this filter. The
+	 * returned algorithm is thread safe if the underlying algorithm is.
+	 * Graphs with an invariant that does not occur in the prepared
+	 * data set are always given to the underlying algorithm.
+	 * @return The filtered version of the algorithm.
+	 */
+	public Algorithm getAlgorithm(){
+		return filtered;
+	}
+
+	/**
+	 * Computes the invariant of every graph in the given data set so
+	 * the graphs that are distinct from all other graphs can be found.
+	 * This replaces any previously prepared data set and has to be
+	 * called before the filtered algorithm is used on the data set.
+	 * @param data The data set to prepare.
+	 */
+	public void prepare(GraphDataSet data){
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		for(Graph<Vertex, Predicate> graph : data){
+			counts.merge(computeInvariant(graph), 1, Integer::sum);
+		}
+
+		this.counts = counts;
+	}
+
+	/**
+	 * Canonizes the given graph unless it was shown to be distinct from
+	 * all other graphs in the prepared data set.
+	 * @param graph The input graph.
+	 * @param key The buffer to write the canonical form to, or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @return An array of time measurements containing in the first
+	 *         index the graph transform time, in the second index the
+	 *         native setup time (graph construction) and in the third
+	 *         index the canonization time. All times are in nanoseconds.
+	 * @see Algorithm#canonize(Graph, CanonicalForm)
+	 */
+	private long[] canonize(Graph<Vertex, Predicate> graph, CanonicalForm key){
+		long start = System.nanoTime();
+		Integer count = counts.get(computeInvariant(graph));
+		long time = System.nanoTime() - start;
+
+		if(count != null && count == 1){
+			if(key != null){
+				key.clear();
+			}
+
+			return new long[]{time, 0L, Algorithm.CANONIZATION_SKIPPED};
+		}
+
+		long[] result = algo.canonize(graph, key);
+		result[0] += time;
+		return result;
+	}
+
+	/**
+	 * Computes an isomorphism invariant of the given graph using colour refinement
+	 * on the version of the graph with its edge labels converted to nodes. Every
+	 * vertex starts out with a colour derived from its vertex colour, after which
+	 * the colour of every vertex is repeatedly replaced by a hash of its own colour
+	 * and the multisets of the colours of its in and out neighbours until the number
+	 * of distinct colours no longer increases. The invariant is a hash of the size
+	 * of the graph, its colour signature and the multiset of final colours.
+	 * @param graph The graph to compute the invariant of.
+	 * @return The invariant of the given graph.
+	 * @see CsrGraph#loadLabelled(Graph)
+	 */
+	public static long computeInvariant(Graph<Vertex, Predicate> graph){
+		CsrGraph csr = CsrGraph.local().loadLabelled(graph);
+		int[] data = csr.getData();
+		int n = data[0];
+		int m = data[1];
+		int offsets = 2;
+		int targets = offsets + n + 1;
+		int colors = targets + m;
+
+		long[] color = new long[n];
+		long[] next = new long[n];
+		long[] out = new long[n];
+		long[] in = new long[n];
+		for(int i = 0; i < n; i++){
+			color[i] = scramble(SEED + data[colors + i]);
+		}
+
+		int classes = countClasses(color, next);
+		for(int round = 0; round < n; round++){
+			Arrays.fill(out, 0L);
+			Arrays.fill(in, 0L);
+			for(int v = 0; v < n; v++){
+				for(int e = data[offsets + v]; e < data[offsets + v + 1]; e++){
+					int t = data[targets + e];
+					//sums of scrambled colours are multiset hashes of the neighbours
+					out[v] += scramble(color[t]);
+					in[t] += scramble(color[v]);
+				}
+			}
+
+			for(int v = 0; v < n; v++){
+				next[v] = scramble(scramble(color[v] ^ out[v]) ^ (in[v] * 0x9e3779b97f4a7c15L));
+			}
+
+			long[] tmp = color;
+			color = next;
+			next = tmp;
+
+			int refined = countClasses(color, next);
+			if(refined == classes){
+				break;
+			}
+			classes = refined;
+		}
+
+		Arrays.sort(color);
+		long hash = mix(SEED, n);
+		hash = mix(hash, m);
+		hash = mix(hash, csr.getColorSignature().hashCode());
+		for(long c : color){
+			hash = mix(hash, c);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Counts the number of distinct colours in the given colouring.
+	 * @param color The colour of every vertex.
+	 * @param work Scratch space of at least the same length as the colouring.
+	 * @return The number of distinct colours.
+	 */
+	private static int countClasses(long[] color, long[] work){
+		System.arraycopy(color, 0, work, 0, color.length);
+		Arrays.sort(work, 0, color.length);
+
+		int classes = 0;
+		for(int i = 0; i < color.length; i++){
+			if(i == 0 || work[i] != work[i - 1]){
+				classes++;
+			}
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Mixes the given value into the given FNV-1a style hash.
+	 * @param hash The hash to update.
+	 * @param value The value to mix in.
+	 * @return The updated hash.
+	 */
+	private static long mix(long hash, long value){
+		return (hash ^ value) * 0x100000001b3L;
+	}
+
+	/**
+	 * Scrambles the bits of the given value using the
+	 * finalizer of the SplitMix64 generator.
+	 * @param value The value to scramble.
+	 * @return The scrambled value.
+	 */
+	private static long scramble(long value){
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -0,0 +1,434 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Graph.GraphEdge;
+import dev.roanh.gmark.util.Graph.GraphNode;
+
+/**
+ * Size bounded cache of canonical forms in front of a canonization algorithm.
+ * Input graphs are looked up by a cheap structural fingerprint consisting of
+ * the vertex and edge count, the in and out degree sequences and the multiset
+ * of edge labels. Candidates with a matching fingerprint are verified against
+ * the exact labelled CSR record of the input graph, so a cache hit means that
+ * the exact same input graph was canonized before and that the stored canonical
+ * form, including its labelling, can be reused as is.
+ * <p>
+ * Cached canonical forms are evicted in least recently used order as soon as
+ * either the number of cached entries or the approximate memory used by the
+ * cache exceeds the configured bounds. The cache keeps track of the number of
+ * hits, misses and evictions.
+ * @author Roan
+ * @see #getAlgorithm()
+ * @see CsrGraph#loadLabelled(Graph)
+ */
+public class KeyCache{
+	/**
+	 * Approximate overhead in bytes of a single cache entry
+	 * on top of the arrays and strings stored in the entry.
+	 */
+	private static final long ENTRY_OVERHEAD = 128;
+	/**
+	 * The algorithm to compute canonical forms with on a cache miss.
+	 */
+	private final Algorithm algo;
+	/**
+	 * The cached algorithm that looks up graphs in this cache.
+	 */
+	private final Algorithm cached;
+	/**
+	 * The maximum number of entries in this cache.
+	 */
+	private final int maxEntries;
+	/**
+	 * The maximum approximate size of this cache in bytes.
+	 */
+	private final long maxBytes;
+	/**
+	 * The cached canonical forms in least recently used order.
+	 */
+	private final LinkedHashMap<GraphKey, CanonicalForm> cache = new LinkedHashMap<GraphKey, CanonicalForm>(16, 0.75F, true);
+	/**
+	 * The approximate size of all cache entries in bytes.
+	 */
+	private long bytes = 0;
+	/**
+	 * The number of lookups that found a cached canonical form.
+	 */
+	private long hits = 0;
+	/**
+	 * The number of lookups that did not find a cached canonical form.
+	 */
+	private long misses = 0;
+	/**
+	 * The number of entries evicted from this cache.
+	 */
+	private long evictions = 0;
+
+	/**
+	 * Constructs a new canonical form cache for the given algorithm.
+	 * @param algo The algorithm to compute canonical forms with.
+	 * @param maxEntries The maximum number of cached canonical forms.
+	 * @param maxBytes The maximum approximate size of this cache in bytes.
+	 * @throws IllegalArgumentException When either of the bounds is not positive.
+	 */
+	public KeyCache(Algorithm algo, int maxEntries, long maxBytes) throws IllegalArgumentException{
+		if(maxEntries <= 0 || maxBytes <= 0){
+			throw new IllegalArgumentException("Cache bounds must be positive.");
+		}
+
+		this.algo = algo;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		cached = new Algorithm(getCachedName(algo.getName()), this::canonize, algo.isThreadSafe());
+	}
+
+	/**
+	 * Gets the algorithm that canonizes graphs using this cache. The
+	 * returned algorithm is thread safe if the underlying algorithm is.
+	 * Graphs that are found in the cache report the time spent on the
+	 * lookup as setup time and no native setup or canonization time.
+	 * @return The cached version of the algorithm.
+	 */
+	public Algorithm getAlgorithm(){
+		return cached;
+	}
+
+	/**
+	 * Canonizes the given graph using the cache and writes the computed
+	 * canonical form to the given buffer if one is given.
+	 * @param graph The input graph.
+	 * @param key The buffer to write the canonical form to, or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @return An array of time measurements containing in the first
+	 *         index the graph transform time, in the second index the
+	 *         native setup time (graph construction) and in the third
+	 *         index the canonization time. All times are in nanoseconds.
+	 * @see Algorithm#canonize(Graph, CanonicalForm)
+	 */
+	private long[] canonize(Graph<Vertex, Predicate> graph, CanonicalForm key){
+		long start = System.nanoTime();
+		GraphKey probe = new GraphKey(graph, CsrGraph.local().loadLabelled(graph));
+
+		CanonicalForm form = lookup(probe);
+		if(form != null){
+			if(key != null){
+				key.set(form);
+			}
+
+			return new long[]{System.nanoTime() - start, 0L, 0L};
+		}
+
+		//the probe references the shared CSR graph that is reused by the algorithm
+		GraphKey stored = probe.copy();
+		long lookup = System.nanoTime() - start;
+
+		form = key == null ? new CanonicalForm() : key;
+		long[] times = algo.canonize(graph, form);
+		times[0] += lookup;
+
+		if(times[2] != Algorithm.TIME_LIMIT_EXCEEDED && times[2] != Algorithm.WORKER_CRASHED){
+			store(stored, key == null ? form : form.copy());
+		}
+
+		return times;
+	}
+
+	/**
+	 * Looks up the given graph and records a hit or miss.
+	 * @param probe The graph to look up.
+	 * @return The cached canonical form or <code>null</code>
+	 *         if the graph is not in the cache.
+	 */
+	private synchronized CanonicalForm lookup(GraphKey probe){
+		CanonicalForm form = cache.get(probe);
+		if(form == null){
+			misses++;
+		}else{
+			hits++;
+		}
+
+		return form;
+	}
+
+	/**
+	 * Adds a new entry to the cache and evicts least recently used
+	 * entries until the cache is within its configured bounds again.
+	 * @param graph The graph to cache the canonical form for.
+	 * @param form The canonical form of the graph.
+	 */
+	private synchronized void store(GraphKey graph, CanonicalForm form){
+		CanonicalForm old = cache.put(graph, form);
+		bytes += getSize(graph, form);
+		if(old != null){
+			bytes -= getSize(graph, old);
+		}
+
+		Iterator<Entry<GraphKey, CanonicalForm>> iter = cache.entrySet().iterator();
+		while((cache.size() > maxEntries || bytes > maxBytes) && iter.hasNext()){
+			Entry<GraphKey, CanonicalForm> entry = iter.next();
+			bytes -= getSize(entry.getKey(), entry.getValue());
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes all cached canonical forms and resets all counters.
+	 */
+	public synchronized void clear(){
+		cache.clear();
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Gets the number of lookups that found a cached canonical form.
+	 * @return The number of cache hits.
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * Gets the number of lookups that did not find a cached canonical form.
+	 * @return The number of cache misses.
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * Gets the number of entries evicted from this cache.
+	 * @return The number of evictions.
+	 */
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+
+	/**
+	 * Gets the number of canonical forms currently in this cache.
+	 * @return The number of cache entries.
+	 */
+	public synchronized int getSize(){
+		return cache.size();
+	}
+
+	/**
+	 * Gets the approximate size of all entries in this cache.
+	 * @return The approximate size of this cache in bytes.
+	 */
+	public synchronized long getBytes(){
+		return bytes;
+	}
+
+	/**
+	 * Prints the cache counters to standard output.
+	 * @see #print(PrintStream)
+	 */
+	public void print(){
+		print(System.out);
+	}
+
+	/**
+	 * Prints the cache counters to the given stream.
+	 * @param out The stream to write to.
+	 */
+	public synchronized void print(PrintStream out){
+		out.println("Cache for " + algo.getName() + " (max " + maxEntries + " entries, " + maxBytes + " bytes)");
+		out.println("Hits: " + hits);
+		out.println("Misses: " + misses);
+		out.println("Evictions: " + evictions);
+		out.println("Entries: " + cache.size() + " (" + bytes + " bytes)");
+	}
+
+	/**
+	 * Computes the approximate size in bytes of a cache entry.
+	 * @param graph The key of the entry.
+	 * @param form The canonical form of the entry.
+	 * @return The approximate size of the entry in bytes.
+	 */
+	private static long getSize(GraphKey graph, CanonicalForm form){
+		String signature = form.getColorSignature();
+		return ENTRY_OVERHEAD + graph.getSize() + form.getData().length * 4L + (signature == null ? 0 : signature.length() * 2L);
+	}
+
+	/**
+	 * Gets the display name of the cached version of the algorithm
+	 * with the given name, e.g., <code>Nauty (sparse, cached)</code>.
+	 * @param name The name of the algorithm.
+	 * @return The name of the cached algorithm.
+	 */
+	private static String getCachedName(String name){
+		return name.endsWith(")") ? (name.substring(0, name.length() - 1) + ", cached)") : (name + " (cached)");
+	}
+
+	/**
+	 * Key of a graph in the cache. The hash code is derived from a structural
+	 * fingerprint of the input graph while equality compares the labelled CSR
+	 * record and colour signature of the graph exactly.
+	 * @author Roan
+	 */
+	private static final class GraphKey{
+		/**
+		 * The structural fingerprint of the graph.
+		 */
+		private final long fingerprint;
+		/**
+		 * The labelled CSR record of the graph, may be longer than the record.
+		 */
+		private final int[] record;
+		/**
+		 * The length of the labelled CSR record.
+		 */
+		private final int length;
+		/**
+		 * The colour signature of the graph.
+		 */
+		private final String signature;
+
+		/**
+		 * Constructs a new probe key for the given graph. The returned key
+		 * references the record of the given CSR graph without copying it.
+		 * @param graph The input graph.
+		 * @param csr The CSR graph with the labelled version of the input graph.
+		 * @see #copy()
+		 */
+		private GraphKey(Graph<Vertex, Predicate> graph, CsrGraph csr){
+			this(computeFingerprint(graph), csr.getData(), csr.getLength(), csr.getColorSignature());
+		}
+
+		/**
+		 * Constructs a new key with the given data.
+		 * @param fingerprint The structural fingerprint of the graph.
+		 * @param record The labelled CSR record of the graph.
+		 * @param length The length of the labelled CSR record.
+		 * @param signature The colour signature of the graph.
+		 */
+		private GraphKey(long fingerprint, int[] record, int length, String signature){
+			this.fingerprint = fingerprint;
+			this.record = record;
+			this.length = length;
+			this.signature = signature;
+		}
+
+		/**
+		 * Constructs a copy of this key that does not share its record.
+		 * @return A copy of this key.
+		 */
+		private GraphKey copy(){
+			return new GraphKey(fingerprint, Arrays.copyOf(record, length), length, signature);
+		}
+
+		/**
+		 * Gets the approximate size of this key in bytes.
+		 * @return The approximate size of this key in bytes.
+		 */
+		private long getSize(){
+			return record.length * 4L + (signature == null ? 0 : signature.length() * 2L);
+		}
+
+		@Override
+		public int hashCode(){
+			return (int)(fingerprint ^ (fingerprint >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj){
+			if(obj instanceof GraphKey){
+				GraphKey other = (GraphKey)obj;
+				if(fingerprint != other.fingerprint || length != other.length || !signature.equals(other.signature)){
+					return false;
+				}
+
+				for(int i = 0; i < length; i++){
+					if(record[i] != other.record[i]){
+						return false;
+					}
+				}
+
+				return true;
+			}else{
+				return false;
+			}
+		}
+
+		/**
+		 * Computes the structural fingerprint of the given graph from its vertex
+		 * and edge count, sorted out and in degree sequences and the multiset of
+		 * edge labels. Isomorphic graphs have the same fingerprint.
+		 * @param graph The graph to compute the fingerprint of.
+		 * @return The structural fingerprint of the graph.
+		 */
+		private static long computeFingerprint(Graph<Vertex, Predicate> graph){
+			int n = graph.getNodeCount();
+			int[] out = new int[n];
+			int[] in = new int[n];
+			for(GraphNode<Vertex, Predicate> node : graph.getNodes()){
+				out[node.getID()] = node.getOutEdges().size();
+				in[node.getID()] = node.getInEdges().size();
+			}
+
+			int[] labels = new int[graph.getEdgeCount()];
+			int idx = 0;
+			for(GraphEdge<Vertex, Predicate> edge : graph.getEdges()){
+				Predicate label = edge.getData();
+				labels[idx++] = label == null ? 0 : label.getAlias().hashCode();
+			}
+
+			Arrays.sort(out);
+			Arrays.sort(in);
+			Arrays.sort(labels);
+
+			long hash = mix(0xcbf29ce484222325L, n);
+			hash = mix(hash, labels.length);
+			for(int i = 0; i < n; i++){
+				hash = mix(hash, out[i]);
+				hash = mix(hash, in[i]);
+			}
+
+			for(int label : labels){
+				hash = mix(hash, label);
+			}
+
+			return hash;
+		}
+
+		/**
+		 * Mixes the given value into the given FNV-1a style hash.
+		 * @param hash The hash to update.
+		 * @param value The value to mix in.
+		 * @return The updated hash.
+		 */
+		private static long mix(long hash, int value){
+			return (hash ^ value) * 0x100000001b3L;
+		}
+	}
+}
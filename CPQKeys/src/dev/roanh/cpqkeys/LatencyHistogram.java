@@ -0,0 +1,220 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.util.Arrays;
+
+/**
+ * High dynamic range histogram of nanosecond times, using the same bucket
+ * layout as HdrHistogram. Values are recorded into buckets covering a power
+ * of two range each, which are in turn split into linear sub buckets such that
+ * every recorded value is represented with a fixed number of significant decimal
+ * digits. The memory used by the histogram only depends on the largest recorded
+ * value and not on the number of recorded values. Histograms are not thread safe,
+ * instead separate histograms can be recorded on different threads and then be
+ * merged using {@link #add(LatencyHistogram)}.
+ * @author Roan
+ * @see ReportSummaryStatistics
+ */
+public class LatencyHistogram{
+	/**
+	 * Number of significant decimal digits values are recorded with.
+	 */
+	private final int digits;
+	/**
+	 * Base 2 logarithm of half the number of sub buckets in a bucket.
+	 */
+	private final int subBucketHalfCountMagnitude;
+	/**
+	 * Half the number of sub buckets in a bucket.
+	 */
+	private final int subBucketHalfCount;
+	/**
+	 * Mask covering all values that fall in the first bucket.
+	 */
+	private final long subBucketMask;
+	/**
+	 * Number of leading zeros of values in the first bucket plus one.
+	 */
+	private final int leadingZeroCountBase;
+	/**
+	 * Number of recorded values per sub bucket, the first bucket
+	 * is stored in full and every following bucket only stores
+	 * its upper half as its lower half overlaps with the previous
+	 * bucket. This array grows as larger values are recorded.
+	 */
+	private long[] counts;
+	/**
+	 * Total number of recorded values.
+	 */
+	private long total = 0;
+	/**
+	 * Smallest recorded value.
+	 */
+	private long min = Long.MAX_VALUE;
+	/**
+	 * Largest recorded value.
+	 */
+	private long max = 0;
+	
+	/**
+	 * Constructs a new empty histogram that records
+	 * values with the given number of significant digits.
+	 * @param digits The number of significant decimal digits
+	 *        to record values with, between 1 and 5.
+	 * @throws IllegalArgumentException When the given number
+	 *         of significant digits is not between 1 and 5.
+	 */
+	public LatencyHistogram(int digits) throws IllegalArgumentException{
+		if(digits < 1 || digits > 5){
+			throw new IllegalArgumentException("Number of significant digits not between 1 and 5: " + digits);
+		}
+		
+		this.digits = digits;
+		long largest = 2;
+		for(int i = 0; i < digits; i++){
+			largest *= 10;
+		}
+		
+		int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(largest - 1);
+		subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+		subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+		subBucketMask = (1L << subBucketCountMagnitude) - 1;
+		leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+		counts = new long[2 * subBucketHalfCount];
+	}
+	
+	/**
+	 * Records the given value in this histogram.
+	 * @param value The value to record, negative values are recorded as zero.
+	 */
+	public void record(long value){
+		value = Math.max(0, value);
+		int index = getIndex(value);
+		if(index >= counts.length){
+			//grow to the end of the bucket the value is in
+			counts = Arrays.copyOf(counts, ((index >> subBucketHalfCountMagnitude) + 1) << subBucketHalfCountMagnitude);
+		}
+		
+		counts[index]++;
+		total++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+	
+	/**
+	 * Adds all the values recorded in the given histogram to this histogram.
+	 * @param other The histogram to add the values of.
+	 * @throws IllegalArgumentException When the given histogram does not
+	 *         record values with the same number of significant digits.
+	 */
+	public void add(LatencyHistogram other) throws IllegalArgumentException{
+		if(other.digits != digits){
+			throw new IllegalArgumentException("Histograms do not record values with the same number of significant digits.");
+		}
+		
+		if(other.counts.length > counts.length){
+			counts = Arrays.copyOf(counts, other.counts.length);
+		}
+		
+		for(int i = 0; i < other.counts.length; i++){
+			counts[i] += other.counts[i];
+		}
+		
+		total += other.total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+	
+	/**
+	 * Gets the total number of values recorded in this histogram.
+	 * @return The number of recorded values.
+	 */
+	public long getCount(){
+		return total;
+	}
+	
+	/**
+	 * Gets the smallest value recorded in this histogram.
+	 * @return The smallest recorded value, or 0 if no values were recorded.
+	 */
+	public long getMin(){
+		return total == 0 ? 0 : min;
+	}
+	
+	/**
+	 * Gets the largest value recorded in this histogram.
+	 * @return The largest recorded value, or 0 if no values were recorded.
+	 */
+	public long getMax(){
+		return max;
+	}
+	
+	/**
+	 * Gets the value at the given percentile of the recorded values. This is
+	 * the largest value that is equivalent, up to the number of significant
+	 * digits of this histogram, to the smallest recorded value such that the
+	 * given percentage of all recorded values is at most that value.
+	 * @param percentile The percentile to get, between 0 and 100.
+	 * @return The value at the given percentile, or 0 if no values were recorded.
+	 */
+	public long getValueAtPercentile(double percentile){
+		if(total == 0){
+			return 0;
+		}
+		
+		long target = Math.max(1, (long)Math.ceil(Math.min(100.0D, percentile) / 100.0D * total));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++){
+			seen += counts[i];
+			if(seen >= target){
+				return Math.max(min, Math.min(max, getHighestEquivalentValue(i)));
+			}
+		}
+		
+		return max;
+	}
+	
+	/**
+	 * Gets the index in the counts array of the sub bucket for the given value.
+	 * @param value The value to get the index for.
+	 * @return The index of the sub bucket for the given value.
+	 */
+	private int getIndex(long value){
+		int bucket = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+		int subBucket = (int)(value >>> bucket);
+		return ((bucket + 1) << subBucketHalfCountMagnitude) + (subBucket - subBucketHalfCount);
+	}
+	
+	/**
+	 * Gets the largest value that is recorded in the sub bucket at the given index.
+	 * @param index The index of the sub bucket in the counts array.
+	 * @return The largest value recorded in the sub bucket.
+	 */
+	private long getHighestEquivalentValue(int index){
+		int bucket = (index >> subBucketHalfCountMagnitude) - 1;
+		int subBucket = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+		if(bucket < 0){
+			subBucket -= subBucketHalfCount;
+			bucket = 0;
+		}
+		
+		return ((long)subBucket << bucket) + (1L << bucket) - 1;
+	}
+}
@@ -22,25 +22,29 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import dev.roanh.cpqkeys.algo.Bliss;
 import dev.roanh.cpqkeys.algo.Nauty;
 import dev.roanh.cpqkeys.algo.Nishe;
+import dev.roanh.cpqkeys.algo.Refinement;
 import dev.roanh.cpqkeys.algo.Scott;
 import dev.roanh.cpqkeys.algo.Traces;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.Graph;
-import dev.roanh.gmark.util.Util;
 
 /**
  * Main class for the CPQ Keys canonization
@@ -52,6 +56,15 @@ public class Main{
 	 * Directory to store runtime logs in.
 	 */
 	private static final Path LOGS = Paths.get("logs");
+	/**
+	 * Directory to store generated data sets in. Data sets are generated
+	 * once and saved to this directory, after which all algorithms load the
+	 * saved data set instead of generating it again. Set to <code>null</code>
+	 * to always generate data sets on demand.
+	 * @see GraphDataSet#save(Path)
+	 * @see GraphDataSet#load(Path)
+	 */
+	private static final Path DATASETS = Paths.get("datasets");
 	/**
 	 * The maximum amount of time in nanoseconds that an algorithm is allowed
 	 * to spend evaluating a complete data set. If the algorithms needs more
@@ -61,6 +74,24 @@ public class Main{
 	 * to run on next.
 	 */
 	private static final long MAX_RUNTIME = TimeUnit.SECONDS.toNanos(100);
+	/**
+	 * The maximum amount of time in nanoseconds that an algorithm is allowed
+	 * to spend canonizing a single graph. Graphs that take longer than this
+	 * are aborted and recorded as having exceeded the time limit, after which
+	 * the algorithm continues with the next graph in the data set. Nishe is
+	 * not subject to this time limit.
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 */
+	private static final long GRAPH_TIME_LIMIT = TimeUnit.SECONDS.toNanos(10);
+	/**
+	 * The amount of time in nanoseconds, on top of {@link #GRAPH_TIME_LIMIT},
+	 * to wait for the threads evaluating an algorithm to stop after the
+	 * evaluation ended. Threads that are still running after this time are
+	 * abandoned, which happens when an algorithm does not return from native
+	 * code after being interrupted. Use {@link #ISOLATED} to run such
+	 * algorithms in worker processes that can be killed instead.
+	 */
+	private static final long SHUTDOWN_GRACE_PERIOD = TimeUnit.SECONDS.toNanos(10);
 	/**
 	 * Number of graphs in a data set.
 	 */
@@ -91,8 +122,121 @@ public class Main{
 	private static final int LABELS = 10;
 	/**
 	 * Random seed to use to generate data sets.
+	 * @see GraphDataSet#fromCPQ(int, int, int, long)
 	 */
 	private static final int SEED = 1234;
+	/**
+	 * Number of graphs to generate ahead of canonization on a separate thread.
+	 * When set to 0 graphs are generated on demand on the thread running the
+	 * algorithm, in between canonizing graphs. Generating graphs ahead hides the
+	 * generation time, but the generating thread competes for the CPU with the
+	 * evaluated algorithm.
+	 * @see GraphDataSet#setPrefetch(int, int)
+	 */
+	private static final int PREFETCH = 0;
+	/**
+	 * Number of threads to generate graphs on ahead of canonization when
+	 * {@link #PREFETCH} is larger than 0. The generated data sets are the
+	 * same regardless of the number of threads used to generate them.
+	 * @see GraphDataSet#setPrefetch(int, int)
+	 */
+	private static final int GENERATOR_THREADS = 1;
+	/**
+	 * Number of worker threads to canonize graphs on. Each worker thread
+	 * canonizes a single graph at a time. When set to 1 all graphs are
+	 * canonized sequentially on a single thread. Algorithms that are not
+	 * thread safe are always run on a single thread.
+	 * @see Algorithm#isThreadSafe()
+	 */
+	private static final int THREADS = 1;
+	/**
+	 * Number of graphs to pass to an algorithm in a single call. When set
+	 * to 1 every graph is canonized with a separate call. Batches are only
+	 * used for algorithms that support them and are not run in parallel.
+	 * @see Algorithm#supportsBatch()
+	 */
+	private static final int BATCH_SIZE = 1;
+	/**
+	 * Whether to run the native algorithms in separate worker processes. In
+	 * this mode a crash or a hung search in native code only takes down a
+	 * worker process instead of the whole evaluation. Graphs are still
+	 * transformed in this JVM, so only the native stage is isolated.
+	 * @see NativeWorker
+	 */
+	private static final boolean ISOLATED = false;
+	/**
+	 * Maximum number of canonical forms to cache for every algorithm. When
+	 * larger than 0 every algorithm is evaluated a second time with a key
+	 * cache in front of it, so the results with and without the cache can
+	 * be compared side by side. The cache is cleared for every data set.
+	 * @see KeyCache
+	 */
+	private static final int CACHE_ENTRIES = 0;
+	/**
+	 * Maximum approximate size in bytes of the key cache for every algorithm.
+	 * @see #CACHE_ENTRIES
+	 * @see KeyCache
+	 */
+	private static final long CACHE_BYTES = 64L * 1024 * 1024;
+	/**
+	 * Whether to put an invariant filter in front of every evaluated algorithm.
+	 * With the filter enabled graphs that are trivially distinct from all other
+	 * graphs in their data set are not canonized, as would be done when using
+	 * the canonical forms to deduplicate the data set.
+	 * @see InvariantFilter
+	 */
+	private static final boolean INVARIANT_FILTER = false;
+	/**
+	 * Format of the results file that individual runtime reports are streamed
+	 * to while an algorithm is evaluated. The results file is written next to
+	 * the log file of the algorithm. Set to <code>null</code> to only write the
+	 * log file at the end of the evaluation.
+	 * @see ResultWriter
+	 */
+	private static final ResultWriter.Format RESULTS_FORMAT = ResultWriter.Format.CSV;
+	/**
+	 * Whether to resume an interrupted evaluation of an algorithm from its
+	 * results file. Data sets that were completely evaluated before are not
+	 * evaluated again, instead their reports are read back from the results
+	 * file and the evaluation continues with the next data set. Requires
+	 * {@link #RESULTS_FORMAT} to be set and the results file to have been
+	 * written with the same data set settings. Disabled by default since a
+	 * results file from a run with different settings is not detected and
+	 * its reports would be reused as is.
+	 * @see ResultWriter#read(Path, ResultWriter.Format, Algorithm)
+	 */
+	private static final boolean RESUME = false;
+	/**
+	 * Whether to also resume a partially evaluated data set from the first
+	 * graph that was not evaluated before. The time spent on the graphs that
+	 * were evaluated before counts towards {@link #MAX_RUNTIME} for the data
+	 * set. When disabled, partially evaluated data sets are evaluated again
+	 * from the first graph.
+	 * @see #RESUME
+	 */
+	private static final boolean RESUME_GRAPHS = false;
+	/**
+	 * Whether to keep every individual runtime report in memory until the
+	 * evaluation of an algorithm is done, so the raw report data can be
+	 * written to the log file. When disabled, only the summary statistics are
+	 * kept and memory use does not grow with the data set size. The raw report
+	 * data is then only available from the results file.
+	 * @see #RESULTS_FORMAT
+	 * @see ReportSummaryStatistics#isRetainingReports()
+	 */
+	private static final boolean RETAIN_REPORTS = true;
+	/**
+	 * Whether the native bindings should read hardware performance counters
+	 * (cycles, instructions, last level cache misses and branch misses) around
+	 * the canonization of every graph. The counters are reported per graph and
+	 * summarised per data set. Reading the counters requires Linux with
+	 * <code>perf_event_open</code> access (see <code>perf_event_paranoid</code>)
+	 * and slightly increases the measured canonization times, counters that are
+	 * not available are not reported. Graphs canonized as part of a batch do
+	 * not report counters.
+	 * @see HardwareCounters
+	 */
+	private static final boolean HARDWARE_COUNTERS = false;
 	/**
 	 * Command to start a Python process on the host system.
 	 */
@@ -103,11 +247,14 @@ public class Main{
 	public static final List<Algorithm> algorithms = Arrays.asList(
 		//Scott.DIRECTED,//known to have issues with certain inputs
 		Scott.UNDIRECTED,
-		Nishe.INSTANCE,
-		Nauty.SPARSE,
-		Nauty.DENSE,
-		Traces.INSTANCE,
-		Bliss.INSTANCE
+		Scott.UNDIRECTED_WORKER,
+		ISOLATED ? Nishe.ISOLATED : Nishe.INSTANCE,
+		ISOLATED ? Nauty.SPARSE_ISOLATED : Nauty.SPARSE,
+		ISOLATED ? Nauty.DENSE_ISOLATED : Nauty.DENSE,
+		ISOLATED ? Nauty.AUTO_ISOLATED : Nauty.AUTO,
+		ISOLATED ? Traces.ISOLATED : Traces.INSTANCE,
+		ISOLATED ? Bliss.ISOLATED : Bliss.INSTANCE,
+		Refinement.INSTANCE
 	);
 
 	/**
@@ -125,17 +272,61 @@ public class Main{
 		
 		//evaluate all the algorithms
 		for(Algorithm algo : algorithms){
-			try{
-				Path saveFile = LOGS.resolve(algo.getName() + ".log");
-				if(Files.notExists(saveFile)){
-					evaluateAlgorithm(algo).save(saveFile);
+			evaluateAndSave(algo, null);
+			if(CACHE_ENTRIES > 0){
+				KeyCache cache = new KeyCache(algo, CACHE_ENTRIES, CACHE_BYTES);
+				evaluateAndSave(cache.getAlgorithm(), cache);
+			}
+		}
+		
+		Scott.shutdownWorkers();
+		NativeWorker.shutdownWorkers();
+	}
+	
+	/**
+	 * Evaluates the given algorithm and saves the results to a log file
+	 * named after the algorithm. If the log file already exists then the
+	 * algorithm is not evaluated. If {@link #INVARIANT_FILTER} is set the
+	 * algorithm is evaluated with an invariant filter in front of it. If
+	 * {@link #RESULTS_FORMAT} is set the individual runtime reports are
+	 * written to a results file while the algorithm is evaluated. If
+	 * {@link #RESUME} is set and a results file exists without a log
+	 * file, then the evaluation is resumed from the results file.
+	 * @param algo The algorithm to evaluate.
+	 * @param cache The key cache used by the given algorithm, or
+	 *        <code>null</code> if the algorithm is not cached.
+	 * @see #evaluateAlgorithm(Algorithm, KeyCache, InvariantFilter, ResultWriter, Map)
+	 */
+	private static final void evaluateAndSave(Algorithm algo, KeyCache cache){
+		InvariantFilter filter = null;
+		if(INVARIANT_FILTER){
+			filter = new InvariantFilter(algo);
+			algo = filter.getAlgorithm();
+		}
+		
+		try{
+			Path saveFile = LOGS.resolve(algo.getName() + ".log");
+			if(Files.notExists(saveFile)){
+				if(RESULTS_FORMAT == null){
+					evaluateAlgorithm(algo, cache, filter, null, Collections.emptyMap()).save(saveFile);
 				}else{
-					System.out.println("Output log file already exists for " + algo.getName() + ", skipping evaluation.");
+					Path resultsFile = LOGS.resolve(algo.getName() + "." + RESULTS_FORMAT.getExtension());
+					Map<Integer, List<RuntimeReport>> checkpoint = Collections.emptyMap();
+					if(RESUME && Files.exists(resultsFile)){
+						System.out.println("Resuming evaluation for " + algo.getName() + " from: " + resultsFile);
+						checkpoint = ResultWriter.read(resultsFile, RESULTS_FORMAT, algo);
+					}
+					
+					try(ResultWriter writer = new ResultWriter(resultsFile, RESULTS_FORMAT, RESUME)){
+						evaluateAlgorithm(algo, cache, filter, writer, checkpoint).save(saveFile);
+					}
 				}
-			}catch(IOException e){
-				System.err.println("Error saving run results for: " + algo.getName());
-				e.printStackTrace();
+			}else{
+				System.out.println("Output log file already exists for " + algo.getName() + ", skipping evaluation.");
 			}
+		}catch(IOException e){
+			System.err.println("Error saving run results for: " + algo.getName());
+			e.printStackTrace();
 		}
 	}
 	
@@ -147,42 +338,113 @@ public class Main{
 	 * labels will be used in the CPQs. Each dataset will need to be processed by the
 	 * algorithm in {@link #MAX_RUNTIME} nanoseconds. If the algorithm needs more time
 	 * it will not be given a larger dataset next effectively ending the evaluation.
-	 * The value for {@link #SEED} will be used to generate the random dataset. All
-	 * tasks will be executed on a single thread.
+	 * Canonization of a single graph is aborted after {@link #GRAPH_TIME_LIMIT}
+	 * nanoseconds, such graphs are recorded separately and do not end the evaluation.
+	 * The value for {@link #SEED} will be used to generate the random dataset, which
+	 * is saved to and loaded from {@link #DATASETS}. Graphs are obtained on demand
+	 * with {@link #PREFETCH} graphs obtained ahead on {@link #GENERATOR_THREADS}
+	 * threads. If the algorithm is thread safe, graphs will be canonized in parallel
+	 * on {@link #THREADS} worker threads, otherwise all tasks will be executed on a
+	 * single thread. Algorithms
+	 * that support batches and are not run in parallel are given graphs in batches of
+	 * {@link #BATCH_SIZE} graphs. If the algorithm is cached then the cache is
+	 * cleared for every data set and the cache counters are recorded with the results.
+	 * If the algorithm is filtered then the filter is prepared for every data set.
+	 * If a result writer is given then every runtime report is written to it as
+	 * soon as it is produced and the writer is flushed after every data set.
+	 * Data sets for which the checkpoint contains a report for every graph are
+	 * not evaluated again, if {@link #RESUME_GRAPHS} is set then data sets for
+	 * which the checkpoint contains some reports are resumed from the first
+	 * graph without a report, unless the graphs in the checkpoint already used
+	 * up all of {@link #MAX_RUNTIME} in which case the evaluation ends.
 	 * @param algo The algorithm to evaluate.
+	 * @param cache The key cache used by the given algorithm, or
+	 *        <code>null</code> if the algorithm is not cached.
+	 * @param filter The invariant filter used by the given algorithm,
+	 *        or <code>null</code> if the algorithm is not filtered.
+	 * @param writer The writer to stream runtime reports to, or
+	 *        <code>null</code> if reports should not be streamed.
+	 * @param checkpoint The reports from a previous evaluation of the algorithm
+	 *        grouped by the number of rule applications of their data set.
 	 * @return The result of the algorithm evaluation.
 	 * @see GraphDataSet
 	 * @see Algorithm
 	 * @see ReportSummaryStatistics
 	 * @see RuntimeReport
 	 * @see EvaluationResults
+	 * @see KeyCache
+	 * @see InvariantFilter
+	 * @see ResultWriter
 	 */
-	private static final EvaluationResults evaluateAlgorithm(Algorithm algo){
+	private static final EvaluationResults evaluateAlgorithm(Algorithm algo, KeyCache cache, InvariantFilter filter, ResultWriter writer, Map<Integer, List<RuntimeReport>> checkpoint){
 		//warmup runs
-		for(Graph<Vertex, Predicate> graph : GraphDataSet.fromCPQ(10, MIN_RULES, LABELS)){
+		for(Graph<Vertex, Predicate> graph : GraphDataSet.fromCPQ(10, MIN_RULES, LABELS, SEED)){
 			algo.canonize(graph);
 		}
 		
-		Util.setRandomSeed(SEED);
-		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ExecutorService executor = Executors.newSingleThreadExecutor(Main::newEvaluationThread);
+		ExecutorService workers = (THREADS > 1 && algo.isThreadSafe()) ? Executors.newFixedThreadPool(THREADS, Main::newEvaluationThread) : null;
 		EvaluationResults results = new EvaluationResults();
 		Future<ReportSummaryStatistics> task = null;
 		
 		try{
 			for(int i = MIN_RULES; i <= MAX_RULES; i *= RULE_GROWTH_FACTOR){
-				GraphDataSet data = GraphDataSet.fromCPQ(DATASET_SIZE, i, LABELS);
-				data.print();
+				GraphDataSet data = getDataSet(i).setPrefetch(PREFETCH, GENERATOR_THREADS);
+				List<RuntimeReport> done = checkpoint.getOrDefault(i, Collections.emptyList());
+				if(done.size() < DATASET_SIZE && !RESUME_GRAPHS){
+					done = Collections.emptyList();
+				}
+				
+				ReportSummaryStatistics stats = new ReportSummaryStatistics(done);
+				if(done.size() < DATASET_SIZE){
+					long elapsed = done.stream().mapToLong(RuntimeReport::getTotalTime).sum();
+					if(elapsed >= MAX_RUNTIME){
+						System.out.println("Timeout for " + algo.getName() + " on the graphs in the checkpoint, not resuming data set with " + i + " rule applications.");
+						return results;
+					}
+					
+					if(!done.isEmpty()){
+						System.out.println("Resuming data set with " + i + " rule applications from graph " + done.size() + ".");
+					}
+					
+					if(cache != null){
+						cache.clear();
+					}
+					
+					if(filter != null){
+						filter.prepare(data);
+					}
 
-				task = executor.submit(()->new ReportSummaryStatistics(algo, data));
-				ReportSummaryStatistics stats = task.get(MAX_RUNTIME, TimeUnit.NANOSECONDS);
-				if(stats != null){
-					stats.print();
+					GraphDataSet remaining = data.skip(done.size());
+					Consumer<RuntimeReport> listener = writer == null ? null : writer.forDataSet(i, done.size());
+					if(workers != null){
+						task = executor.submit(()->new ReportSummaryStatistics(algo, remaining, workers, THREADS, GRAPH_TIME_LIMIT, listener, RETAIN_REPORTS));
+					}else if(BATCH_SIZE > 1 && algo.supportsBatch()){
+						task = executor.submit(()->new ReportSummaryStatistics(algo, remaining, BATCH_SIZE, GRAPH_TIME_LIMIT, listener, RETAIN_REPORTS));
+					}else{
+						task = executor.submit(()->new ReportSummaryStatistics(algo, remaining, GRAPH_TIME_LIMIT, listener, RETAIN_REPORTS));
+					}
+
+					stats.merge(task.get(MAX_RUNTIME - elapsed, TimeUnit.NANOSECONDS));
+					if(writer != null){
+						writer.flush();
+					}
+				}else{
+					System.out.println("Data set with " + i + " rule applications was already evaluated, using reports from the checkpoint.");
+				}
+				
+				data.print();
+				stats.print();
+				if(cache != null && done.size() < DATASET_SIZE){
+					cache.print();
+					results.addRun(data, stats, cache);
+				}else{
 					results.addRun(data, stats);
 				}
 			}
 			
 			System.out.println("Not generating the next dataset (dataset size limit reached).");
-		}catch(InterruptedException | ExecutionException e){
+		}catch(InterruptedException | ExecutionException | IOException e){
 			System.out.println("Exception running: " + algo.getName());
 			e.printStackTrace();
 		}catch(TimeoutException e){
@@ -190,9 +452,22 @@ public class Main{
 			task.cancel(true);
 		}finally{
 			executor.shutdown();
+			if(workers != null){
+				workers.shutdown();
+			}
+			
 			try{
-				//wait for interrupted threads to return from native calls
-				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				//wait for interrupted threads to return from native calls, most native code only checks the
+				//time limit at some points and Nishe not at all, so threads may never return and are abandoned
+				long deadline = System.nanoTime() + GRAPH_TIME_LIMIT + SHUTDOWN_GRACE_PERIOD;
+				boolean terminated = executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if(workers != null){
+					terminated &= workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+				
+				if(!terminated){
+					System.out.println("Threads running " + algo.getName() + " did not stop, abandoning them (results for later algorithms may be affected).");
+				}
 			}catch(InterruptedException e){
 				//not very relevant
 				e.printStackTrace();
@@ -202,6 +477,47 @@ public class Main{
 		return results;
 	}
 	
+	/**
+	 * Creates a new daemon thread to evaluate an algorithm on, so that
+	 * threads that are abandoned after an evaluation do not keep the JVM
+	 * running after all evaluations are done.
+	 * @param task The task for the thread to run.
+	 * @return The newly created thread.
+	 * @see #SHUTDOWN_GRACE_PERIOD
+	 */
+	private static Thread newEvaluationThread(Runnable task){
+		Thread thread = new Thread(task, "Evaluation");
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	/**
+	 * Gets the data set with the given number of rule applications. If
+	 * {@link #DATASETS} is set the data set is loaded from the data set
+	 * directory, if the data set was not saved before it is generated
+	 * and saved first.
+	 * @param rules The number of rule applications for the data set.
+	 * @return The data set with the given number of rule applications.
+	 * @throws IOException When an IOException occurs.
+	 * @see GraphDataSet#fromCPQ(int, int, int, long)
+	 */
+	private static final GraphDataSet getDataSet(int rules) throws IOException{
+		if(DATASETS == null){
+			return GraphDataSet.fromCPQ(DATASET_SIZE, rules, LABELS, SEED);
+		}
+		
+		Path file = DATASETS.resolve("cpq-" + DATASET_SIZE + "-" + rules + "-" + LABELS + "-" + SEED + ".bin");
+		if(Files.notExists(file)){
+			System.out.println("Generating data set: " + file.getFileName());
+			Files.createDirectories(DATASETS);
+			Path tmp = DATASETS.resolve(file.getFileName() + ".tmp");
+			GraphDataSet.fromCPQ(DATASET_SIZE, rules, LABELS, SEED).setPrefetch(PREFETCH, GENERATOR_THREADS).save(tmp);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		return GraphDataSet.load(file);
+	}
+	
 	/**
 	 * Loads the compiled JNI libraries required for certain algorithm implementations.
 	 * Loads JNI dynamic libraries from the 'native' folder with libraries inside the
@@ -210,7 +526,7 @@ public class Main{
 	 * @throws IOException When an IOException occurs.
 	 * @throws UnsatisfiedLinkError When loading a native library fails.
 	 */
-	private static final void loadNatives() throws IOException, UnsatisfiedLinkError{
+	public static final void loadNatives() throws IOException, UnsatisfiedLinkError{
 		for(Path lib : Files.newDirectoryStream(Paths.get("native").resolve("lib"))){
 			System.out.println("Loading native core library: " + lib.getFileName());
 			System.load(lib.toAbsolutePath().toString());
@@ -220,6 +536,11 @@ public class Main{
 			System.out.println("Loading native library: " + lib.getFileName());
 			System.load(lib.toAbsolutePath().toString());
 		}
+		
+		if(HARDWARE_COUNTERS){
+			Nauty.setHardwareCounters(true);
+			Bliss.setHardwareCounters(true);
+		}
 	}
 	
 	/**
@@ -0,0 +1,448 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+
+/**
+ * Worker process that runs the native stage of a canonization algorithm
+ * outside of the main JVM. An isolated algorithm transforms its input graphs
+ * into CSR graphs in the main JVM and sends the graph records to a persistent
+ * worker JVM that only loads the JNI natives and runs the native stage. This
+ * way a crash or a runaway search in native code only takes down the worker.
+ * <p>
+ * Workers are kept in a pool of idle workers for every algorithm and every
+ * worker is only used by a single thread at a time, so isolated algorithms
+ * are always thread safe. Workers that crash are discarded and a new worker
+ * is started for the next graph, the graph the worker crashed on is reported
+ * with a canonization time of {@link Algorithm#WORKER_CRASHED}. If a time limit is set, workers that do not
+ * respond within the time limit (plus {@link #KILL_GRACE}) are killed and the
+ * graph is reported as having exceeded the time limit.
+ * <p>
+ * Graphs are exchanged over the standard input and output of the worker. For
+ * every graph the main JVM writes the length of the graph record, the time
+ * limit, whether the canonical form is required and the graph record. The
+ * worker responds with the native setup time, canonization time, the length
+ * of the canonical form and the canonical form itself.
+ * @author Roan
+ * @see CsrCanonizer
+ * @see CsrGraph
+ */
+public final class NativeWorker{
+	/**
+	 * Time in nanoseconds a worker is given on top of the time limit
+	 * for a graph to respond before the worker process is killed.
+	 */
+	private static final long KILL_GRACE = TimeUnit.SECONDS.toNanos(1);
+	/**
+	 * Native stages of the isolated algorithms by algorithm name.
+	 */
+	private static final Map<String, CsrCanonizer> canonizers = new ConcurrentHashMap<String, CsrCanonizer>();
+	/**
+	 * Idle worker processes by algorithm name.
+	 */
+	private static final Map<String, Queue<NativeWorker>> workers = new ConcurrentHashMap<String, Queue<NativeWorker>>();
+	/**
+	 * Executor used to kill worker processes that exceed their time limit.
+	 */
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r->{
+		Thread thread = new Thread(r, "Native worker watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * The name of the algorithm this worker is running.
+	 */
+	private final String algorithm;
+	/**
+	 * The running worker process.
+	 */
+	private final Process process;
+	/**
+	 * Stream to the standard input of the worker process.
+	 */
+	private final DataOutputStream out;
+	/**
+	 * Stream from the standard output of the worker process.
+	 */
+	private final DataInputStream in;
+	/**
+	 * Buffer used to convert graph records and canonical forms to bytes.
+	 */
+	private byte[] buffer = new byte[1024];
+	/**
+	 * True if the worker process was killed for exceeding its time limit.
+	 */
+	private volatile boolean killed = false;
+	
+	/**
+	 * Starts a new worker process for the given algorithm.
+	 * @param binding The binding class declaring the isolated algorithm.
+	 * @param algorithm The name of the isolated algorithm.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private NativeWorker(Class<?> binding, String algorithm) throws IOException{
+		this.algorithm = algorithm;
+		
+		ProcessBuilder builder = new ProcessBuilder(
+			Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+			"-cp",
+			System.getProperty("java.class.path"),
+			NativeWorker.class.getName(),
+			binding.getName(),
+			algorithm
+		);
+		builder.redirectError(Redirect.INHERIT);
+		builder.redirectOutput(Redirect.PIPE);
+		builder.redirectInput(Redirect.PIPE);
+		process = builder.start();
+		
+		out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+	}
+	
+	/**
+	 * Constructs a new algorithm that runs the given native stage in separate
+	 * worker processes. Input graphs are first transformed in the main JVM using
+	 * the given transform and the resulting graph record is given to the native
+	 * stage in the worker process. Isolated algorithms do not support batches.
+	 * @param binding The binding class declaring the isolated algorithm, this class
+	 *        is initialised in the worker process to register the native stage.
+	 * @param name The display name of the isolated algorithm, this name has to be unique.
+	 * @param transform The transform from the input graph to a CSR graph.
+	 * @param canonizer The native stage of the algorithm.
+	 * @return The isolated algorithm.
+	 */
+	public static Algorithm isolate(Class<?> binding, String name, Function<Graph<Vertex, Predicate>, CsrGraph> transform, CsrCanonizer canonizer){
+		canonizers.put(name, canonizer);
+		return new Algorithm(name, (g, key)->canonize(binding, name, transform, g, key), true);
+	}
+	
+	/**
+	 * Runs an isolated algorithm on the given input graph.
+	 * @param binding The binding class declaring the isolated algorithm.
+	 * @param name The name of the isolated algorithm.
+	 * @param transform The transform from the input graph to a CSR graph.
+	 * @param input The input graph.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
+	 * @return An array of time measurements containing in the first
+	 *         index the graph transform time, in the second index the
+	 *         native setup time (graph construction) and in the third
+	 *         index the canonization time. All times are in nanoseconds.
+	 *         The canonization time is {@link Algorithm#WORKER_CRASHED}
+	 *         if the worker process crashed on the input graph.
+	 * @throws UncheckedIOException When no worker process could be started.
+	 */
+	private static long[] canonize(Class<?> binding, String name, Function<Graph<Vertex, Predicate>, CsrGraph> transform, Graph<Vertex, Predicate> input, CanonicalForm key) throws UncheckedIOException{
+		long start = System.nanoTime();
+		CsrGraph graph = transform.apply(input);
+		int[] buffer = graph.prepareKey(key);
+		long end = System.nanoTime();
+		
+		NativeWorker worker;
+		try{
+			worker = open(binding, name);
+		}catch(IOException e){
+			throw new UncheckedIOException("Failed to start native worker for " + name + ".", e);
+		}
+		
+		try{
+			long[] times = worker.run(graph, buffer, Algorithm.getTimeLimit());
+			worker.release();
+			
+			Algorithm.setSearchStatistics(SearchStatistics.fromNative(times, 3));
+			Algorithm.setHardwareCounters(HardwareCounters.fromNative(times, 3 + SearchStatistics.NATIVE_LENGTH));
+			if(key != null){
+				key.setLength((int)times[2]);
+			}
+			
+			return new long[]{
+				end - start,
+				times[0],
+				times[1]
+			};
+		}catch(IOException e){
+			//the crashed worker is discarded, the next graph starts a new worker
+			worker.destroy();
+			System.err.println("Native worker for " + name + " crashed: " + e);
+			if(key != null){
+				key.setLength(0);
+			}
+			
+			return new long[]{
+				end - start,
+				0L,
+				Algorithm.WORKER_CRASHED
+			};
+		}
+	}
+	
+	/**
+	 * Opens a worker for the given algorithm, an idle worker is
+	 * reused if available, otherwise a new worker is started.
+	 * @param binding The binding class declaring the isolated algorithm.
+	 * @param algorithm The name of the isolated algorithm.
+	 * @return The opened worker.
+	 * @throws IOException When an IOException occurs.
+	 * @see #release()
+	 */
+	private static NativeWorker open(Class<?> binding, String algorithm) throws IOException{
+		NativeWorker worker = workers.computeIfAbsent(algorithm, k->new ConcurrentLinkedQueue<NativeWorker>()).poll();
+		return worker == null ? new NativeWorker(binding, algorithm) : worker;
+	}
+	
+	/**
+	 * Sends the given graph to this worker and waits for its results. If the
+	 * worker does not respond within the given time limit plus {@link #KILL_GRACE}
+	 * then the worker process is killed and the canonization time is reported as
+	 * exceeding the time limit.
+	 * @param graph The graph to canonize.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
+	 * @param timeout The time limit in nanoseconds for canonizing the graph.
+	 * @return An array with the native setup time, canonization time, the
+	 *         number of integers written to the key buffer and any additional
+	 *         results reported by the native stage, such as search statistics
+	 *         and hardware counters.
+	 * @throws IOException When an IOException occurs or when
+	 *         the worker process terminated unexpectedly.
+	 * @see SearchStatistics#fromNative(long[], int)
+	 * @see HardwareCounters#fromNative(long[], int)
+	 */
+	private long[] run(CsrGraph graph, int[] key, long timeout) throws IOException{
+		out.writeInt(graph.getLength());
+		out.writeLong(timeout);
+		out.writeBoolean(key != null);
+		buffer = writeInts(out, buffer, graph.getData(), graph.getLength());
+		out.flush();
+		
+		ScheduledFuture<?> kill = null;
+		if(timeout != Algorithm.NO_TIME_LIMIT){
+			kill = watchdog.schedule(()->{
+				killed = true;
+				process.destroyForcibly();
+			}, timeout + KILL_GRACE, TimeUnit.NANOSECONDS);
+		}
+		
+		try{
+			long setup = in.readLong();
+			long canon = in.readLong();
+			int length = in.readInt();
+			if(key != null){
+				buffer = readInts(in, buffer, key, length);
+			}
+			
+			long[] results = new long[3 + in.readInt()];
+			results[0] = setup;
+			results[1] = canon;
+			results[2] = length;
+			for(int i = 3; i < results.length; i++){
+				results[i] = in.readLong();
+			}
+			
+			return results;
+		}catch(IOException e){
+			if(killed){
+				return new long[]{0L, Algorithm.TIME_LIMIT_EXCEEDED, 0L};
+			}
+			throw e;
+		}finally{
+			if(kill != null){
+				kill.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * Releases this worker after a graph was canonized. Workers are
+	 * returned to the pool of idle workers unless they were killed.
+	 */
+	private void release(){
+		if(killed){
+			close();
+		}else{
+			workers.get(algorithm).add(this);
+		}
+	}
+	
+	/**
+	 * Closes this worker, the worker exits when its input is closed.
+	 */
+	private void close(){
+		try{
+			out.close();
+		}catch(IOException ignore){
+			//process is gone already
+		}
+		
+		try{
+			in.close();
+		}catch(IOException ignore){
+			//process is gone already
+		}
+	}
+	
+	/**
+	 * Forcibly terminates this worker, used when the
+	 * worker process got into an unknown state.
+	 */
+	private void destroy(){
+		process.destroyForcibly();
+		close();
+	}
+	
+	/**
+	 * Stops all idle native worker processes. Workers
+	 * that are in use will still be returned to the pool.
+	 */
+	public static void shutdownWorkers(){
+		for(Queue<NativeWorker> pool : workers.values()){
+			NativeWorker worker;
+			while((worker = pool.poll()) != null){
+				worker.close();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the given integers to the given stream.
+	 * @param out The stream to write to.
+	 * @param buffer The buffer to use to convert the integers to bytes.
+	 * @param data The integers to write.
+	 * @param length The number of integers to write.
+	 * @return The buffer that was used, possibly reallocated.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private static byte[] writeInts(DataOutputStream out, byte[] buffer, int[] data, int length) throws IOException{
+		buffer = ensureCapacity(buffer, length);
+		ByteBuffer.wrap(buffer).asIntBuffer().put(data, 0, length);
+		out.write(buffer, 0, length * Integer.BYTES);
+		return buffer;
+	}
+	
+	/**
+	 * Reads the given number of integers from the given stream.
+	 * @param in The stream to read from.
+	 * @param buffer The buffer to use to convert the bytes to integers.
+	 * @param data The array to read the integers into.
+	 * @param length The number of integers to read.
+	 * @return The buffer that was used, possibly reallocated.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private static byte[] readInts(DataInputStream in, byte[] buffer, int[] data, int length) throws IOException{
+		buffer = ensureCapacity(buffer, length);
+		in.readFully(buffer, 0, length * Integer.BYTES);
+		ByteBuffer.wrap(buffer).asIntBuffer().get(data, 0, length);
+		return buffer;
+	}
+	
+	/**
+	 * Ensures the given byte buffer can hold the given number of integers.
+	 * @param buffer The buffer to check.
+	 * @param length The number of integers the buffer has to hold.
+	 * @return The given buffer or a new larger buffer.
+	 */
+	private static byte[] ensureCapacity(byte[] buffer, int length){
+		return buffer.length < length * Integer.BYTES ? new byte[Math.max(length * Integer.BYTES, buffer.length * 2)] : buffer;
+	}
+	
+	/**
+	 * Entry point for worker processes. Loads the JNI natives and then
+	 * canonizes graphs read from standard input until standard input is
+	 * closed. Standard output is only used for the results, any other
+	 * output is redirected to standard error.
+	 * @param args The binding class declaring the isolated algorithm
+	 *        and the name of the isolated algorithm.
+	 * @throws Exception When the worker could not be started or
+	 *         when an IOException occurs.
+	 */
+	public static void main(String[] args) throws Exception{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+		System.setOut(System.err);
+		
+		Main.loadNatives();
+		Class.forName(args[0]);
+		CsrCanonizer canonizer = canonizers.get(args[1]);
+		if(canonizer == null){
+			throw new IllegalArgumentException("Unknown isolated algorithm: " + args[1]);
+		}
+		
+		CsrGraph graph = new CsrGraph();
+		CanonicalForm key = new CanonicalForm();
+		int[] record = new int[64];
+		byte[] buffer = new byte[1024];
+		while(true){
+			int length;
+			try{
+				length = in.readInt();
+			}catch(EOFException e){
+				//input closed, shut down
+				return;
+			}
+			
+			Algorithm.setTimeLimit(in.readLong());
+			boolean canonical = in.readBoolean();
+			if(record.length < length){
+				record = new int[Math.max(length, record.length * 2)];
+			}
+			buffer = readInts(in, buffer, record, length);
+			graph.loadRecord(record, length);
+			
+			long[] times = canonizer.canonize(graph, canonical ? graph.prepareKey(key) : null);
+			out.writeLong(times[0]);
+			out.writeLong(times[1]);
+			out.writeInt((int)times[2]);
+			if(canonical){
+				buffer = writeInts(out, buffer, key.getData(), (int)times[2]);
+			}
+			
+			//additional results such as search statistics
+			out.writeInt(times.length - 3);
+			for(int i = 3; i < times.length; i++){
+				out.writeLong(times[i]);
+			}
+			out.flush();
+		}
+	}
+}
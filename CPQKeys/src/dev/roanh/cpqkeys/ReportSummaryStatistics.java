@@ -1,72 +1,444 @@
 package dev.roanh.cpqkeys;
 
 import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
-import java.util.LongSummaryStatistics;
-import java.util.function.Function;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.Graph;
 
 /**
- * Report summarising a collection of individual runtime reports. 
+ * Report summarising a collection of individual runtime reports. Reports
+ * for graphs that exceeded their time limit or crashed their worker process
+ * are kept separately and are not included in any of the summary statistics,
+ * these only describe the graphs for which the canonical form was computed. All statistics are
+ * computed online, so the individual reports only need to be retained
+ * if they are needed after the summary was constructed.
  * @author Roan
  * @see RuntimeReport
  */
 public class ReportSummaryStatistics{
+	/**
+	 * Number of significant digits to record the runtime histograms with.
+	 * @see LatencyHistogram
+	 */
+	private static final int HISTOGRAM_DIGITS = 3;
+	/**
+	 * The percentiles of the runtimes that are reported.
+	 */
+	private static final double[] PERCENTILES = {50.0D, 99.0D, 99.9D};
+	/**
+	 * The number of graphs per executor thread that are submitted
+	 * to the executor but not yet added to the summary at any time.
+	 */
+	private static final int TASKS_PER_THREAD = 4;
 	/**
 	 * The algorithm that produced the runtimes
 	 * for this report summary.
 	 */
 	private Algorithm algo;
 	/**
-	 * List of individual runtime reports that make up this summary.
+	 * List of individual runtime reports that make up this summary,
+	 * empty if individual reports are not retained.
 	 */
 	private List<RuntimeReport> reports = new ArrayList<RuntimeReport>();
+	/**
+	 * List of runtime reports for graphs that exceeded their time limit,
+	 * empty if individual reports are not retained.
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 */
+	private List<RuntimeReport> exceeded = new ArrayList<RuntimeReport>();
+	/**
+	 * List of runtime reports for graphs that crashed their worker
+	 * process, empty if individual reports are not retained.
+	 * @see RuntimeReport#isWorkerCrashed()
+	 */
+	private List<RuntimeReport> crashed = new ArrayList<RuntimeReport>();
+	/**
+	 * Whether individual runtime reports are retained.
+	 */
+	private boolean retain = true;
+	/**
+	 * The number of reports for graphs that exceeded their time limit.
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 */
+	private int exceededCount = 0;
+	/**
+	 * The number of reports for graphs that crashed their worker process.
+	 * @see RuntimeReport#isWorkerCrashed()
+	 */
+	private int crashedCount = 0;
 	/**
 	 * Summary of the setup runtime statistics.
 	 */
-	private LongSummaryStatistics setupTime = new LongSummaryStatistics();
+	private RunningStatistics setupTime = new RunningStatistics();
 	/**
 	 * Summary of the native setup runtime statistics.
 	 */
-	private LongSummaryStatistics nativeSetupTime = new LongSummaryStatistics();
+	private RunningStatistics nativeSetupTime = new RunningStatistics();
 	/**
 	 * Summary of the canonization runtime statistics.
 	 */
-	private LongSummaryStatistics canonTime = new LongSummaryStatistics();
+	private RunningStatistics canonTime = new RunningStatistics();
 	/**
 	 * Summary of other runtime statistics.
 	 */
-	private LongSummaryStatistics otherTime = new LongSummaryStatistics();
+	private RunningStatistics otherTime = new RunningStatistics();
 	/**
 	 * Summary of the total runtime statistics.
 	 */
-	private LongSummaryStatistics totalTime = new LongSummaryStatistics();
+	private RunningStatistics totalTime = new RunningStatistics();
+	/**
+	 * Summary of the off-CPU runtime statistics.
+	 */
+	private RunningStatistics offCpuTime = new RunningStatistics();
+	/**
+	 * Histogram of the setup runtimes.
+	 */
+	private LatencyHistogram setupHistogram = new LatencyHistogram(HISTOGRAM_DIGITS);
+	/**
+	 * Histogram of the native setup runtimes.
+	 */
+	private LatencyHistogram nativeSetupHistogram = new LatencyHistogram(HISTOGRAM_DIGITS);
+	/**
+	 * Histogram of the canonization runtimes.
+	 */
+	private LatencyHistogram canonHistogram = new LatencyHistogram(HISTOGRAM_DIGITS);
+	/**
+	 * Histogram of the other runtimes.
+	 */
+	private LatencyHistogram otherHistogram = new LatencyHistogram(HISTOGRAM_DIGITS);
+	/**
+	 * Histogram of the total runtimes.
+	 */
+	private LatencyHistogram totalHistogram = new LatencyHistogram(HISTOGRAM_DIGITS);
+	/**
+	 * Summary of the number of search tree nodes.
+	 * @see SearchStatistics#getSearchNodes()
+	 */
+	private RunningStatistics searchNodes = new RunningStatistics();
+	/**
+	 * Summary of the number of automorphism group generators.
+	 * @see SearchStatistics#getGenerators()
+	 */
+	private RunningStatistics generators = new RunningStatistics();
+	/**
+	 * Summary of the maximum search tree level.
+	 * @see SearchStatistics#getMaxLevel()
+	 */
+	private RunningStatistics maxLevel = new RunningStatistics();
+	/**
+	 * Summary of the base 10 logarithm of the automorphism group size.
+	 * @see SearchStatistics#getGroupSizeLog10()
+	 */
+	private RunningStatistics groupSize = new RunningStatistics();
+	/**
+	 * Correlation between the number of search tree nodes and the canonization time.
+	 */
+	private RunningCorrelation searchCorrelation = new RunningCorrelation();
+	/**
+	 * Summary of the number of CPU cycles.
+	 * @see HardwareCounters#getCycles()
+	 */
+	private RunningStatistics cycles = new RunningStatistics();
+	/**
+	 * Summary of the number of retired instructions.
+	 * @see HardwareCounters#getInstructions()
+	 */
+	private RunningStatistics instructions = new RunningStatistics();
+	/**
+	 * Summary of the number of last level cache misses.
+	 * @see HardwareCounters#getCacheMisses()
+	 */
+	private RunningStatistics cacheMisses = new RunningStatistics();
+	/**
+	 * Summary of the number of branch misses.
+	 * @see HardwareCounters#getBranchMisses()
+	 */
+	private RunningStatistics branchMisses = new RunningStatistics();
+	/**
+	 * Summary of the number of instructions per cycle.
+	 */
+	private RunningStatistics instructionsPerCycle = new RunningStatistics();
+	/**
+	 * The number of reports for which canonization was skipped by the invariant filter.
+	 * @see RuntimeReport#isFiltered()
+	 */
+	private int filtered = 0;
+	/**
+	 * The number of threads that were used to run the algorithm.
+	 */
+	private int threads = 1;
+	/**
+	 * Listener notified of every report added to this summary,
+	 * or <code>null</code> if there is no listener.
+	 */
+	private Consumer<RuntimeReport> listener;
+	
+	/**
+	 * Constructs a new summary report by running the given
+	 * algorithm on the graphs in the given data set.
+	 * @param algo The algorithm to run.
+	 * @param data The data set of run the algorithm on.
+	 * @param timeLimit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link Algorithm#NO_TIME_LIMIT}.
+	 * @throws InterruptedException When the current thread is interrupted.
+	 * @see Algorithm
+	 * @see GraphDataSet
+	 */
+	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data, long timeLimit) throws InterruptedException{
+		this(algo, data, timeLimit, null, true);
+	}
 	
 	/**
 	 * Constructs a new summary report by running the given
 	 * algorithm on the graphs in the given data set.
 	 * @param algo The algorithm to run.
 	 * @param data The data set of run the algorithm on.
+	 * @param timeLimit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link Algorithm#NO_TIME_LIMIT}.
+	 * @param listener Listener to notify of every report as soon as it
+	 *        is added, or <code>null</code> if there is no listener.
+	 * @param retain Whether to retain the individual reports after they
+	 *        were added to the statistics of this summary.
 	 * @throws InterruptedException When the current thread is interrupted.
 	 * @see Algorithm
 	 * @see GraphDataSet
+	 * @see ResultWriter#forDataSet(int)
 	 */
-	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data) throws InterruptedException{
+	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data, long timeLimit, Consumer<RuntimeReport> listener, boolean retain) throws InterruptedException{
+		this.listener = listener;
+		this.retain = retain;
 		for(Graph<Vertex, Predicate> graph : data){
-			addReport(algo.time(graph));
+			addReport(algo.time(graph, timeLimit));
 			if(Thread.interrupted()){
 				System.out.println("Caught interrupt, aborting algorithm execution.");
 				throw new InterruptedException();
 			}
 		}
 	}
+	
+	/**
+	 * Constructs a new summary report by running the given algorithm on
+	 * the graphs in the given data set in batches of the given size.
+	 * @param algo The algorithm to run.
+	 * @param data The data set of run the algorithm on.
+	 * @param batchSize The maximum number of graphs in a batch.
+	 * @param timeLimit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link Algorithm#NO_TIME_LIMIT}.
+	 * @throws InterruptedException When the current thread is interrupted.
+	 * @see Algorithm#supportsBatch()
+	 * @see GraphDataSet
+	 */
+	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data, int batchSize, long timeLimit) throws InterruptedException{
+		this(algo, data, batchSize, timeLimit, null, true);
+	}
+	
+	/**
+	 * Constructs a new summary report by running the given algorithm on
+	 * the graphs in the given data set in batches of the given size.
+	 * @param algo The algorithm to run.
+	 * @param data The data set of run the algorithm on.
+	 * @param batchSize The maximum number of graphs in a batch.
+	 * @param timeLimit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link Algorithm#NO_TIME_LIMIT}.
+	 * @param listener Listener to notify of every report as soon as it
+	 *        is added, or <code>null</code> if there is no listener.
+	 * @param retain Whether to retain the individual reports after they
+	 *        were added to the statistics of this summary.
+	 * @throws InterruptedException When the current thread is interrupted.
+	 * @see Algorithm#supportsBatch()
+	 * @see GraphDataSet
+	 * @see ResultWriter#forDataSet(int)
+	 */
+	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data, int batchSize, long timeLimit, Consumer<RuntimeReport> listener, boolean retain) throws InterruptedException{
+		this.listener = listener;
+		this.retain = retain;
+		List<Graph<Vertex, Predicate>> batch = new ArrayList<Graph<Vertex, Predicate>>(batchSize);
+		Iterator<Graph<Vertex, Predicate>> iter = data.iterator();
+		while(iter.hasNext()){
+			batch.add(iter.next());
+			if(batch.size() == batchSize || !iter.hasNext()){
+				algo.time(batch, timeLimit).forEach(this::addReport);
+				batch.clear();
+				
+				if(Thread.interrupted()){
+					System.out.println("Caught interrupt, aborting algorithm execution.");
+					throw new InterruptedException();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Constructs a new summary report by running the given algorithm on the
+	 * graphs in the given data set in parallel using the given executor. Each
+	 * graph is submitted as a separate task so that every worker thread only
+	 * ever canonizes a single graph at a time, which keeps the runtime reports
+	 * for individual graphs meaningful. At most {@value #TASKS_PER_THREAD} graphs
+	 * per thread are in flight at any time, so graphs are only generated and
+	 * held in memory just before they are run. Reports are added in data set
+	 * order as soon as they complete.
+	 * @param algo The algorithm to run, this algorithm has to be thread safe.
+	 * @param data The data set of run the algorithm on.
+	 * @param executor The executor to run the algorithm on.
+	 * @param threads The number of threads used by the executor.
+	 * @param timeLimit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link Algorithm#NO_TIME_LIMIT}.
+	 * @throws InterruptedException When the current thread is interrupted.
+	 * @throws ExecutionException When running the algorithm on a graph threw an exception.
+	 * @throws IllegalArgumentException When the given algorithm is not thread safe.
+	 * @see Algorithm#isThreadSafe()
+	 * @see GraphDataSet
+	 */
+	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data, ExecutorService executor, int threads, long timeLimit) throws InterruptedException, ExecutionException, IllegalArgumentException{
+		this(algo, data, executor, threads, timeLimit, null, true);
+	}
+	
+	/**
+	 * Constructs a new summary report by running the given algorithm on the
+	 * graphs in the given data set in parallel using the given executor. Each
+	 * graph is submitted as a separate task so that every worker thread only
+	 * ever canonizes a single graph at a time, which keeps the runtime reports
+	 * for individual graphs meaningful. At most {@value #TASKS_PER_THREAD} graphs
+	 * per thread are in flight at any time, so graphs are only generated and
+	 * held in memory just before they are run. Reports are added in data set
+	 * order as soon as they complete.
+	 * @param algo The algorithm to run, this algorithm has to be thread safe.
+	 * @param data The data set of run the algorithm on.
+	 * @param executor The executor to run the algorithm on.
+	 * @param threads The number of threads used by the executor.
+	 * @param timeLimit The time limit in nanoseconds for canonizing
+	 *        a single graph, or {@link Algorithm#NO_TIME_LIMIT}.
+	 * @param listener Listener to notify of every report as soon as it
+	 *        is added, or <code>null</code> if there is no listener.
+	 * @param retain Whether to retain the individual reports after they
+	 *        were added to the statistics of this summary.
+	 * @throws InterruptedException When the current thread is interrupted.
+	 * @throws ExecutionException When running the algorithm on a graph threw an exception.
+	 * @throws IllegalArgumentException When the given algorithm is not thread safe.
+	 * @see Algorithm#isThreadSafe()
+	 * @see GraphDataSet
+	 * @see ResultWriter#forDataSet(int)
+	 */
+	public ReportSummaryStatistics(Algorithm algo, GraphDataSet data, ExecutorService executor, int threads, long timeLimit, Consumer<RuntimeReport> listener, boolean retain) throws InterruptedException, ExecutionException, IllegalArgumentException{
+		this.listener = listener;
+		this.retain = retain;
+		if(!algo.isThreadSafe()){
+			throw new IllegalArgumentException("Algorithm is not thread safe: " + algo.getName());
+		}
+		
+		this.threads = threads;
+		int window = Math.max(1, threads) * TASKS_PER_THREAD;
+		Deque<Future<RuntimeReport>> tasks = new ArrayDeque<Future<RuntimeReport>>(window);
+		try{
+			for(Graph<Vertex, Predicate> graph : data){
+				if(tasks.size() == window){
+					addReport(tasks.poll().get());
+				}
+				
+				tasks.add(executor.submit(()->algo.time(graph, timeLimit)));
+			}
+			
+			while(!tasks.isEmpty()){
+				addReport(tasks.poll().get());
+			}
+		}catch(InterruptedException e){
+			System.out.println("Caught interrupt, aborting algorithm execution.");
+			throw e;
+		}finally{
+			//no effect on completed tasks
+			for(Future<RuntimeReport> task : tasks){
+				task.cancel(true);
+			}
+		}
+	}
 
 	/**
-	 * Appends a new report to this summary.
+	 * Constructs a new summary report from the given runtime reports,
+	 * for example as read back from a results file.
+	 * @param reports The runtime reports to summarise.
+	 * @throws IllegalArgumentException When the given reports were
+	 *         not all generated by the same algorithm.
+	 * @see ResultWriter#read(java.nio.file.Path, ResultWriter.Format, Algorithm)
+	 */
+	public ReportSummaryStatistics(List<RuntimeReport> reports) throws IllegalArgumentException{
+		reports.forEach(this::addReport);
+	}
+	
+	/**
+	 * Appends all the reports in the given summary to this summary. The
+	 * statistics of both summaries are combined without requiring the
+	 * individual reports, the individual reports of the given summary are
+	 * only retained if both summaries retain individual reports. The thread
+	 * count of this summary is set to the thread count of the given summary.
+	 * @param other The summary to append the reports of.
+	 * @throws IllegalArgumentException When the reports in the given
+	 *         summary were not generated by the same algorithm as the
+	 *         reports in this summary.
+	 * @see #addReport(RuntimeReport)
+	 */
+	public void merge(ReportSummaryStatistics other) throws IllegalArgumentException{
+		if(algo == null){
+			algo = other.algo;
+		}else if(other.algo != null && !algo.equals(other.algo)){
+			throw new IllegalArgumentException("Runtime reports do not represent the same algorithm.");
+		}
+		
+		if(retain && other.retain){
+			reports.addAll(other.reports);
+			exceeded.addAll(other.exceeded);
+			crashed.addAll(other.crashed);
+		}else if(retain){
+			retain = false;
+			reports.clear();
+			exceeded.clear();
+			crashed.clear();
+		}
+		
+		exceededCount += other.exceededCount;
+		crashedCount += other.crashedCount;
+		filtered += other.filtered;
+		setupTime.merge(other.setupTime);
+		nativeSetupTime.merge(other.nativeSetupTime);
+		canonTime.merge(other.canonTime);
+		otherTime.merge(other.otherTime);
+		totalTime.merge(other.totalTime);
+		offCpuTime.merge(other.offCpuTime);
+		setupHistogram.add(other.setupHistogram);
+		nativeSetupHistogram.add(other.nativeSetupHistogram);
+		canonHistogram.add(other.canonHistogram);
+		otherHistogram.add(other.otherHistogram);
+		totalHistogram.add(other.totalHistogram);
+		searchNodes.merge(other.searchNodes);
+		generators.merge(other.generators);
+		maxLevel.merge(other.maxLevel);
+		groupSize.merge(other.groupSize);
+		searchCorrelation.merge(other.searchCorrelation);
+		cycles.merge(other.cycles);
+		instructions.merge(other.instructions);
+		cacheMisses.merge(other.cacheMisses);
+		branchMisses.merge(other.branchMisses);
+		instructionsPerCycle.merge(other.instructionsPerCycle);
+		threads = other.threads;
+	}
+	
+	/**
+	 * Appends a new report to this summary. Reports for graphs that exceeded
+	 * their time limit or crashed their worker process are not included in
+	 * the statistics.
+	 * The listener of this summary is notified of every report, after
+	 * which the report is only kept if individual reports are retained.
 	 * @param report The report to append.
 	 * @throws IllegalArgumentException When the given report
 	 *         was not generated by the same algorithm as the
@@ -79,12 +451,63 @@ public class ReportSummaryStatistics{
 			throw new IllegalArgumentException("Runtime reports do not represent the same algorithm.");
 		}
 		
+		if(listener != null){
+			listener.accept(report);
+		}
+		
+		if(report.isTimeLimitExceeded()){
+			exceededCount++;
+			if(retain){
+				exceeded.add(report);
+			}
+			return;
+		}
+		
+		if(report.isWorkerCrashed()){
+			crashedCount++;
+			if(retain){
+				crashed.add(report);
+			}
+			return;
+		}
+		
 		setupTime.accept(report.getSetupTime());
 		nativeSetupTime.accept(report.getNativeSetupTime());
 		canonTime.accept(report.getCanonizationTime());
 		otherTime.accept(report.getOtherTime());
 		totalTime.accept(report.getTotalTime());
-		reports.add(report);
+		offCpuTime.accept(report.getOffCpuTime());
+		setupHistogram.record(report.getSetupTime());
+		nativeSetupHistogram.record(report.getNativeSetupTime());
+		canonHistogram.record(report.getCanonizationTime());
+		otherHistogram.record(report.getOtherTime());
+		totalHistogram.record(report.getTotalTime());
+		SearchStatistics search = report.getSearchStatistics();
+		if(search != null){
+			searchNodes.accept(search.getSearchNodes());
+			generators.accept(search.getGenerators());
+			maxLevel.accept(search.getMaxLevel());
+			groupSize.accept(search.getGroupSizeLog10());
+			searchCorrelation.accept(search.getSearchNodes(), report.getCanonizationTime());
+		}
+		HardwareCounters counters = report.getHardwareCounters();
+		if(counters != null){
+			acceptCounter(cycles, counters.getCycles());
+			acceptCounter(instructions, counters.getInstructions());
+			acceptCounter(cacheMisses, counters.getCacheMisses());
+			acceptCounter(branchMisses, counters.getBranchMisses());
+			if(counters.getCycles() > 0 && counters.getInstructions() != HardwareCounters.UNAVAILABLE){
+				instructionsPerCycle.accept((double)counters.getInstructions() / counters.getCycles());
+			}
+		}
+		
+		if(retain){
+			reports.add(report);
+		}
+		
+		if(report.isFiltered()){
+			filtered++;
+		}
 	}
 	
 	/**
@@ -93,7 +516,7 @@ public class ReportSummaryStatistics{
 	 * @see RuntimeReport#getSetupTime()
 	 */
 	public double getSetupTimeStdDev(){
-		return stdDev(setupTime, RuntimeReport::getSetupTime);
+		return setupTime.getStdDev();
 	}
 	
 	/**
@@ -111,7 +534,7 @@ public class ReportSummaryStatistics{
 	 * @see RuntimeReport#getNativeSetupTime()
 	 */
 	public double getNativeSetupTimeStdDev(){
-		return stdDev(nativeSetupTime, RuntimeReport::getNativeSetupTime);
+		return nativeSetupTime.getStdDev();
 	}
 	
 	/**
@@ -129,7 +552,7 @@ public class ReportSummaryStatistics{
 	 * @see RuntimeReport#getCanonizationTime()
 	 */
 	public double getCanonizationTimeStdDev(){
-		return stdDev(canonTime, RuntimeReport::getCanonizationTime);
+		return canonTime.getStdDev();
 	}
 	
 	/**
@@ -147,7 +570,7 @@ public class ReportSummaryStatistics{
 	 * @see RuntimeReport#getOtherTime()
 	 */
 	public double getOtherTimeStdDev(){
-		return stdDev(otherTime, RuntimeReport::getOtherTime);
+		return otherTime.getStdDev();
 	}
 	
 	/**
@@ -165,7 +588,7 @@ public class ReportSummaryStatistics{
 	 * @see RuntimeReport#getTotalTime()
 	 */
 	public double getTotalTimeStdDev(){
-		return stdDev(totalTime, RuntimeReport::getTotalTime);
+		return totalTime.getStdDev();
 	}
 	
 	/**
@@ -177,35 +600,376 @@ public class ReportSummaryStatistics{
 		return totalTime.getAverage();
 	}
 	
+	/**
+	 * Gets the sample standard deviation for the off-CPU runtime.
+	 * @return The sample standard deviation for the off-CPU runtime in nanoseconds.
+	 * @see RuntimeReport#getOffCpuTime()
+	 */
+	public double getOffCpuTimeStdDev(){
+		return offCpuTime.getStdDev();
+	}
+	
+	/**
+	 * Gets the average off-CPU time for all runtime reports. When the algorithm
+	 * was run on multiple threads this time gives an indication of the amount
+	 * of contention between the threads.
+	 * @return The average off-CPU time in nanoseconds.
+	 * @see RuntimeReport#getOffCpuTime()
+	 */
+	public double getOffCpuTimeAverage(){
+		return offCpuTime.getAverage();
+	}
+	
+	/**
+	 * Gets the histogram of the setup runtimes.
+	 * @return The histogram of the setup runtimes in nanoseconds.
+	 * @see RuntimeReport#getSetupTime()
+	 */
+	public LatencyHistogram getSetupTimeHistogram(){
+		return setupHistogram;
+	}
+	
+	/**
+	 * Gets the histogram of the native setup runtimes.
+	 * @return The histogram of the native setup runtimes in nanoseconds.
+	 * @see RuntimeReport#getNativeSetupTime()
+	 */
+	public LatencyHistogram getNativeSetupTimeHistogram(){
+		return nativeSetupHistogram;
+	}
+	
+	/**
+	 * Gets the histogram of the canonization runtimes.
+	 * @return The histogram of the canonization runtimes in nanoseconds.
+	 * @see RuntimeReport#getCanonizationTime()
+	 */
+	public LatencyHistogram getCanonizationTimeHistogram(){
+		return canonHistogram;
+	}
+	
+	/**
+	 * Gets the histogram of the 'other' runtimes.
+	 * @return The histogram of the 'other' runtimes in nanoseconds.
+	 * @see RuntimeReport#getOtherTime()
+	 */
+	public LatencyHistogram getOtherTimeHistogram(){
+		return otherHistogram;
+	}
+	
+	/**
+	 * Gets the histogram of the total runtimes.
+	 * @return The histogram of the total runtimes in nanoseconds.
+	 * @see RuntimeReport#getTotalTime()
+	 */
+	public LatencyHistogram getTotalTimeHistogram(){
+		return totalHistogram;
+	}
+	
+	/**
+	 * Gets the number of runtime reports included in the
+	 * summary statistics that reported search statistics.
+	 * @return The number of runtime reports with search statistics.
+	 * @see RuntimeReport#getSearchStatistics()
+	 */
+	public long getSearchStatisticsCount(){
+		return searchNodes.getCount();
+	}
+	
+	/**
+	 * Gets the average number of search tree nodes for all
+	 * runtime reports that reported search statistics.
+	 * @return The average number of search tree nodes.
+	 * @see SearchStatistics#getSearchNodes()
+	 */
+	public double getSearchNodesAverage(){
+		return searchNodes.getAverage();
+	}
+	
+	/**
+	 * Gets the sample standard deviation for the number of search tree nodes.
+	 * @return The sample standard deviation for the number of search tree nodes.
+	 * @see SearchStatistics#getSearchNodes()
+	 */
+	public double getSearchNodesStdDev(){
+		return searchNodes.getStdDev();
+	}
+	
+	/**
+	 * Gets the average number of automorphism group generators for
+	 * all runtime reports that reported search statistics.
+	 * @return The average number of automorphism group generators.
+	 * @see SearchStatistics#getGenerators()
+	 */
+	public double getGeneratorsAverage(){
+		return generators.getAverage();
+	}
+	
+	/**
+	 * Gets the sample standard deviation for the number of automorphism group generators.
+	 * @return The sample standard deviation for the number of automorphism group generators.
+	 * @see SearchStatistics#getGenerators()
+	 */
+	public double getGeneratorsStdDev(){
+		return generators.getStdDev();
+	}
+	
+	/**
+	 * Gets the average maximum search tree level for all
+	 * runtime reports that reported search statistics.
+	 * @return The average maximum search tree level.
+	 * @see SearchStatistics#getMaxLevel()
+	 */
+	public double getMaxLevelAverage(){
+		return maxLevel.getAverage();
+	}
+	
+	/**
+	 * Gets the sample standard deviation for the maximum search tree level.
+	 * @return The sample standard deviation for the maximum search tree level.
+	 * @see SearchStatistics#getMaxLevel()
+	 */
+	public double getMaxLevelStdDev(){
+		return maxLevel.getStdDev();
+	}
+	
+	/**
+	 * Gets the average base 10 logarithm of the automorphism group size
+	 * for all runtime reports that reported search statistics.
+	 * @return The average base 10 logarithm of the automorphism group size.
+	 * @see SearchStatistics#getGroupSizeLog10()
+	 */
+	public double getGroupSizeLog10Average(){
+		return groupSize.getAverage();
+	}
+	
+	/**
+	 * Gets the sample standard deviation for the base 10 logarithm of the automorphism group size.
+	 * @return The sample standard deviation for the base 10 logarithm of the automorphism group size.
+	 * @see SearchStatistics#getGroupSizeLog10()
+	 */
+	public double getGroupSizeLog10StdDev(){
+		return groupSize.getStdDev();
+	}
+	
+	/**
+	 * Gets the Pearson correlation coefficient between the number of search
+	 * tree nodes and the canonization time for all runtime reports that
+	 * reported search statistics. A value close to 1 indicates that the
+	 * canonization time is mostly explained by the size of the search tree.
+	 * @return The correlation between the number of search tree nodes and
+	 *         the canonization time, between -1 and 1 or NaN if undefined.
+	 * @see SearchStatistics#getSearchNodes()
+	 * @see RuntimeReport#getCanonizationTime()
+	 */
+	public double getSearchNodesCorrelation(){
+		return searchCorrelation.getCorrelation();
+	}
+	
+	/**
+	 * Gets the average number of CPU cycles for all runtime
+	 * reports that reported this hardware counter.
+	 * @return The average number of CPU cycles, NaN if not reported.
+	 * @see HardwareCounters#getCycles()
+	 */
+	public double getCyclesAverage(){
+		return getCounterAverage(cycles);
+	}
+	
+	/**
+	 * Gets the average number of retired instructions for all
+	 * runtime reports that reported this hardware counter.
+	 * @return The average number of retired instructions, NaN if not reported.
+	 * @see HardwareCounters#getInstructions()
+	 */
+	public double getInstructionsAverage(){
+		return getCounterAverage(instructions);
+	}
+	
+	/**
+	 * Gets the average number of last level cache misses for all
+	 * runtime reports that reported this hardware counter.
+	 * @return The average number of last level cache misses, NaN if not reported.
+	 * @see HardwareCounters#getCacheMisses()
+	 */
+	public double getCacheMissesAverage(){
+		return getCounterAverage(cacheMisses);
+	}
+	
+	/**
+	 * Gets the average number of branch misses for all runtime
+	 * reports that reported this hardware counter.
+	 * @return The average number of branch misses, NaN if not reported.
+	 * @see HardwareCounters#getBranchMisses()
+	 */
+	public double getBranchMissesAverage(){
+		return getCounterAverage(branchMisses);
+	}
+	
+	/**
+	 * Gets the average number of instructions per cycle for all runtime
+	 * reports that reported both the cycle and instruction counters. A
+	 * low value indicates that canonization is mostly stalled, for example
+	 * on cache misses.
+	 * @return The average number of instructions per cycle, NaN if not reported.
+	 * @see HardwareCounters#getCycles()
+	 * @see HardwareCounters#getInstructions()
+	 */
+	public double getInstructionsPerCycleAverage(){
+		return getCounterAverage(instructionsPerCycle);
+	}
+	
+	/**
+	 * Gets the number of runtime reports included in the
+	 * summary statistics that reported any hardware counters.
+	 * @return The number of runtime reports with hardware counters.
+	 * @see RuntimeReport#getHardwareCounters()
+	 */
+	public long getHardwareCountersCount(){
+		return Math.max(Math.max(cycles.getCount(), instructions.getCount()), Math.max(cacheMisses.getCount(), branchMisses.getCount()));
+	}
+	
+	/**
+	 * Gets the number of graphs for which canonization was skipped
+	 * because the invariant filter showed them to be distinct from
+	 * all other graphs in the data set.
+	 * @return The number of filtered graphs.
+	 * @see RuntimeReport#isFiltered()
+	 * @see InvariantFilter
+	 */
+	public int getFilteredCount(){
+		return filtered;
+	}
+	
+	/**
+	 * Gets the fraction of the graphs in this summary for which
+	 * canonization was skipped by the invariant filter.
+	 * @return The fraction of filtered graphs, between 0 and 1.
+	 * @see #getFilteredCount()
+	 */
+	public double getFilterRate(){
+		return totalTime.getCount() == 0 ? 0.0D : ((double)filtered / totalTime.getCount());
+	}
+	
+	/**
+	 * Gets the number of threads that were used to run the algorithm.
+	 * @return The number of threads used to run the algorithm.
+	 */
+	public int getThreads(){
+		return threads;
+	}
+	
+	/**
+	 * Checks if the individual runtime reports that make up this summary are retained.
+	 * @return True if individual reports are retained.
+	 * @see #getReports()
+	 * @see #getExceededReports()
+	 */
+	public boolean isRetainingReports(){
+		return retain;
+	}
+	
+	/**
+	 * Gets the number of runtime reports included in the summary statistics.
+	 * @return The number of runtime reports in the summary statistics.
+	 */
+	public long getReportCount(){
+		return totalTime.getCount();
+	}
+	
+	/**
+	 * Gets the number of graphs that exceeded their time limit.
+	 * @return The number of graphs that exceeded their time limit.
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 */
+	public int getExceededCount(){
+		return exceededCount;
+	}
+	
 	/**
 	 * Gets the individual runtime reports that make up this summary.
-	 * @return The individual runtime reports.
+	 * @return The individual runtime reports, empty if individual
+	 *         reports are not retained.
+	 * @see #isRetainingReports()
 	 */
 	public List<RuntimeReport> getReports(){
 		return reports;
 	}
 	
 	/**
-	 * Prints a runtime report with all the times formatted
-	 * together with their sample standard deviation.
+	 * Gets the runtime reports for the graphs that exceeded their time
+	 * limit. These reports are not included in the summary statistics.
+	 * @return The runtime reports for the graphs that exceeded their time
+	 *         limit, empty if individual reports are not retained.
+	 * @see RuntimeReport#isTimeLimitExceeded()
+	 * @see #isRetainingReports()
+	 */
+	public List<RuntimeReport> getExceededReports(){
+		return exceeded;
+	}
+	
+	/**
+	 * Gets the number of graphs that crashed their worker process.
+	 * @return The number of graphs that crashed their worker process.
+	 * @see RuntimeReport#isWorkerCrashed()
+	 */
+	public int getCrashedCount(){
+		return crashedCount;
+	}
+	
+	/**
+	 * Gets the runtime reports for the graphs that crashed their worker
+	 * process. These reports are not included in the summary statistics.
+	 * @return The runtime reports for the graphs that crashed their worker
+	 *         process, empty if individual reports are not retained.
+	 * @see RuntimeReport#isWorkerCrashed()
+	 * @see #isRetainingReports()
+	 */
+	public List<RuntimeReport> getCrashedReports(){
+		return crashed;
+	}
+	
+	/**
+	 * Prints a runtime report with all the times formatted together
+	 * with their sample standard deviation and their percentiles.
 	 */
 	public void print(){
 		print(System.out);
 	}
 	
 	/**
-	 * Prints a runtime report with all the times formatted
-	 * together with their sample standard deviation.
+	 * Prints a runtime report with all the times formatted together
+	 * with their sample standard deviation and their percentiles.
 	 * @param out The stream to write to.
 	 */
 	public void print(PrintStream out){
 		out.println("========== Runtime Report ==========");
 		out.println("Algorithm: " + algo.getName());
-		out.println("Setup: " + formatNanos(getSetupTimeAverage()) + " \u00B1 " + formatNanos(getSetupTimeStdDev()));
-		out.println("Setup (native): " + formatNanos(getNativeSetupTimeAverage()) + " \u00B1 " + formatNanos(getNativeSetupTimeStdDev()));
-		out.println("Canonization: " + formatNanos(getCanonizationTimeAverage()) + " \u00B1 " + formatNanos(getCanonizationTimeStdDev()));
-		out.println("Other: " + formatNanos(getOtherTimeAverage()) + " \u00B1 " + formatNanos(getOtherTimeStdDev()));
-		out.println("Total: " + formatNanos(getTotalTimeAverage()) + " \u00B1 " + formatNanos(getTotalTimeStdDev()));
+		out.println("Threads: " + threads);
+		out.println("Time limit exceeded: " + exceededCount);
+		if(crashedCount > 0){
+			out.println("Worker crashes: " + crashedCount);
+		}
+		if(filtered > 0){
+			out.println("Filtered: " + filtered + " (" + String.format(Locale.ROOT, "%.1f", getFilterRate() * 100.0D) + "%)");
+		}
+		out.println("Setup: " + formatNanos(getSetupTimeAverage()) + " \u00B1 " + formatNanos(getSetupTimeStdDev()) + formatPercentiles(setupHistogram));
+		out.println("Setup (native): " + formatNanos(getNativeSetupTimeAverage()) + " \u00B1 " + formatNanos(getNativeSetupTimeStdDev()) + formatPercentiles(nativeSetupHistogram));
+		out.println("Canonization: " + formatNanos(getCanonizationTimeAverage()) + " \u00B1 " + formatNanos(getCanonizationTimeStdDev()) + formatPercentiles(canonHistogram));
+		out.println("Other: " + formatNanos(getOtherTimeAverage()) + " \u00B1 " + formatNanos(getOtherTimeStdDev()) + formatPercentiles(otherHistogram));
+		out.println("Total: " + formatNanos(getTotalTimeAverage()) + " \u00B1 " + formatNanos(getTotalTimeStdDev()) + formatPercentiles(totalHistogram));
+		out.println("Off-CPU: " + formatNanos(getOffCpuTimeAverage()) + " \u00B1 " + formatNanos(getOffCpuTimeStdDev()));
+		if(getSearchStatisticsCount() > 0){
+			out.println("Search nodes: " + formatDouble(getSearchNodesAverage()) + " \u00B1 " + formatDouble(getSearchNodesStdDev()) + " (correlation with canonization: " + formatDouble(getSearchNodesCorrelation()) + ")");
+			out.println("Generators: " + formatDouble(getGeneratorsAverage()) + " \u00B1 " + formatDouble(getGeneratorsStdDev()));
+			out.println("Max level: " + formatDouble(getMaxLevelAverage()) + " \u00B1 " + formatDouble(getMaxLevelStdDev()));
+			out.println("Group size: 10^" + formatDouble(getGroupSizeLog10Average()) + " \u00B1 " + formatDouble(getGroupSizeLog10StdDev()));
+		}
+		if(getHardwareCountersCount() > 0){
+			out.println("Cycles: " + formatDouble(getCyclesAverage()) + " \u00B1 " + formatDouble(cycles.getStdDev()));
+			out.println("Instructions: " + formatDouble(getInstructionsAverage()) + " \u00B1 " + formatDouble(instructions.getStdDev()) + " (IPC: " + formatDouble(getInstructionsPerCycleAverage()) + ")");
+			out.println("LLC misses: " + formatDouble(getCacheMissesAverage()) + " \u00B1 " + formatDouble(cacheMisses.getStdDev()));
+			out.println("Branch misses: " + formatDouble(getBranchMissesAverage()) + " \u00B1 " + formatDouble(branchMisses.getStdDev()));
+		}
 		out.println("====================================");
 	}
 	
@@ -224,13 +988,30 @@ public class ReportSummaryStatistics{
 	 * <li>Other time standard deviation</li>
 	 * <li>Average total time</li>
 	 * <li>Total time standard deviation</li>
+	 * <li>The 50th, 99th and 99.9th percentile of the setup time</li>
+	 * <li>The 50th, 99th and 99.9th percentile of the native setup time</li>
+	 * <li>The 50th, 99th and 99.9th percentile of the canonization time</li>
+	 * <li>The 50th, 99th and 99.9th percentile of the other time</li>
+	 * <li>The 50th, 99th and 99.9th percentile of the total time</li>
+	 * <li>Average number of search tree nodes</li>
+	 * <li>Search tree nodes standard deviation</li>
+	 * <li>Correlation between the number of search tree nodes and canonization time</li>
+	 * <li>Average number of automorphism group generators</li>
+	 * <li>Average maximum search tree level</li>
+	 * <li>Average base 10 logarithm of the automorphism group size</li>
+	 * <li>Average number of CPU cycles</li>
+	 * <li>Average number of retired instructions</li>
+	 * <li>Average number of last level cache misses</li>
+	 * <li>Average number of branch misses</li>
 	 * </ol>
+	 * The search statistics and hardware counters are written as NaN if they
+	 * were not reported by the algorithm.
 	 * @param out The stream to write to.
 	 */
 	public void writeData(PrintStream out){
 		out.print(getSetupTimeAverage());
 		out.print(" ");
-		out.print(getNativeSetupTimeStdDev());
+		out.print(getSetupTimeStdDev());
 		out.print(" ");
 		out.print(getNativeSetupTimeAverage());
 		out.print(" ");
@@ -246,7 +1027,25 @@ public class ReportSummaryStatistics{
 		out.print(" ");
 		out.print(getTotalTimeAverage());
 		out.print(" ");
-		out.println(getTotalTimeStdDev());
+		out.print(getTotalTimeStdDev());
+		for(LatencyHistogram histogram : new LatencyHistogram[]{setupHistogram, nativeSetupHistogram, canonHistogram, otherHistogram, totalHistogram}){
+			for(double percentile : PERCENTILES){
+				out.print(" ");
+				out.print(histogram.getValueAtPercentile(percentile));
+			}
+		}
+		
+		boolean search = getSearchStatisticsCount() > 0;
+		for(double value : new double[]{getSearchNodesAverage(), getSearchNodesStdDev(), getSearchNodesCorrelation(), getGeneratorsAverage(), getMaxLevelAverage(), getGroupSizeLog10Average()}){
+			out.print(" ");
+			out.print(search ? value : Double.NaN);
+		}
+		
+		for(double value : new double[]{getCyclesAverage(), getInstructionsAverage(), getCacheMissesAverage(), getBranchMissesAverage()}){
+			out.print(" ");
+			out.print(value);
+		}
+		out.println();
 	}
 	
 	/**
@@ -263,12 +1062,204 @@ public class ReportSummaryStatistics{
 	}
 	
 	/**
-	 * Computes the sample standard deviation of the given field in the data set.
-	 * @param stats Summary statistics of the field to compute the standard deviation for.
-	 * @param field The field to compute the standard deviation of.
-	 * @return The sample standard deviation of the given field.
+	 * Records the given hardware counter value if the counter was available.
+	 * @param stats The statistics to record the value in.
+	 * @param value The hardware counter value.
+	 * @see HardwareCounters#UNAVAILABLE
 	 */
-	private double stdDev(LongSummaryStatistics stats, Function<RuntimeReport, Long> field){
-		return Math.sqrt(reports.stream().map(field).mapToDouble(x->Math.pow(x - stats.getAverage(), 2.0D)).sum() / (stats.getCount() - 1));
+	private static final void acceptCounter(RunningStatistics stats, long value){
+		if(value != HardwareCounters.UNAVAILABLE){
+			stats.accept(value);
+		}
+	}
+	
+	/**
+	 * Gets the average of the given hardware counter statistics.
+	 * @param stats The hardware counter statistics.
+	 * @return The average of the recorded values, NaN if no values were recorded.
+	 */
+	private static final double getCounterAverage(RunningStatistics stats){
+		return stats.getCount() == 0 ? Double.NaN : stats.getAverage();
+	}
+	
+	/**
+	 * Formats the given value with two decimals.
+	 * @param value The value to format.
+	 * @return The formatted value.
+	 */
+	private static final String formatDouble(double value){
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+	
+	/**
+	 * Formats the reported percentiles of the given histogram.
+	 * @param histogram The histogram to format the percentiles of.
+	 * @return The formatted percentiles.
+	 * @see #PERCENTILES
+	 */
+	private static final String formatPercentiles(LatencyHistogram histogram){
+		StringBuilder buffer = new StringBuilder(" (");
+		for(int i = 0; i < PERCENTILES.length; i++){
+			if(i != 0){
+				buffer.append(", ");
+			}
+			
+			buffer.append('p');
+			buffer.append(BigDecimal.valueOf(PERCENTILES[i]).stripTrailingZeros().toPlainString());
+			buffer.append(": ");
+			buffer.append(RuntimeReport.formatNanos(histogram.getValueAtPercentile(PERCENTILES[i])));
+		}
+		return buffer.append(')').toString();
+	}
+	
+	/**
+	 * Running mean and variance of a single report field, computed
+	 * online using Welford's algorithm.
+	 * @author Roan
+	 */
+	private static final class RunningStatistics{
+		/**
+		 * The number of recorded values.
+		 */
+		private long count = 0;
+		/**
+		 * Running mean of the recorded values.
+		 */
+		private double mean = 0.0D;
+		/**
+		 * Running sum of squared differences from the mean of the recorded values.
+		 */
+		private double m2 = 0.0D;
+		
+		/**
+		 * Records the given value.
+		 * @param value The value to record.
+		 */
+		private void accept(double value){
+			count++;
+			double delta = value - mean;
+			mean += delta / count;
+			m2 += delta * (value - mean);
+		}
+		
+		/**
+		 * Adds all the values recorded by the given statistics
+		 * to these statistics, using the parallel variant of
+		 * Welford's algorithm.
+		 * @param other The statistics to add.
+		 */
+		private void merge(RunningStatistics other){
+			if(other.count == 0){
+				return;
+			}
+			
+			long total = count + other.count;
+			double delta = other.mean - mean;
+			mean += delta * other.count / total;
+			m2 += other.m2 + delta * delta * ((double)count * other.count / total);
+			count = total;
+		}
+		
+		/**
+		 * Gets the number of recorded values.
+		 * @return The number of recorded values.
+		 */
+		private long getCount(){
+			return count;
+		}
+		
+		/**
+		 * Gets the mean of the recorded values.
+		 * @return The mean of the recorded values, zero if no values were recorded.
+		 */
+		private double getAverage(){
+			return mean;
+		}
+		
+		/**
+		 * Gets the sample standard deviation of the recorded values.
+		 * @return The sample standard deviation of the recorded values.
+		 */
+		private double getStdDev(){
+			return Math.sqrt(m2 / (count - 1));
+		}
+	}
+	
+	/**
+	 * Running Pearson correlation between two report fields, computed
+	 * online using the bivariate variant of Welford's algorithm.
+	 * @author Roan
+	 */
+	private static final class RunningCorrelation{
+		/**
+		 * The number of recorded value pairs.
+		 */
+		private long count = 0;
+		/**
+		 * Running mean of the first values.
+		 */
+		private double meanX = 0.0D;
+		/**
+		 * Running mean of the second values.
+		 */
+		private double meanY = 0.0D;
+		/**
+		 * Running sum of squared differences from the mean of the first values.
+		 */
+		private double m2X = 0.0D;
+		/**
+		 * Running sum of squared differences from the mean of the second values.
+		 */
+		private double m2Y = 0.0D;
+		/**
+		 * Running sum of the products of the differences from the means.
+		 */
+		private double coMoment = 0.0D;
+		
+		/**
+		 * Records the given pair of values.
+		 * @param x The first value.
+		 * @param y The second value.
+		 */
+		private void accept(double x, double y){
+			count++;
+			double deltaX = x - meanX;
+			double deltaY = y - meanY;
+			meanX += deltaX / count;
+			meanY += deltaY / count;
+			m2X += deltaX * (x - meanX);
+			m2Y += deltaY * (y - meanY);
+			coMoment += deltaX * (y - meanY);
+		}
+		
+		/**
+		 * Adds all the value pairs recorded by the given
+		 * correlation to this correlation.
+		 * @param other The correlation to add.
+		 */
+		private void merge(RunningCorrelation other){
+			if(other.count == 0){
+				return;
+			}
+			
+			long total = count + other.count;
+			double deltaX = other.meanX - meanX;
+			double deltaY = other.meanY - meanY;
+			double weight = (double)count * other.count / total;
+			meanX += deltaX * other.count / total;
+			meanY += deltaY * other.count / total;
+			m2X += other.m2X + deltaX * deltaX * weight;
+			m2Y += other.m2Y + deltaY * deltaY * weight;
+			coMoment += other.coMoment + deltaX * deltaY * weight;
+			count = total;
+		}
+		
+		/**
+		 * Gets the Pearson correlation coefficient of the recorded value pairs.
+		 * @return The correlation coefficient, NaN if either of the values has no variance.
+		 */
+		private double getCorrelation(){
+			return coMoment / Math.sqrt(m2X * m2Y);
+		}
 	}
 }
@@ -0,0 +1,587 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writer that streams individual runtime reports to a machine readable
+ * results file as they are produced, instead of writing all results at the
+ * end of an evaluation. Every report is written as a single record containing
+ * the algorithm name, the number of rule applications of the data set, the index
+ * of the graph in the data set, the number of nodes and edges of the graph, all
+ * times from the report, the search statistics and hardware counters from the
+ * report (empty in CSV and <code>null</code> in JSON if not reported) and the
+ * status of the report. Records are buffered and written out when the buffer
+ * is full, when {@link #FLUSH_INTERVAL} has passed since the last write and when
+ * {@link #flush()} is called, so that results files can be followed while an
+ * evaluation is running. Since a results file always contains a prefix of the
+ * records written, the reports in a results file can be read back to resume an
+ * evaluation that was interrupted.
+ * @see #read(Path, Format, Algorithm)
+ * @author Roan
+ * @see RuntimeReport
+ * @see Format
+ */
+public class ResultWriter implements Closeable{
+	/**
+	 * Maximum time in nanoseconds that records stay in the buffer.
+	 */
+	private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	/**
+	 * Size in bytes of the record buffer.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Names of the fields in every record in the order they are written.
+	 */
+	private static final String[] FIELDS = {"algorithm", "rules", "graph", "nodes", "edges", "setup", "native_setup", "canonization", "other", "total", "off_cpu", "group_size_log10", "search_nodes", "generators", "max_level", "cycles", "instructions", "llc_misses", "branch_misses", "status"};
+	/**
+	 * The channel for the results file.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The format records are written in.
+	 */
+	private final Format format;
+	/**
+	 * Buffer holding records that were not yet written to the results file.
+	 */
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * Builder used to format records.
+	 */
+	private final StringBuilder record = new StringBuilder();
+	/**
+	 * The {@link System#nanoTime()} of the last write to the results file.
+	 */
+	private long lastFlush = System.nanoTime();
+	
+	/**
+	 * Constructs a new result writer that writes to the given file in the given
+	 * format. If the file already exists then its contents are replaced.
+	 * @param file The results file to write to.
+	 * @param format The format to write records in.
+	 * @throws IOException When an IOException occurs.
+	 */
+	public ResultWriter(Path file, Format format) throws IOException{
+		this(file, format, false);
+	}
+	
+	/**
+	 * Constructs a new result writer that writes to the given file in the
+	 * given format. When appending to an existing results file, an incomplete
+	 * record at the end of the file is removed before new records are written.
+	 * @param file The results file to write to.
+	 * @param format The format to write records in.
+	 * @param append True to append to the given file if it already exists,
+	 *        false to replace the contents of the file.
+	 * @throws IOException When an IOException occurs.
+	 * @see #read(Path, Format, Algorithm)
+	 */
+	public ResultWriter(Path file, Format format, boolean append) throws IOException{
+		this.format = format;
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		if(append){
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			truncateIncompleteRecord();
+		}else{
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+		
+		if(format == Format.CSV && channel.size() == 0){
+			append(String.join(",", FIELDS));
+		}
+	}
+	
+	/**
+	 * Gets a consumer that writes all reports it is given as reports for the
+	 * graphs in a single data set. Reports are expected to be given in data
+	 * set order, the index of the graph of a report is the number of reports
+	 * given to the consumer before it.
+	 * @param rules The number of rule applications used to generate the data set.
+	 * @return A consumer writing reports for the graphs in the data set.
+	 * @see ReportSummaryStatistics
+	 */
+	public Consumer<RuntimeReport> forDataSet(int rules){
+		return forDataSet(rules, 0);
+	}
+	
+	/**
+	 * Gets a consumer that writes all reports it is given as reports for the
+	 * graphs in a single data set, starting from the graph at the given index.
+	 * Reports are expected to be given in data set order.
+	 * @param rules The number of rule applications used to generate the data set.
+	 * @param first The index of the graph for the first report.
+	 * @return A consumer writing reports for the graphs in the data set.
+	 * @see ReportSummaryStatistics
+	 */
+	public Consumer<RuntimeReport> forDataSet(int rules, int first){
+		return new Consumer<RuntimeReport>(){
+			/**
+			 * Index of the graph for the next report.
+			 */
+			private int index = first;
+			
+			@Override
+			public void accept(RuntimeReport report){
+				try{
+					write(rules, index++, report);
+				}catch(IOException e){
+					throw new IllegalStateException("Failed to write runtime report.", e);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Reads the runtime reports for the given algorithm from the given results
+	 * file. An incomplete record at the end of the file, as left behind when the
+	 * evaluation was interrupted while writing the file, is ignored. If the file
+	 * contains a data set that was evaluated again from the first graph, then
+	 * only the reports from the last evaluation of that data set are returned.
+	 * @param file The results file to read.
+	 * @param format The format of the results file.
+	 * @param algo The algorithm the results file was written for.
+	 * @return The reports in the results file grouped by the number of rule
+	 *         applications of their data set, in data set order.
+	 * @throws IOException When an IOException occurs or when the results file
+	 *         was not written for the given algorithm.
+	 */
+	public static Map<Integer, List<RuntimeReport>> read(Path file, Format format, Algorithm algo) throws IOException{
+		Map<Integer, List<RuntimeReport>> reports = new LinkedHashMap<Integer, List<RuntimeReport>>();
+		try(BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+			String line = in.readLine();
+			if(format == Format.CSV && line != null){
+				//skip the header
+				line = in.readLine();
+			}
+			
+			for(; line != null; line = in.readLine()){
+				String[] values = format == Format.CSV ? parseCsv(line) : parseJson(line);
+				if(values == null){
+					break;
+				}
+				
+				if(!values[0].equals(algo.getName())){
+					throw new IOException("Results file " + file + " contains results for a different algorithm: " + values[0]);
+				}
+				
+				List<RuntimeReport> data = reports.computeIfAbsent(Integer.parseInt(values[1]), rules->new ArrayList<RuntimeReport>());
+				int index = Integer.parseInt(values[2]);
+				if(index == 0){
+					//data set evaluated again from the start
+					data.clear();
+				}else if(index != data.size()){
+					throw new IOException("Results file " + file + " is missing reports for data set " + values[1] + ".");
+				}
+				
+				data.add(new RuntimeReport(
+					algo,
+					Integer.parseInt(values[3]),
+					Integer.parseInt(values[4]),
+					new long[]{Long.parseLong(values[5]), Long.parseLong(values[6]), Long.parseLong(values[7])},
+					Long.parseLong(values[9]),
+					Long.parseLong(values[10]),
+					values[19].equals("exceeded"),
+					values[19].equals("filtered"),
+					values[19].equals("crashed"),
+					parseSearchStatistics(values),
+					parseHardwareCounters(values)
+				));
+			}
+		}catch(NumberFormatException e){
+			throw new IOException("Malformed record in results file " + file + ".", e);
+		}
+		
+		return reports;
+	}
+	
+	/**
+	 * Parses the search statistics from the field values of a record.
+	 * @param values The values of all fields in the record.
+	 * @return The parsed search statistics, or <code>null</code> if
+	 *         the record does not contain search statistics.
+	 * @throws NumberFormatException When the record is malformed.
+	 */
+	private static SearchStatistics parseSearchStatistics(String[] values) throws NumberFormatException{
+		if(values[11].isEmpty() || values[11].equals("null")){
+			return null;
+		}
+		
+		return new SearchStatistics(
+			Double.parseDouble(values[11]),
+			Long.parseLong(values[12]),
+			Long.parseLong(values[13]),
+			Integer.parseInt(values[14])
+		);
+	}
+	
+	/**
+	 * Parses the hardware counters from the field values of a record.
+	 * @param values The values of all fields in the record.
+	 * @return The parsed hardware counters, or <code>null</code> if
+	 *         the record does not contain hardware counters.
+	 * @throws NumberFormatException When the record is malformed.
+	 */
+	private static HardwareCounters parseHardwareCounters(String[] values) throws NumberFormatException{
+		if(values[15].isEmpty() || values[15].equals("null")){
+			return null;
+		}
+		
+		return new HardwareCounters(
+			Long.parseLong(values[15]),
+			Long.parseLong(values[16]),
+			Long.parseLong(values[17]),
+			Long.parseLong(values[18])
+		);
+	}
+	
+	/**
+	 * Parses a CSV record written by a result writer.
+	 * @param line The line containing the record.
+	 * @return The values of all fields in the record, or <code>null</code>
+	 *         if the given line does not contain a complete record.
+	 */
+	private static String[] parseCsv(String line){
+		String[] values = new String[FIELDS.length];
+		int pos = 0;
+		for(int i = 0; i < values.length; i++){
+			if(i != 0){
+				if(pos >= line.length() || line.charAt(pos) != ','){
+					return null;
+				}
+				pos++;
+			}
+			
+			if(pos < line.length() && line.charAt(pos) == '"'){
+				StringBuilder value = new StringBuilder();
+				while(true){
+					int end = line.indexOf('"', pos + 1);
+					if(end == -1){
+						return null;
+					}
+					
+					value.append(line, pos + 1, end);
+					pos = end + 1;
+					if(pos < line.length() && line.charAt(pos) == '"'){
+						value.append('"');
+					}else{
+						break;
+					}
+				}
+				values[i] = value.toString();
+			}else{
+				int end = line.indexOf(',', pos);
+				values[i] = line.substring(pos, end == -1 ? line.length() : end);
+				pos += values[i].length();
+			}
+		}
+		
+		return pos == line.length() ? values : null;
+	}
+	
+	/**
+	 * Parses a JSON Lines record written by a result writer.
+	 * @param line The line containing the record.
+	 * @return The values of all fields in the record, or <code>null</code>
+	 *         if the given line does not contain a complete record.
+	 */
+	private static String[] parseJson(String line){
+		String[] values = new String[FIELDS.length];
+		int pos = 1;
+		if(!line.startsWith("{") || !line.endsWith("}")){
+			return null;
+		}
+		
+		try{
+			for(int i = 0; i < values.length; i++){
+				String name = (i == 0 ? "\"" : ",\"") + FIELDS[i] + "\":";
+				if(!line.startsWith(name, pos)){
+					return null;
+				}
+				pos += name.length();
+				
+				if(line.charAt(pos) == '"'){
+					StringBuilder value = new StringBuilder();
+					for(pos++; line.charAt(pos) != '"'; pos++){
+						char c = line.charAt(pos);
+						if(c == '\\'){
+							c = line.charAt(++pos);
+							if(c == 'u'){
+								c = (char)Integer.parseInt(line.substring(pos + 1, pos + 5), 16);
+								pos += 4;
+							}
+						}
+						value.append(c);
+					}
+					values[i] = value.toString();
+					pos++;
+				}else{
+					int end = pos;
+					while(line.charAt(end) != ',' && line.charAt(end) != '}'){
+						end++;
+					}
+					values[i] = line.substring(pos, end);
+					pos = end;
+				}
+			}
+		}catch(IndexOutOfBoundsException | NumberFormatException e){
+			return null;
+		}
+		
+		return pos == line.length() - 1 ? values : null;
+	}
+	
+	/**
+	 * Writes a record for the given runtime report.
+	 * @param rules The number of rule applications used to generate the data set.
+	 * @param index The index of the graph in the data set.
+	 * @param report The runtime report to write.
+	 * @throws IOException When an IOException occurs.
+	 */
+	public synchronized void write(int rules, int index, RuntimeReport report) throws IOException{
+		SearchStatistics search = report.getSearchStatistics();
+		HardwareCounters counters = report.getHardwareCounters();
+		Object[] values = {
+			report.getAlgorithm().getName(),
+			rules,
+			index,
+			report.getNodeCount(),
+			report.getEdgeCount(),
+			report.getSetupTime(),
+			report.getNativeSetupTime(),
+			report.getCanonizationTime(),
+			report.getOtherTime(),
+			report.getTotalTime(),
+			report.getOffCpuTime(),
+			search == null ? null : search.getGroupSizeLog10(),
+			search == null ? null : search.getSearchNodes(),
+			search == null ? null : search.getGenerators(),
+			search == null ? null : search.getMaxLevel(),
+			counters == null ? null : counters.getCycles(),
+			counters == null ? null : counters.getInstructions(),
+			counters == null ? null : counters.getCacheMisses(),
+			counters == null ? null : counters.getBranchMisses(),
+			getStatus(report)
+		};
+		
+		record.setLength(0);
+		if(format == Format.CSV){
+			for(int i = 0; i < values.length; i++){
+				if(i != 0){
+					record.append(',');
+				}
+				
+				if(values[i] instanceof String){
+					record.append('"').append(((String)values[i]).replace("\"", "\"\"")).append('"');
+				}else if(values[i] != null){
+					record.append(values[i]);
+				}
+			}
+		}else{
+			record.append('{');
+			for(int i = 0; i < values.length; i++){
+				if(i != 0){
+					record.append(',');
+				}
+				
+				record.append('"').append(FIELDS[i]).append("\":");
+				if(values[i] instanceof String){
+					appendJsonString((String)values[i]);
+				}else{
+					record.append(values[i]);
+				}
+			}
+			record.append('}');
+		}
+		
+		append(record);
+		if(System.nanoTime() - lastFlush > FLUSH_INTERVAL){
+			flush();
+		}
+	}
+	
+	/**
+	 * Gets the status of the given runtime report as written to results files.
+	 * @param report The runtime report.
+	 * @return The status of the given report.
+	 */
+	private static String getStatus(RuntimeReport report){
+		if(report.isTimeLimitExceeded()){
+			return "exceeded";
+		}else if(report.isFiltered()){
+			return "filtered";
+		}else if(report.isWorkerCrashed()){
+			return "crashed";
+		}else{
+			return "ok";
+		}
+	}
+	
+	/**
+	 * Writes all buffered records to the results file.
+	 * @throws IOException When an IOException occurs.
+	 */
+	public synchronized void flush() throws IOException{
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+		lastFlush = System.nanoTime();
+	}
+	
+	/**
+	 * Writes all buffered records and closes the results file.
+	 * @throws IOException When an IOException occurs.
+	 */
+	@Override
+	public synchronized void close() throws IOException{
+		try{
+			flush();
+		}finally{
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Removes an incomplete record at the end of the results file,
+	 * that is, everything after the last line terminator in the file.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private void truncateIncompleteRecord() throws IOException{
+		ByteBuffer block = ByteBuffer.allocate(4096);
+		long end = channel.size();
+		while(end > 0){
+			long start = Math.max(0, end - block.capacity());
+			block.clear();
+			block.limit((int)(end - start));
+			while(block.hasRemaining()){
+				if(channel.read(block, start + block.position()) == -1){
+					throw new IOException("Unexpected end of results file.");
+				}
+			}
+			
+			for(int i = block.limit() - 1; i >= 0; i--){
+				if(block.get(i) == '\n'){
+					channel.truncate(start + i + 1);
+					channel.position(start + i + 1);
+					return;
+				}
+			}
+			
+			end = start;
+		}
+		
+		channel.truncate(0);
+	}
+	
+	/**
+	 * Appends the given line to the buffer, writing out the buffer first
+	 * if there is not enough space left in the buffer for the line.
+	 * @param line The line to append, without line terminator.
+	 * @throws IOException When an IOException occurs.
+	 */
+	private void append(CharSequence line) throws IOException{
+		byte[] data = (line + "\n").getBytes(StandardCharsets.UTF_8);
+		if(data.length > buffer.remaining()){
+			flush();
+		}
+		
+		if(data.length > buffer.capacity()){
+			ByteBuffer large = ByteBuffer.wrap(data);
+			while(large.hasRemaining()){
+				channel.write(large);
+			}
+		}else{
+			buffer.put(data);
+		}
+	}
+	
+	/**
+	 * Appends the given string to the record as a quoted JSON string.
+	 * @param str The string to append.
+	 */
+	private void appendJsonString(String str){
+		record.append('"');
+		for(int i = 0; i < str.length(); i++){
+			char c = str.charAt(i);
+			if(c == '"' || c == '\\'){
+				record.append('\\').append(c);
+			}else if(c < 0x20){
+				record.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+			}else{
+				record.append(c);
+			}
+		}
+		record.append('"');
+	}
+	
+	/**
+	 * The formats results files can be written in.
+	 * @author Roan
+	 */
+	public enum Format{
+		/**
+		 * Comma separated values with a header line naming the fields.
+		 */
+		CSV("csv"),
+		/**
+		 * JSON Lines with a single JSON object per record.
+		 */
+		JSONL("jsonl");
+		
+		/**
+		 * The file extension for results files in this format.
+		 */
+		private final String extension;
+		
+		/**
+		 * Constructs a new format with the given file extension.
+		 * @param extension The file extension for the format.
+		 */
+		private Format(String extension){
+			this.extension = extension;
+		}
+		
+		/**
+		 * Gets the file extension for results files in this format.
+		 * @return The file extension, without leading dot.
+		 */
+		public String getExtension(){
+			return extension;
+		}
+	}
+}
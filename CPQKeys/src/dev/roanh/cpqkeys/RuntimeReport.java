@@ -1,6 +1,11 @@
 package dev.roanh.cpqkeys;
 
 import java.io.PrintStream;
+import java.util.Locale;
+
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
 
 /**
  * Report summarising various runtimes about an algorithm
@@ -12,6 +17,14 @@ public class RuntimeReport{
 	 * The algorithm these runtimes were measured for.
 	 */
 	private Algorithm algo;
+	/**
+	 * The number of nodes in the input graph.
+	 */
+	private int nodes;
+	/**
+	 * The number of edges in the input graph.
+	 */
+	private int edges;
 	/**
 	 * Setup time for the algorithm (nanoseconds).
 	 */
@@ -28,11 +41,43 @@ public class RuntimeReport{
 	 * Raw execution time (nanoseconds).
 	 */
 	private long totalTime;
+	/**
+	 * CPU time of the thread executing the algorithm (nanoseconds),
+	 * or -1 if CPU time measurement was not available.
+	 */
+	private long cpuTime;
+	/**
+	 * True if canonization was aborted because the
+	 * time limit for the input graph was exceeded.
+	 */
+	private boolean timeLimitExceeded;
+	/**
+	 * True if canonization failed because the worker
+	 * process canonizing the input graph crashed.
+	 */
+	private boolean crashed;
+	/**
+	 * True if canonization was skipped because the invariant
+	 * filter showed the input graph to be distinct from all
+	 * other graphs in the data set.
+	 */
+	private boolean filtered;
+	/**
+	 * Statistics about the search tree explored by the algorithm,
+	 * or <code>null</code> if not reported by the algorithm.
+	 */
+	private SearchStatistics search;
+	/**
+	 * Hardware counters read around the canonization by the
+	 * algorithm, or <code>null</code> if not reported by the algorithm.
+	 */
+	private HardwareCounters counters;
 
 	/**
 	 * Constructs a new runtime report for the given algorithm
 	 * with the given runtime information.
 	 * @param algo The algorithm that was execute.
+	 * @param graph The input graph the algorithm was executed on.
 	 * @param times An array with runtimes, the array is
 	 *        expected to contain in order the setup time
 	 *        native setup time and lastly the canonization
@@ -40,12 +85,146 @@ public class RuntimeReport{
 	 * @param total The total number of nanoseconds spent executing
 	 *        the algorithm and all associated transforms.
 	 */
-	protected RuntimeReport(Algorithm algo, long[] times, long total){
+	protected RuntimeReport(Algorithm algo, Graph<Vertex, Predicate> graph, long[] times, long total){
+		this(algo, graph, times, total, -1L);
+	}
+	
+	/**
+	 * Constructs a new runtime report for the given algorithm
+	 * with the given runtime information.
+	 * @param algo The algorithm that was execute.
+	 * @param graph The input graph the algorithm was executed on.
+	 * @param times An array with runtimes, the array is
+	 *        expected to contain in order the setup time
+	 *        native setup time and lastly the canonization
+	 *        time. All times are expected to be in nanoseconds.
+	 *        A canonization time of {@link Algorithm#TIME_LIMIT_EXCEEDED}
+	 *        indicates that the time limit was exceeded and a canonization
+	 *        time of {@link Algorithm#CANONIZATION_SKIPPED} indicates that
+	 *        canonization was skipped by the invariant filter.
+	 * @param total The total number of nanoseconds spent executing
+	 *        the algorithm and all associated transforms.
+	 * @param cpu The number of nanoseconds the thread executing the
+	 *        algorithm spent running on a CPU, or -1 if unknown.
+	 */
+	protected RuntimeReport(Algorithm algo, Graph<Vertex, Predicate> graph, long[] times, long total, long cpu){
+		this(algo, graph, times, total, cpu, null);
+	}
+	
+	/**
+	 * Constructs a new runtime report for the given algorithm
+	 * with the given runtime information and search statistics.
+	 * @param algo The algorithm that was execute.
+	 * @param graph The input graph the algorithm was executed on.
+	 * @param times An array with runtimes, the array is
+	 *        expected to contain in order the setup time
+	 *        native setup time and lastly the canonization
+	 *        time. All times are expected to be in nanoseconds.
+	 *        A canonization time of {@link Algorithm#TIME_LIMIT_EXCEEDED}
+	 *        indicates that the time limit was exceeded and a canonization
+	 *        time of {@link Algorithm#CANONIZATION_SKIPPED} indicates that
+	 *        canonization was skipped by the invariant filter.
+	 * @param total The total number of nanoseconds spent executing
+	 *        the algorithm and all associated transforms.
+	 * @param cpu The number of nanoseconds the thread executing the
+	 *        algorithm spent running on a CPU, or -1 if unknown.
+	 * @param search The search statistics reported by the algorithm,
+	 *        or <code>null</code> if not reported.
+	 * @see Algorithm#setSearchStatistics(SearchStatistics)
+	 */
+	protected RuntimeReport(Algorithm algo, Graph<Vertex, Predicate> graph, long[] times, long total, long cpu, SearchStatistics search){
+		this(algo, graph, times, total, cpu, search, null);
+	}
+	
+	/**
+	 * Constructs a new runtime report for the given algorithm
+	 * with the given runtime information, search statistics and
+	 * hardware counters.
+	 * @param algo The algorithm that was execute.
+	 * @param graph The input graph the algorithm was executed on.
+	 * @param times An array with runtimes, the array is
+	 *        expected to contain in order the setup time
+	 *        native setup time and lastly the canonization
+	 *        time. All times are expected to be in nanoseconds.
+	 *        A canonization time of {@link Algorithm#TIME_LIMIT_EXCEEDED}
+	 *        indicates that the time limit was exceeded, a canonization
+	 *        time of {@link Algorithm#CANONIZATION_SKIPPED} indicates that
+	 *        canonization was skipped by the invariant filter and a canonization
+	 *        time of {@link Algorithm#WORKER_CRASHED} indicates that the worker
+	 *        process canonizing the graph crashed.
+	 * @param total The total number of nanoseconds spent executing
+	 *        the algorithm and all associated transforms.
+	 * @param cpu The number of nanoseconds the thread executing the
+	 *        algorithm spent running on a CPU, or -1 if unknown.
+	 * @param search The search statistics reported by the algorithm,
+	 *        or <code>null</code> if not reported.
+	 * @param counters The hardware counters reported by the algorithm,
+	 *        or <code>null</code> if not reported.
+	 * @see Algorithm#setSearchStatistics(SearchStatistics)
+	 * @see Algorithm#setHardwareCounters(HardwareCounters)
+	 */
+	protected RuntimeReport(Algorithm algo, Graph<Vertex, Predicate> graph, long[] times, long total, long cpu, SearchStatistics search, HardwareCounters counters){
 		this.algo = algo;
+		this.search = search;
+		this.counters = counters;
+		nodes = graph.getNodeCount();
+		edges = graph.getEdgeCount();
 		setupTime = times[0];
 		nativeSetupTime = times[1];
 		canonTime = times[2];
 		totalTime = total;
+		cpuTime = cpu;
+		
+		if(canonTime == Algorithm.TIME_LIMIT_EXCEEDED){
+			//all remaining time, a lower bound on the actual canonization time
+			timeLimitExceeded = true;
+			canonTime = Math.max(0, totalTime - setupTime - nativeSetupTime);
+		}else if(canonTime == Algorithm.CANONIZATION_SKIPPED){
+			filtered = true;
+			canonTime = 0;
+		}else if(canonTime == Algorithm.WORKER_CRASHED){
+			//all remaining time, the time until the crash was detected
+			crashed = true;
+			canonTime = Math.max(0, totalTime - setupTime - nativeSetupTime);
+		}
+	}
+	
+	/**
+	 * Constructs a new runtime report for the given algorithm with the given
+	 * runtime information, as previously read from a different report.
+	 * @param algo The algorithm that was executed.
+	 * @param nodes The number of nodes in the input graph.
+	 * @param edges The number of edges in the input graph.
+	 * @param times An array with runtimes, the array is expected to
+	 *        contain in order the setup time native setup time and lastly
+	 *        the canonization time. All times are expected to be in nanoseconds.
+	 * @param total The total number of nanoseconds spent executing
+	 *        the algorithm and all associated transforms.
+	 * @param offCpu The number of nanoseconds the thread executing
+	 *        the algorithm was not running on a CPU.
+	 * @param timeLimitExceeded True if the time limit was exceeded.
+	 * @param filtered True if canonization was skipped by the invariant filter.
+	 * @param crashed True if the worker process canonizing the graph crashed.
+	 * @param search The search statistics reported by the algorithm,
+	 *        or <code>null</code> if not reported.
+	 * @param counters The hardware counters reported by the algorithm,
+	 *        or <code>null</code> if not reported.
+	 * @see ResultWriter#read(java.nio.file.Path, ResultWriter.Format, Algorithm)
+	 */
+	protected RuntimeReport(Algorithm algo, int nodes, int edges, long[] times, long total, long offCpu, boolean timeLimitExceeded, boolean filtered, boolean crashed, SearchStatistics search, HardwareCounters counters){
+		this.algo = algo;
+		this.search = search;
+		this.counters = counters;
+		this.nodes = nodes;
+		this.edges = edges;
+		setupTime = times[0];
+		nativeSetupTime = times[1];
+		canonTime = times[2];
+		totalTime = total;
+		cpuTime = total - offCpu;
+		this.timeLimitExceeded = timeLimitExceeded;
+		this.filtered = filtered;
+		this.crashed = crashed;
 	}
 	
 	/**
@@ -103,6 +282,98 @@ public class RuntimeReport{
 		return Math.max(0, totalTime - setupTime - nativeSetupTime - canonTime);
 	}
 	
+	/**
+	 * Gets the time the thread executing the algorithm was not running on
+	 * a CPU. This is time spent waiting on other processes (such as Python)
+	 * or time the thread was descheduled. When multiple graphs are evaluated
+	 * in parallel an increase in this time indicates contention between the
+	 * worker threads, which means the other measured times are less reliable.
+	 * @return The off-CPU time for this algorithm run in nanoseconds, this is
+	 *         zero if CPU time measurement is not supported.
+	 */
+	public long getOffCpuTime(){
+		//possibly negative due to timer variance
+		return cpuTime == -1L ? 0L : Math.max(0, totalTime - cpuTime);
+	}
+	
+	/**
+	 * Checks if canonization was aborted because the time limit for the
+	 * input graph was exceeded. If so, the canonization time of this report
+	 * is a lower bound on the time the algorithm would have needed (a censored
+	 * sample) and no canonical form was computed.
+	 * @return True if the time limit for the input graph was exceeded.
+	 * @see Algorithm#time(dev.roanh.gmark.util.Graph, long)
+	 */
+	public boolean isTimeLimitExceeded(){
+		return timeLimitExceeded;
+	}
+	
+	/**
+	 * Checks if canonization was skipped because the invariant filter showed
+	 * the input graph to be distinct from all other graphs in the data set.
+	 * If so, the setup time of this report includes the time spent computing
+	 * the invariant and no canonical form was computed.
+	 * @return True if canonization was skipped for the input graph.
+	 * @see InvariantFilter
+	 */
+	public boolean isFiltered(){
+		return filtered;
+	}
+	
+	/**
+	 * Checks if canonization failed because the worker process canonizing
+	 * the input graph crashed. If so, the canonization time of this report
+	 * is the time until the crash was detected and no canonical form was
+	 * computed.
+	 * @return True if the worker process crashed on the input graph.
+	 * @see NativeWorker
+	 */
+	public boolean isWorkerCrashed(){
+		return crashed;
+	}
+	
+	/**
+	 * Gets the statistics about the search tree explored by the algorithm
+	 * and the automorphism group of the input graph. Only algorithms that
+	 * explore a search tree report these statistics and they are not
+	 * recorded for graphs that were canonized as part of a batch.
+	 * @return The search statistics for this algorithm run, or
+	 *         <code>null</code> if not reported by the algorithm.
+	 * @see Algorithm#setSearchStatistics(SearchStatistics)
+	 */
+	public SearchStatistics getSearchStatistics(){
+		return search;
+	}
+	
+	/**
+	 * Gets the hardware counters read around the canonization of the
+	 * input graph. These counters are only read when explicitly enabled
+	 * for a native binding and are not recorded for graphs that were
+	 * canonized as part of a batch.
+	 * @return The hardware counters for this algorithm run, or
+	 *         <code>null</code> if not reported by the algorithm.
+	 * @see Algorithm#setHardwareCounters(HardwareCounters)
+	 */
+	public HardwareCounters getHardwareCounters(){
+		return counters;
+	}
+	
+	/**
+	 * Gets the number of nodes in the input graph.
+	 * @return The number of nodes in the input graph.
+	 */
+	public int getNodeCount(){
+		return nodes;
+	}
+	
+	/**
+	 * Gets the number of edges in the input graph.
+	 * @return The number of edges in the input graph.
+	 */
+	public int getEdgeCount(){
+		return edges;
+	}
+	
 	/**
 	 * Gets the algorithm that was executed to generate this report.
 	 * @return The algorithm for this report.
@@ -130,6 +401,28 @@ public class RuntimeReport{
 		out.println("Canonization: " + formatNanos(canonTime));
 		out.println("Other: " + formatNanos(getOtherTime()));
 		out.println("Total: " + formatNanos(totalTime));
+		out.println("Off-CPU: " + formatNanos(getOffCpuTime()));
+		if(search != null){
+			out.println("Search nodes: " + search.getSearchNodes());
+			out.println("Generators: " + search.getGenerators());
+			out.println("Max level: " + search.getMaxLevel());
+			out.println("Group size: 10^" + String.format(Locale.ROOT, "%.2f", search.getGroupSizeLog10()));
+		}
+		if(counters != null){
+			out.println("Cycles: " + formatCounter(counters.getCycles()));
+			out.println("Instructions: " + formatCounter(counters.getInstructions()));
+			out.println("LLC misses: " + formatCounter(counters.getCacheMisses()));
+			out.println("Branch misses: " + formatCounter(counters.getBranchMisses()));
+		}
+		if(timeLimitExceeded){
+			out.println("Time limit exceeded");
+		}
+		if(filtered){
+			out.println("Canonization skipped by invariant filter");
+		}
+		if(crashed){
+			out.println("Worker process crashed");
+		}
 		out.println("====================================");
 	}
 	
@@ -158,6 +451,17 @@ public class RuntimeReport{
 		out.println(String.valueOf(totalTime));
 	}
 	
+	/**
+	 * Formats the given hardware counter value.
+	 * @param value The counter value to format.
+	 * @return The formatted counter value, or 'unavailable'
+	 *         if the counter could not be read.
+	 * @see HardwareCounters#UNAVAILABLE
+	 */
+	private static final String formatCounter(long value){
+		return value == HardwareCounters.UNAVAILABLE ? "unavailable" : String.valueOf(value);
+	}
+	
 	/**
 	 * Formats the given number of nanoseconds as a string breaking
 	 * the time up into units of increasing magnitude as required.
@@ -0,0 +1,128 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys;
+
+/**
+ * Statistics about the search tree explored by a canonization algorithm
+ * for a single graph and about the automorphism group of the graph. These
+ * statistics help explain why canonizing a particular graph is slow, since
+ * canonization time is mostly determined by the size of the search tree.
+ * Algorithms report these statistics using {@link Algorithm#setSearchStatistics(SearchStatistics)}.
+ * @author Roan
+ * @see RuntimeReport#getSearchStatistics()
+ */
+public class SearchStatistics{
+	/**
+	 * The number of elements native code appends to its result
+	 * array to report search statistics. These are in order the
+	 * raw bits of the (double) mantissa and the base 10 exponent
+	 * of the size of the automorphism group, the number of nodes
+	 * in the search tree, the number of generators found for the
+	 * automorphism group and the maximum level of the search tree.
+	 * @see #fromNative(long[], int)
+	 */
+	public static final int NATIVE_LENGTH = 5;
+	/**
+	 * Base 10 logarithm of the size of the automorphism group of the graph.
+	 */
+	private final double groupSize;
+	/**
+	 * The number of nodes in the search tree.
+	 */
+	private final long nodes;
+	/**
+	 * The number of generators found for the automorphism group.
+	 */
+	private final long generators;
+	/**
+	 * The maximum level reached in the search tree.
+	 */
+	private final int maxLevel;
+	
+	/**
+	 * Constructs new search statistics.
+	 * @param groupSize The base 10 logarithm of the size of
+	 *        the automorphism group of the graph.
+	 * @param nodes The number of nodes in the search tree.
+	 * @param generators The number of generators found
+	 *        for the automorphism group.
+	 * @param maxLevel The maximum level reached in the search tree.
+	 */
+	public SearchStatistics(double groupSize, long nodes, long generators, int maxLevel){
+		this.groupSize = groupSize;
+		this.nodes = nodes;
+		this.generators = generators;
+		this.maxLevel = maxLevel;
+	}
+	
+	/**
+	 * Gets the base 10 logarithm of the size of the automorphism group of
+	 * the graph. The logarithm is used since group sizes of CPQ graphs can
+	 * easily exceed the range of a double.
+	 * @return The base 10 logarithm of the automorphism group size.
+	 */
+	public double getGroupSizeLog10(){
+		return groupSize;
+	}
+	
+	/**
+	 * Gets the number of nodes in the search tree.
+	 * @return The number of search tree nodes.
+	 */
+	public long getSearchNodes(){
+		return nodes;
+	}
+	
+	/**
+	 * Gets the number of generators found for the automorphism group.
+	 * @return The number of automorphism group generators.
+	 */
+	public long getGenerators(){
+		return generators;
+	}
+	
+	/**
+	 * Gets the maximum level reached in the search tree.
+	 * @return The maximum search tree level.
+	 */
+	public int getMaxLevel(){
+		return maxLevel;
+	}
+	
+	/**
+	 * Reads the search statistics appended by native code to its result array.
+	 * @param results The result array returned by native code.
+	 * @param offset The index of the first search statistics element.
+	 * @return The read search statistics, or <code>null</code> if the given
+	 *         result array does not contain search statistics.
+	 * @see #NATIVE_LENGTH
+	 */
+	public static SearchStatistics fromNative(long[] results, int offset){
+		if(results.length < offset + NATIVE_LENGTH){
+			return null;
+		}
+		
+		return new SearchStatistics(
+			Math.log10(Double.longBitsToDouble(results[offset])) + results[offset + 1],
+			results[offset + 2],
+			results[offset + 3],
+			(int)results[offset + 4]
+		);
+	}
+}
@@ -18,16 +18,19 @@
  */
 package dev.roanh.cpqkeys.algo;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.IntBuffer;
+import java.util.List;
 
 import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.cpqkeys.GraphBatch;
+import dev.roanh.cpqkeys.HardwareCounters;
+import dev.roanh.cpqkeys.NativeWorker;
+import dev.roanh.cpqkeys.SearchStatistics;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
-import dev.roanh.gmark.util.DataProxy;
 import dev.roanh.gmark.util.Graph;
-import dev.roanh.gmark.util.Graph.GraphEdge;
-import dev.roanh.gmark.util.Graph.GraphNode;
 import dev.roanh.gmark.util.Util;
 
 /**
@@ -39,46 +42,32 @@ public class Bliss{
 	/**
 	 * Algorithm binding for bliss.
 	 */
-	public static final Algorithm INSTANCE = new Algorithm("Bliss", Bliss::computeCanon);
+	public static final Algorithm INSTANCE = new Algorithm("Bliss", Bliss::computeCanon, Bliss::computeCanonBatch, true);
+	/**
+	 * Algorithm binding for bliss running in separate worker processes.
+	 */
+	public static final Algorithm ISOLATED = NativeWorker.isolate(Bliss.class, "Bliss (isolated)", Bliss::toCsrGraph, (graph, key)->computeCanon(graph.getBuffer(), key, Algorithm.getTimeLimit()));
 	
 	/**
-	 * Runs Bliss on the given input graph. The input graph first
-	 * has its edge labels converted to nodes, and is then converted
-	 * to a coloured graph.
+	 * Runs Bliss on the given input graph. The input graph is
+	 * first transformed using {@link #toCsrGraph(Graph)}.
 	 * @param input The input graph.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
 	 * @return An array of time measurements containing in the first
 	 *         index the graph transform time, in the second index the
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 */
-	private static long[] computeCanon(Graph<Vertex, Predicate> input){
+	private static long[] computeCanon(Graph<Vertex, Predicate> input, CanonicalForm key){
 		long start = System.nanoTime();
-		Graph<Object, Void> graph = Util.edgeLabelsToNodes(input);
-
-		//map edges
-		int[] edges = new int[graph.getEdgeCount() * 2];
-		int idx = 0;
-		for(GraphEdge<Object, Void> edge : graph.getEdges()){
-			edges[idx * 2] = edge.getSourceNode().getID();
-			edges[idx * 2 + 1] = edge.getTargetNode().getID();
-		}
-		
-		//map colours
-		Map<Object, Integer> colorCache = new HashMap<Object, Integer>();
-		int[] colors = new int[graph.getNodeCount()];
-		for(GraphNode<Object, Void> node : graph.getNodes()){
-			Object data = node.getData();
-			if(data instanceof DataProxy){
-				data = ((DataProxy<?>)data).getData();
-				colors[node.getID()] = colorCache.computeIfAbsent(data, obj->colorCache.size() + 1);
-			}else{
-				colors[node.getID()] = 0;
-			}
-		}
-		
+		CsrGraph graph = toCsrGraph(input);
+		int[] buffer = graph.prepareKey(key);
 		long end = System.nanoTime();
 		
-		long[] times = computeCanon(edges, colors);
+		long[] times = computeCanon(graph.getBuffer(), buffer, Algorithm.getTimeLimit());
+		Algorithm.setSearchStatistics(SearchStatistics.fromNative(times, 3));
+		Algorithm.setHardwareCounters(HardwareCounters.fromNative(times, 3 + SearchStatistics.NATIVE_LENGTH));
+		Nauty.finishKey(key, times);
 		return new long[]{
 			end - start,
 			times[0],
@@ -86,18 +75,78 @@ public class Bliss{
 		};
 	}
 	
+	/**
+	 * Runs Bliss on all the given input graphs in a single native call. The input
+	 * graphs first have their edge labels converted to nodes and are then converted
+	 * to coloured graphs.
+	 * @param input The input graphs.
+	 * @param keys The buffers to write the canonical forms to or <code>null</code>.
+	 * @return An array of time measurements containing for every graph the graph
+	 *         transform time, native setup time and canonization time in nanoseconds.
+	 */
+	private static long[] computeCanonBatch(List<Graph<Vertex, Predicate>> input, CanonicalForm[] keys){
+		GraphBatch batch = GraphBatch.pack(input, Bliss::toCsrGraph);
+		computeCanonBatch(batch.getData(), batch.getIndex(), batch.getGraphCount(), keys == null ? null : batch.getKeyBuffer(), batch.getResultBuffer(), Algorithm.getTimeLimit());
+		if(keys != null){
+			batch.readKeys(keys);
+		}
+		return batch.getTimes();
+	}
+	
+	/**
+	 * Transforms the given input graph to the coloured CSR graph used as input
+	 * for Bliss. The input graph has its edge labels converted to nodes.
+	 * @param input The input graph.
+	 * @return The transformed graph, this is the reusable CSR graph of the calling thread.
+	 * @see CsrGraph#local()
+	 * @see CsrGraph#loadLabelled(Graph)
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 */
+	private static CsrGraph toCsrGraph(Graph<Vertex, Predicate> input){
+		return CsrGraph.local().loadLabelled(input);
+	}
+	
 	/**
 	 * Computes the canonical labelling of the given coloured graph. Returns
 	 * the time in milliseconds required for computations.
-	 * @param edges The input graph as a list of edges with two consecutive
-	 *        indices representing the ID of the source and target vertex
-	 *        of an edge respectively.
-	 * @param colors An array with as length the number of vertices in the
-	 *        graph and at each index for the vertex with the same ID as the
-	 *        index its color (as an integer).
-	 * @return An array with two elements, first the time in nanoseconds it
-	 *         took to construct the graph and second the time in nanoseconds
-	 *         it took to compute the canonical form of the graph.
+	 * @param graph Direct buffer with the input graph record.
+	 * @param key The buffer to write the canonical form of the graph to or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer, then
+	 *         the search statistics of the graph and lastly the hardware counters.
+	 * @see CsrGraph
+	 * @see CanonicalForm
+	 * @see SearchStatistics#fromNative(long[], int)
+	 * @see HardwareCounters#fromNative(long[], int)
+	 */
+	private static native long[] computeCanon(IntBuffer graph, int[] key, long timeout);
+	
+	/**
+	 * Computes the canonical labelling of all the coloured graphs in the given batch.
+	 * @param data The packed graph records of the batch.
+	 * @param index The start of the record of every graph in the batch.
+	 * @param count The number of graphs in the batch.
+	 * @param keys The buffer to write the canonical forms of all graphs to
+	 *        or <code>null</code> if the canonical forms are not required.
+	 * @param results The buffer to write for every graph the native setup time,
+	 *        canonization time and length of its canonical form to.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form of every graph.
+	 * @see GraphBatch
+	 */
+	private static native void computeCanonBatch(int[] data, int[] index, int count, int[] keys, long[] results, long timeout);
+	
+	/**
+	 * Enables or disables reading hardware counters around the canonization
+	 * of every graph by Bliss, this is disabled by default. Graphs that are
+	 * canonized as part of a batch never read hardware counters. The setting
+	 * applies to the current process, so when running in isolated mode the
+	 * setting has to be made in every worker process.
+	 * @param enabled True to enable reading hardware counters.
+	 * @see HardwareCounters
 	 */
-	private static native long[] computeCanon(int[] edges, int[] colors);
+	public static native void setHardwareCounters(boolean enabled);
 }
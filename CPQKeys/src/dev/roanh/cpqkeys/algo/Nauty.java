@@ -18,12 +18,16 @@
  */
 package dev.roanh.cpqkeys.algo;
 
+import java.nio.IntBuffer;
 import java.util.List;
-import java.util.function.BiFunction;
 
 import dev.roanh.cpqkeys.Algorithm;
-import dev.roanh.cpqkeys.GraphUtil;
-import dev.roanh.cpqkeys.GraphUtil.ColoredGraph;
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.cpqkeys.GraphBatch;
+import dev.roanh.cpqkeys.HardwareCounters;
+import dev.roanh.cpqkeys.NativeWorker;
+import dev.roanh.cpqkeys.SearchStatistics;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.Graph;
@@ -35,33 +39,66 @@ import dev.roanh.gmark.util.Util;
  * @see <a href="https://pallini.di.uniroma1.it/">Nauty website</a>
  */
 public class Nauty{
+	/**
+	 * The maximum number of vertices of the transformed graph for which
+	 * {@link #AUTO} runs the dense version of nauty. This threshold was
+	 * calibrated with the NautyDensityBenchmark on the rule sweep used by
+	 * the evaluation. The dense version was only faster for graphs with at
+	 * most 4 vertices. From 5 vertices on the sparse version was as fast or
+	 * faster, with the gap growing to about a factor of two at 30 vertices. This
+	 * is because the dense version always allocates and scans
+	 * n * SETWORDSNEEDED(n) words. Edge density did not predict the faster
+	 * version, since the transformed CPQ graphs all have less than two edges
+	 * per vertex.
+	 */
+	public static final int DENSE_MAX_NODES = 4;
 	/**
 	 * Algorithm binding for the dense version of nauty.
 	 */
-	public static final Algorithm DENSE = new Algorithm("Nauty (dense)", g->runNauty(g, Nauty::computeCanonDense));
+	public static final Algorithm DENSE = new Algorithm("Nauty (dense)", (g, key)->runNauty(g, key, Nauty::computeCanonDense), (g, keys)->runNautyBatch(g, keys, Nauty::computeCanonDenseBatch), true);
 	/**
 	 * Algorithm binding for the sparse version of nauty.
 	 */
-	public static final Algorithm SPARSE = new Algorithm("Nauty (sparse)", g->runNauty(g, Nauty::computeCanonSparse));
+	public static final Algorithm SPARSE = new Algorithm("Nauty (sparse)", (g, key)->runNauty(g, key, Nauty::computeCanonSparse), (g, keys)->runNautyBatch(g, keys, Nauty::computeCanonSparseBatch), true);
+	/**
+	 * Algorithm binding for nauty that runs either the dense or the sparse version
+	 * of nauty for every graph depending on the size of the graph.
+	 * @see #isDense(int)
+	 */
+	public static final Algorithm AUTO = new Algorithm("Nauty (auto)", (g, key)->runNauty(g, key, Nauty::computeCanonAuto), Nauty::runNautyAutoBatch, true);
+	/**
+	 * Algorithm binding for the dense version of nauty running in separate worker processes.
+	 */
+	public static final Algorithm DENSE_ISOLATED = NativeWorker.isolate(Nauty.class, "Nauty (dense, isolated)", Nauty::toCsrGraph, (graph, key)->run(graph, key, Nauty::computeCanonDense));
+	/**
+	 * Algorithm binding for the sparse version of nauty running in separate worker processes.
+	 */
+	public static final Algorithm SPARSE_ISOLATED = NativeWorker.isolate(Nauty.class, "Nauty (sparse, isolated)", Nauty::toCsrGraph, (graph, key)->run(graph, key, Nauty::computeCanonSparse));
+	/**
+	 * Algorithm binding for the automatically selected version of nauty running in separate worker processes.
+	 */
+	public static final Algorithm AUTO_ISOLATED = NativeWorker.isolate(Nauty.class, "Nauty (auto, isolated)", Nauty::toCsrGraph, (graph, key)->run(graph, key, Nauty::computeCanonAuto));
 	
 	/**
 	 * Runs either the dense or sparse version of nauty on the given
 	 * input graph. The input graph first has its edge labels converted
-	 * to nodes, and is then converted to a coloured graph.
+	 * to nodes, and is then converted to a coloured CSR graph.
 	 * @param input The input graph.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
 	 * @param version The version of nauty to run, either the dense or sparse version.
 	 * @return An array of time measurements containing in the first
 	 *         index the graph transform time, in the second index the
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 */
-	private static long[] runNauty(Graph<Vertex, Predicate> input, BiFunction<int[][], int[], long[]> version){
+	private static long[] runNauty(Graph<Vertex, Predicate> input, CanonicalForm key, NativeCanonizer version){
 		long start = System.nanoTime();
-		ColoredGraph graph = GraphUtil.toColoredGraph(Util.edgeLabelsToNodes(input));
-		int[] colors = prepareColors(graph);
+		CsrGraph graph = toCsrGraph(input);
+		int[] buffer = graph.prepareKey(key);
 		long end = System.nanoTime();
 		
-		long[] times = version.apply(graph.getAdjacencyList(), colors);
+		long[] times = run(graph, buffer, version);
+		finishKey(key, times);
 		return new long[]{
 			end - start,
 			times[0],
@@ -70,55 +107,312 @@ public class Nauty{
 	}
 	
 	/**
-	 * Computes a nauty and traces compatible array of color data. The
-	 * returned array will have consecutive sections of nodes with the
-	 * same color. The node is indicated with a number one higher than
-	 * the ID of the actual it corresponds to. Negated number indicate
-	 * the end of a range of nodes with the same color.
-	 * @param graph The coloured graph to compute color data from.
-	 * @return The constructed colour data.
-	 */
-	protected static int[] prepareColors(ColoredGraph graph){
-		int[] colors = new int[graph.getNodeCount()];
-		int idx = 0;
-		for(List<Integer> group : graph.getColorMap()){
-			for(int i = 0; i < group.size() - 1; i++){
-				colors[idx++] = group.get(i) + 1;
+	 * Runs either the dense or sparse version of nauty on all the given
+	 * input graphs in a single native call. The input graphs are transformed
+	 * in the same way as for {@link #runNauty(Graph, CanonicalForm, NativeCanonizer)}.
+	 * @param input The input graphs.
+	 * @param keys The buffers to write the canonical forms to or <code>null</code>.
+	 * @param version The version of nauty to run, either the dense or sparse version.
+	 * @return An array of time measurements containing for every graph the graph
+	 *         transform time, native setup time and canonization time in nanoseconds.
+	 */
+	private static long[] runNautyBatch(List<Graph<Vertex, Predicate>> input, CanonicalForm[] keys, NativeBatchCanonizer version){
+		return runBatch(GraphBatch.pack(input, Nauty::toCsrGraph), keys, version);
+	}
+	
+	/**
+	 * Runs the automatically selected version of nauty on all the given input graphs.
+	 * The batch is split into the graphs to run the dense version of nauty on and the
+	 * graphs to run the sparse version of nauty on. Each part is then canonized in a
+	 * single native call. The input graphs are transformed in the same way as for
+	 * {@link #runNauty(Graph, CanonicalForm, NativeCanonizer)}.
+	 * @param input The input graphs.
+	 * @param keys The buffers to write the canonical forms to or <code>null</code>.
+	 * @return An array of time measurements containing for every graph the graph
+	 *         transform time, native setup time and canonization time in nanoseconds.
+	 * @see #isDense(int)
+	 */
+	private static long[] runNautyAutoBatch(List<Graph<Vertex, Predicate>> input, CanonicalForm[] keys){
+		boolean[] dense = new boolean[input.size()];
+		GraphBatch denseBatch = new GraphBatch(input.size());
+		GraphBatch sparseBatch = new GraphBatch(input.size());
+		CanonicalForm[] denseKeys = keys == null ? null : new CanonicalForm[input.size()];
+		CanonicalForm[] sparseKeys = keys == null ? null : new CanonicalForm[input.size()];
+		for(int i = 0; i < dense.length; i++){
+			long start = System.nanoTime();
+			CsrGraph graph = toCsrGraph(input.get(i));
+			dense[i] = isDense(graph.getNodeCount());
+			GraphBatch batch = dense[i] ? denseBatch : sparseBatch;
+			if(keys != null){
+				(dense[i] ? denseKeys : sparseKeys)[batch.getGraphCount()] = keys[i];
 			}
-			colors[idx++] = -group.get(group.size() - 1) - 1;
+			batch.add(graph, System.nanoTime() - start);
+		}
+		
+		long[] denseTimes = denseBatch.getGraphCount() == 0 ? null : runBatch(denseBatch, denseKeys, Nauty::computeCanonDenseBatch);
+		long[] sparseTimes = sparseBatch.getGraphCount() == 0 ? null : runBatch(sparseBatch, sparseKeys, Nauty::computeCanonSparseBatch);
+		
+		long[] times = new long[dense.length * 3];
+		int denseIdx = 0;
+		int sparseIdx = 0;
+		for(int i = 0; i < dense.length; i++){
+			if(dense[i]){
+				System.arraycopy(denseTimes, denseIdx * 3, times, i * 3, 3);
+				denseIdx++;
+			}else{
+				System.arraycopy(sparseTimes, sparseIdx * 3, times, i * 3, 3);
+				sparseIdx++;
+			}
+		}
+		return times;
+	}
+	
+	/**
+	 * Tests if the automatically selected version of nauty should run the
+	 * dense version of nauty for a transformed graph with the given number
+	 * of vertices. Since this only depends on the number of vertices,
+	 * isomorphic graphs always run the same version of nauty, so the
+	 * canonical forms computed by {@link #AUTO} are still comparable.
+	 * @param n The number of vertices in the transformed graph.
+	 * @return True if the dense version of nauty should be used.
+	 * @see #DENSE_MAX_NODES
+	 */
+	public static boolean isDense(int n){
+		return n <= DENSE_MAX_NODES;
+	}
+	
+	/**
+	 * Enables or disables reading hardware counters around the canonization
+	 * of every graph by nauty and Traces, this is disabled by default. Graphs
+	 * that are canonized as part of a batch never read hardware counters.
+	 * The setting applies to the current process, so when running in isolated
+	 * mode the setting has to be made in every worker process.
+	 * @param enabled True to enable reading hardware counters.
+	 * @see HardwareCounters
+	 * @see Traces
+	 */
+	public static void setHardwareCounters(boolean enabled){
+		NautyWorkspace.setHardwareCounters(enabled);
+	}
+	
+	/**
+	 * Transforms the given input graph to the coloured CSR graph used as input
+	 * for nauty. The input graph has its edge labels converted to nodes.
+	 * @param input The input graph.
+	 * @return The transformed graph, this is the reusable CSR graph of the calling thread.
+	 * @see CsrGraph#local()
+	 * @see CsrGraph#loadLabelled(Graph)
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 */
+	private static CsrGraph toCsrGraph(Graph<Vertex, Predicate> input){
+		return CsrGraph.local().loadLabelled(input);
+	}
+	
+	/**
+	 * Runs the given native entry point on the given graph using a nauty
+	 * workspace. Canonization is limited to the time limit of the calling
+	 * thread and the search statistics reported by the native code are
+	 * reported for the calling thread.
+	 * @param graph The graph to canonize.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
+	 * @param version The native entry point to call.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer, then
+	 *         the search statistics of the graph and lastly the hardware counters.
+	 * @see Algorithm#getTimeLimit()
+	 * @see Algorithm#setSearchStatistics(SearchStatistics)
+	 * @see Algorithm#setHardwareCounters(HardwareCounters)
+	 */
+	protected static long[] run(CsrGraph graph, int[] key, NativeCanonizer version){
+		long[] results;
+		NautyWorkspace workspace = NautyWorkspace.acquire();
+		try{
+			results = version.computeCanon(workspace.getHandle(), graph.getBuffer(), key, Algorithm.getTimeLimit());
+		}finally{
+			workspace.release();
+		}
+		
+		Algorithm.setSearchStatistics(SearchStatistics.fromNative(results, 3));
+		Algorithm.setHardwareCounters(HardwareCounters.fromNative(results, 3 + SearchStatistics.NATIVE_LENGTH));
+		return results;
+	}
+	
+	/**
+	 * Runs the given native batch entry point on the given batch of graphs
+	 * using a nauty workspace and copies the computed canonical forms. The
+	 * time limit of the calling thread applies to every graph separately.
+	 * @param batch The batch of graphs to canonize.
+	 * @param keys The buffers to write the canonical forms to or <code>null</code>.
+	 * @param version The native batch entry point to call.
+	 * @return An array of time measurements containing for every graph the graph
+	 *         transform time, native setup time and canonization time in nanoseconds.
+	 */
+	protected static long[] runBatch(GraphBatch batch, CanonicalForm[] keys, NativeBatchCanonizer version){
+		NautyWorkspace workspace = NautyWorkspace.acquire();
+		try{
+			version.computeCanon(workspace.getHandle(), batch.getData(), batch.getIndex(), batch.getGraphCount(), keys == null ? null : batch.getKeyBuffer(), batch.getResultBuffer(), Algorithm.getTimeLimit());
+		}finally{
+			workspace.release();
+		}
+		
+		if(keys != null){
+			batch.readKeys(keys);
+		}
+		return batch.getTimes();
+	}
+	
+	/**
+	 * Finalises the given canonical form after it was written to by
+	 * native code. The native code reports the number of integers it
+	 * wrote as the third element of its result array.
+	 * @param key The canonical form that was written to, possibly <code>null</code>.
+	 * @param times The result array returned by the native code.
+	 */
+	protected static void finishKey(CanonicalForm key, long[] times){
+		if(key != null){
+			key.setLength((int)times[2]);
+		}
+	}
+	
+	/**
+	 * Computes the canonical form of the given coloured graph using either
+	 * the dense or sparse version of nauty, depending on the size of the graph.
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param graph Direct buffer with the input graph record.
+	 * @param key The buffer to write the canonical form of the graph to or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer, then
+	 *         the search statistics of the graph and lastly the hardware counters.
+	 * @see #isDense(int)
+	 * @see CsrGraph
+	 */
+	private static long[] computeCanonAuto(long workspace, IntBuffer graph, int[] key, long timeout){
+		if(isDense(graph.get(0))){
+			return computeCanonDense(workspace, graph, key, timeout);
+		}else{
+			return computeCanonSparse(workspace, graph, key, timeout);
 		}
-		return colors;
 	}
 	
 	/**
 	 * Computes the canonical form of the given coloured graph using the sparse
 	 * version of nauty. Returns the time in nanoseconds required for computations.
-	 * @param adj The input graph in adjacency list format, <code>n</code>
-	 *        arrays with each the indices of the neighbours of the <code>
-	 *        n</code>-th vertex.
-	 * @param colors The array containing raw color information data. Contains vertex
-	 *        indices in blocks of the same color with the start of a block of the same
-	 *        color being indicated by a negated value. All vertex indices are also always
-	 *        one higher than their actual index in the graph.
-	 * @return An array with two elements, first the time in nanoseconds it
-	 *         took to construct the graph and second the time in nanoseconds
-	 *         it took to compute the canonical form of the graph.
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param graph Direct buffer with the input graph record.
+	 * @param key The buffer to write the canonical form of the graph to or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer, then
+	 *         the search statistics of the graph and lastly the hardware counters.
+	 * @see CsrGraph
+	 * @see CanonicalForm
+	 * @see SearchStatistics#fromNative(long[], int)
+	 * @see HardwareCounters#fromNative(long[], int)
 	 */
-	private static native long[] computeCanonSparse(int[][] adj, int[] colors);
+	private static native long[] computeCanonSparse(long workspace, IntBuffer graph, int[] key, long timeout);
 	
 	/**
 	 * Computes the canonical form of the given coloured graph using the dense
 	 * version of nauty. Returns the time in nanoseconds required for computations.
-	 * @param adj The input graph in adjacency list format, <code>n</code>
-	 *        arrays with each the indices of the neighbours of the <code>
-	 *        n</code>-th vertex.
-	 * @param colors The array containing raw color information data. Contains vertex
-	 *        indices in blocks of the same color with the start of a block of the same
-	 *        color being indicated by a negated value. All vertex indices are also always
-	 *        one higher than their actual index in the graph.
-	 * @return An array with two elements, first the time in nanoseconds it
-	 *         took to construct the graph and second the time in nanoseconds
-	 *         it took to compute the canonical form of the graph.
-	 */
-	private static native long[] computeCanonDense(int[][] adj, int[] colors);
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param graph Direct buffer with the input graph record.
+	 * @param key The buffer to write the canonical form of the graph to or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer, then
+	 *         the search statistics of the graph and lastly the hardware counters.
+	 * @see CsrGraph
+	 * @see CanonicalForm
+	 * @see SearchStatistics#fromNative(long[], int)
+	 * @see HardwareCounters#fromNative(long[], int)
+	 */
+	private static native long[] computeCanonDense(long workspace, IntBuffer graph, int[] key, long timeout);
+	
+	/**
+	 * Computes the canonical form of all the coloured graphs in the given
+	 * batch using the sparse version of nauty.
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param data The packed graph records of the batch.
+	 * @param index The start of the record of every graph in the batch.
+	 * @param count The number of graphs in the batch.
+	 * @param keys The buffer to write the canonical forms of all graphs to
+	 *        or <code>null</code> if the canonical forms are not required.
+	 * @param results The buffer to write for every graph the native setup time,
+	 *        canonization time and length of its canonical form to.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form of every graph.
+	 * @see GraphBatch
+	 */
+	private static native void computeCanonSparseBatch(long workspace, int[] data, int[] index, int count, int[] keys, long[] results, long timeout);
+	
+	/**
+	 * Computes the canonical form of all the coloured graphs in the given
+	 * batch using the dense version of nauty.
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param data The packed graph records of the batch.
+	 * @param index The start of the record of every graph in the batch.
+	 * @param count The number of graphs in the batch.
+	 * @param keys The buffer to write the canonical forms of all graphs to
+	 *        or <code>null</code> if the canonical forms are not required.
+	 * @param results The buffer to write for every graph the native setup time,
+	 *        canonization time and length of its canonical form to.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form of every graph.
+	 * @see GraphBatch
+	 */
+	private static native void computeCanonDenseBatch(long workspace, int[] data, int[] index, int count, int[] keys, long[] results, long timeout);
+	
+	/**
+	 * Functional interface for the native nauty and traces entry points.
+	 * @author Roan
+	 * @see Nauty#computeCanonSparse(long, IntBuffer, int[], long)
+	 * @see Nauty#computeCanonDense(long, IntBuffer, int[], long)
+	 */
+	@FunctionalInterface
+	protected static interface NativeCanonizer{
+		
+		/**
+		 * Computes the canonical form of the given coloured graph.
+		 * @param workspace Pointer to the native workspace to use.
+		 * @param graph Direct buffer with the input graph record.
+		 * @param key The buffer to write the canonical form to or <code>null</code>.
+		 * @param timeout The time limit in nanoseconds for computing the canonical form.
+		 * @return An array with the native setup time, canonization time, the
+		 *         number of integers written to the key buffer and optionally
+		 *         the search statistics of the graph.
+		 */
+		public abstract long[] computeCanon(long workspace, IntBuffer graph, int[] key, long timeout);
+	}
+	
+	/**
+	 * Functional interface for the native nauty and traces batch entry points.
+	 * @author Roan
+	 * @see Nauty#computeCanonSparseBatch(long, int[], int[], int, int[], long[], long)
+	 * @see Nauty#computeCanonDenseBatch(long, int[], int[], int, int[], long[], long)
+	 */
+	@FunctionalInterface
+	protected static interface NativeBatchCanonizer{
+		
+		/**
+		 * Computes the canonical form of all the graphs in the given batch.
+		 * @param workspace Pointer to the native workspace to use.
+		 * @param data The packed graph records of the batch.
+		 * @param index The start of the record of every graph in the batch.
+		 * @param count The number of graphs in the batch.
+		 * @param keys The buffer to write the canonical forms to or <code>null</code>.
+		 * @param results The buffer to write the results for every graph to.
+		 * @param timeout The time limit in nanoseconds for computing the canonical form of every graph.
+		 */
+		public abstract void computeCanon(long workspace, int[] data, int[] index, int count, int[] keys, long[] results, long timeout);
+	}
 }
@@ -0,0 +1,99 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.algo;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import dev.roanh.cpqkeys.HardwareCounters;
+
+/**
+ * Handle to a native workspace for nauty and Traces. A workspace holds all
+ * the buffers required to construct and canonize a graph. These buffers only
+ * grow when a larger graph is canonized and are never shrunk, so reusing a
+ * workspace avoids allocating new buffers for every graph. A workspace can
+ * only be used by a single thread at a time, a thread can obtain exclusive
+ * access to a workspace using {@link #acquire()} and has to give it back
+ * using {@link #release()} when it is done. Workspaces are never freed,
+ * the number of workspaces is bounded by the maximum number of threads
+ * that ever ran nauty or Traces at the same time.
+ * @author Roan
+ * @see Nauty
+ * @see Traces
+ */
+final class NautyWorkspace{
+	/**
+	 * Workspaces that are currently not in use by any thread.
+	 */
+	private static final Queue<NautyWorkspace> idle = new ConcurrentLinkedQueue<NautyWorkspace>();
+	/**
+	 * Pointer to the native workspace.
+	 */
+	private final long handle;
+
+	/**
+	 * Constructs a new workspace with a new native workspace.
+	 */
+	private NautyWorkspace(){
+		handle = allocate();
+	}
+
+	/**
+	 * Gets the pointer to the native workspace.
+	 * @return The pointer to the native workspace.
+	 */
+	protected long getHandle(){
+		return handle;
+	}
+
+	/**
+	 * Releases this workspace so it can be used by another thread.
+	 * The calling thread should not use this workspace afterwards.
+	 */
+	protected void release(){
+		idle.add(this);
+	}
+
+	/**
+	 * Obtains a workspace for exclusive use by the calling thread.
+	 * An idle workspace is reused if one is available, otherwise
+	 * a new workspace is allocated.
+	 * @return The workspace to use.
+	 * @see #release()
+	 */
+	protected static NautyWorkspace acquire(){
+		NautyWorkspace workspace = idle.poll();
+		return workspace == null ? new NautyWorkspace() : workspace;
+	}
+
+	/**
+	 * Allocates a new empty native workspace.
+	 * @return A pointer to the new native workspace.
+	 */
+	private static native long allocate();
+
+	/**
+	 * Enables or disables reading hardware counters around the canonization
+	 * of every graph by nauty and Traces, this is disabled by default. Graphs
+	 * that are canonized as part of a batch never read hardware counters.
+	 * @param enabled True to enable reading hardware counters.
+	 * @see HardwareCounters
+	 */
+	protected static native void setHardwareCounters(boolean enabled);
+}
@@ -18,18 +18,23 @@
  */
 package dev.roanh.cpqkeys.algo;
 
+import java.nio.IntBuffer;
 import java.util.List;
 
 import dev.roanh.cpqkeys.Algorithm;
-import dev.roanh.cpqkeys.GraphUtil;
-import dev.roanh.cpqkeys.GraphUtil.ColoredGraph;
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.cpqkeys.GraphBatch;
+import dev.roanh.cpqkeys.NativeWorker;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.Graph;
 import dev.roanh.gmark.util.Util;
 
 /**
- * Binding for Nishe.
+ * Binding for Nishe. Nishe only refines the colouring of the input
+ * graph, which takes polynomial time, so the per graph time limit
+ * given by {@link Algorithm#getTimeLimit()} is not enforced for Nishe.
  * @author Roan
  * @see <a href="https://code.google.com/archive/p/nishe/">Nishe website</a>
  * @see <a href="https://github.com/b0ri5/nishe-googlecode">Nishe GitHub mirror</a>
@@ -39,35 +44,30 @@ public class Nishe{
 	/**
 	 * Algorithm binding for Nishe.
 	 */
-	public static final Algorithm INSTANCE = new Algorithm("Nishe", Nishe::computeCanon);
+	public static final Algorithm INSTANCE = new Algorithm("Nishe", Nishe::computeCanon, Nishe::computeCanonBatch, true);
+	/**
+	 * Algorithm binding for Nishe running in separate worker processes.
+	 */
+	public static final Algorithm ISOLATED = NativeWorker.isolate(Nishe.class, "Nishe (isolated)", Nishe::toCsrGraph, (graph, key)->computeCanon(graph.getBuffer(), key));
 	
 	/**
-	 * Runs Nishe on the given input graph. The input graph first
-	 * has its edge labels converted to nodes and is then converted
-	 * to a coloured graph.
+	 * Runs Nishe on the given input graph. The input graph is
+	 * first transformed using {@link #toCsrGraph(Graph)}.
 	 * @param input The input graph.
+	 * @param key The buffer to write the refined form to or <code>null</code>.
 	 * @return An array of time measurements containing in the first
 	 *         index the graph transform time, in the second index the
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 */
-	private static long[] computeCanon(Graph<Vertex, Predicate> input){
+	private static long[] computeCanon(Graph<Vertex, Predicate> input, CanonicalForm key){
 		long start = System.nanoTime();
-		
-		ColoredGraph cg = GraphUtil.toColoredGraph(Util.edgeLabelsToNodes(input));
-		int[] colors = new int[cg.getNodeCount()];
-		int idx = 0;
-		for(List<Integer> group : cg.getColorMap()){
-			group.sort(null);
-			colors[idx++] = -group.get(0) - 1;
-			for(int i = 1; i < group.size(); i++){
-				colors[idx++] = group.get(i) + 1;
-			}
-		}
-		
+		CsrGraph graph = toCsrGraph(input);
+		int[] buffer = graph.prepareKey(key);
 		long end = System.nanoTime();
 		
-		long[] times = computeCanon(cg.getAdjacencyList(), colors);
+		long[] times = computeCanon(graph.getBuffer(), buffer);
+		Nauty.finishKey(key, times);
 		return new long[]{
 			end - start,
 			times[0],
@@ -75,24 +75,66 @@ public class Nishe{
 		};
 	}
 	
+	/**
+	 * Runs Nishe on all the given input graphs in a single native call. The input
+	 * graphs first have their edge labels converted to nodes and are then converted
+	 * to coloured graphs.
+	 * @param input The input graphs.
+	 * @param keys The buffers to write the refined forms to or <code>null</code>.
+	 * @return An array of time measurements containing for every graph the graph
+	 *         transform time, native setup time and canonization time in nanoseconds.
+	 */
+	private static long[] computeCanonBatch(List<Graph<Vertex, Predicate>> input, CanonicalForm[] keys){
+		GraphBatch batch = GraphBatch.pack(input, Nishe::toCsrGraph);
+		computeCanonBatch(batch.getData(), batch.getIndex(), batch.getGraphCount(), keys == null ? null : batch.getKeyBuffer(), batch.getResultBuffer());
+		if(keys != null){
+			batch.readKeys(keys);
+		}
+		return batch.getTimes();
+	}
+	
+	/**
+	 * Transforms the given input graph to the coloured CSR graph used as input
+	 * for Nishe. The input graph has its edge labels converted to nodes.
+	 * @param input The input graph.
+	 * @return The transformed graph, this is the reusable CSR graph of the calling thread.
+	 * @see CsrGraph#local()
+	 * @see CsrGraph#loadLabelled(Graph)
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 */
+	private static CsrGraph toCsrGraph(Graph<Vertex, Predicate> input){
+		return CsrGraph.local().loadLabelled(input);
+	}
+	
 	/**
 	 * Computes the canonical trace value and new partition nest for the
 	 * given graph with the given vertex colouring. Returns the time in
 	 * milliseconds required for computations.
-	 * @param adj The input graph in adjacency list format, <code>n</code>
-	 *        arrays with each the indices of the neighbours of the <code>
-	 *        n</code>-th vertex.
-	 * @param colors An array defining the color of each vertex, the array
-	 *        is expected to contain the indices of the vertices with the
-	 *        same color in the following format. The index used to refer
-	 *        to a vertex is always one higher than the actual index in the
-	 *        adjacency list. A negative index indicates the start of a new
-	 *        color group with all following vertices being of the same color.
-	 *        Vertices within each color group are expected to be in sorted
-	 *        ascending order.
-	 * @return An array with two elements, first the time in nanoseconds it
-	 *         took to construct the partition nest and graph and second the
-	 *         time in nanoseconds it took to compute the refinement trace.
+	 * @param graph Direct buffer with the input graph record.
+	 * @param key The buffer to write the refined form of the graph to or
+	 *        <code>null</code> if it is not required. Nishe only computes the
+	 *        equitable refinement of the colouring, so the labelling written
+	 *        is the order of the refined partition. This is only a canonical
+	 *        labelling if the refined partition is discrete.
+	 * @return An array with three elements, first the time in nanoseconds it
+	 *         took to construct the partition nest and graph, second the time
+	 *         in nanoseconds it took to compute the refinement trace and third
+	 *         the number of integers written to the key buffer.
+	 * @see CsrGraph
+	 * @see CanonicalForm
+	 */
+	private static native long[] computeCanon(IntBuffer graph, int[] key);
+	
+	/**
+	 * Computes the refined form of all the coloured graphs in the given batch.
+	 * @param data The packed graph records of the batch.
+	 * @param index The start of the record of every graph in the batch.
+	 * @param count The number of graphs in the batch.
+	 * @param keys The buffer to write the refined forms of all graphs to
+	 *        or <code>null</code> if the canonical forms are not required.
+	 * @param results The buffer to write for every graph the native setup time,
+	 *        canonization time and length of its refined form to.
+	 * @see GraphBatch
 	 */
-	private static native long[] computeCanon(int[][] adj, int[] colors);
+	private static native void computeCanonBatch(int[] data, int[] index, int count, int[] keys, long[] results);
 }
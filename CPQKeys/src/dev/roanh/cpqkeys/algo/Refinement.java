@@ -0,0 +1,633 @@
+/*
+ * CPQKeys: An evaluation of various graph canonization algorithms.
+ * Copyright (C) 2022  Roan Hofland (roan@roanh.dev).  All rights reserved.
+ * GitHub Repository: https://github.com/RoanH/CPQKeys
+ *
+ * CPQKeys is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CPQKeys is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.roanh.cpqkeys.algo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
+import dev.roanh.gmark.core.graph.Predicate;
+import dev.roanh.gmark.util.Graph;
+import dev.roanh.gmark.util.Util;
+
+/**
+ * Canonization algorithm implemented in Java specifically for CPQ query graphs.
+ * CPQ query graphs are small, sparse, directed and edge labelled, which means
+ * that refining the colouring of the labelled version of a query graph almost
+ * always results in a discrete partition without any search. For such graphs
+ * the overhead of calling into native code, which dominates the runtime of the
+ * native algorithms on small graphs, is avoided entirely by this implementation.
+ * <p>
+ * The algorithm is a plain individualization-refinement algorithm. The colouring
+ * of the graph is refined to an equitable partition by splitting cells on the
+ * number of in and out neighbours in a splitter cell. If the partition is not
+ * discrete, every vertex in the first non-singleton cell is individualized in
+ * turn and the search continues on the refined partition. The canonical form is
+ * the smallest graph found at a leaf of the search tree. Automorphisms found when
+ * two leaves give the same graph are used to skip vertices in the same orbit.
+ * @author Roan
+ * @see CsrGraph#loadLabelled(Graph)
+ */
+public class Refinement{
+	/**
+	 * Algorithm instance for the refinement algorithm.
+	 */
+	public static final Algorithm INSTANCE = new Algorithm("Refinement", Refinement::computeCanon, true);
+	/**
+	 * The number of vertices in the graph.
+	 */
+	private final int n;
+	/**
+	 * The graph record of the graph being canonized.
+	 * @see CsrGraph#getData()
+	 */
+	private final int[] data;
+	/**
+	 * Offset of the out edge offsets of every vertex in the graph record.
+	 */
+	private final int outStart;
+	/**
+	 * Offset of the out edge targets in the graph record.
+	 */
+	private final int outTargets;
+	/**
+	 * Offsets of the in edges of every vertex in {@link #inSources}.
+	 */
+	private final int[] inStart;
+	/**
+	 * The sources of the in edges of every vertex.
+	 */
+	private final int[] inSources;
+	/**
+	 * The vertices of the graph in partition order.
+	 */
+	private int[] order;
+	/**
+	 * The position of every vertex in {@link #order}.
+	 */
+	private int[] pos;
+	/**
+	 * The cell every vertex is in, cells are identified by their first position.
+	 */
+	private int[] cell;
+	/**
+	 * The end (exclusive) of every cell, indexed by the first position of the cell.
+	 */
+	private int[] cellEnd;
+	/**
+	 * The number of cells in the partition.
+	 */
+	private int cells;
+	/**
+	 * Queue of splitter cells to refine the partition with.
+	 */
+	private final int[] queue;
+	/**
+	 * Position of the first splitter in the queue.
+	 */
+	private int head = 0;
+	/**
+	 * Number of splitters in the queue.
+	 */
+	private int size = 0;
+	/**
+	 * Whether a cell is in the splitter queue, indexed by the first position of the cell.
+	 */
+	private final boolean[] queued;
+	/**
+	 * Number of neighbours in the current splitter for every vertex.
+	 */
+	private final int[] count;
+	/**
+	 * Vertices with at least one neighbour in the current splitter.
+	 */
+	private final int[] touched;
+	/**
+	 * Cells containing at least one touched vertex.
+	 */
+	private final int[] touchedCells;
+	/**
+	 * Number of touched vertices in every cell, indexed by the first position of the cell.
+	 */
+	private final int[] touchedCount;
+	/**
+	 * Scratch space used to sort touched vertices.
+	 */
+	private final long[] sort;
+	/**
+	 * The vertices individualized on the current search path.
+	 */
+	private final int[] fixed;
+	/**
+	 * Automorphisms of the graph found during the search.
+	 */
+	private final List<int[]> automorphisms = new ArrayList<int[]>();
+	/**
+	 * Canonical form at the current leaf of the search tree.
+	 */
+	private final int[] leaf;
+	/**
+	 * Best canonical form found so far, or <code>null</code>.
+	 */
+	private int[] best = null;
+	/**
+	 * Length of the canonical forms.
+	 */
+	private int length;
+	/**
+	 * Time at which the search has to be aborted.
+	 */
+	private final long deadline;
+
+	/**
+	 * Constructs the data structures to canonize the given graph.
+	 * @param graph The coloured graph to canonize.
+	 * @param deadline Time at which the search has to be aborted.
+	 * @see System#nanoTime()
+	 */
+	private Refinement(CsrGraph graph, long deadline){
+		this.deadline = deadline;
+		data = graph.getData();
+		n = data[0];
+		int m = data[1];
+		outStart = 2;
+		outTargets = outStart + n + 1;
+		int colors = outTargets + m;
+
+		//reverse edges
+		inStart = new int[n + 1];
+		inSources = new int[m];
+		for(int i = 0; i < m; i++){
+			inStart[data[outTargets + i] + 1]++;
+		}
+		for(int i = 0; i < n; i++){
+			inStart[i + 1] += inStart[i];
+		}
+		int[] fill = Arrays.copyOf(inStart, n);
+		for(int v = 0; v < n; v++){
+			for(int e = data[outStart + v]; e < data[outStart + v + 1]; e++){
+				inSources[fill[data[outTargets + e]]++] = v;
+			}
+		}
+
+		queue = new int[n];
+		queued = new boolean[n];
+		count = new int[n];
+		touched = new int[n];
+		touchedCells = new int[n];
+		touchedCount = new int[n];
+		sort = new long[n];
+		fixed = new int[n];
+		leaf = new int[2 * n + m];
+
+		//initial partition by colour
+		order = new int[n];
+		pos = new int[n];
+		cell = new int[n];
+		cellEnd = new int[n];
+		for(int i = 0; i < n; i++){
+			sort[i] = ((long)data[colors + i] << 32) | i;
+		}
+		Arrays.sort(sort, 0, n);
+
+		int head = 0;
+		for(int i = 0; i < n; i++){
+			int v = (int)sort[i];
+			if(i > 0 && (sort[i] >>> 32) != (sort[i - 1] >>> 32)){
+				cellEnd[head] = i;
+				head = i;
+			}
+			order[i] = v;
+			pos[v] = i;
+			cell[v] = head;
+		}
+
+		if(n > 0){
+			cellEnd[head] = n;
+		}
+
+		for(int i = 0; i < n; i = cellEnd[i]){
+			cells++;
+			enqueue(i);
+		}
+	}
+
+	/**
+	 * Computes the canonical form of the current graph.
+	 * @param key The buffer to write the canonical form to, or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @return False if the time limit was exceeded.
+	 */
+	private boolean canonize(int[] key){
+		refine();
+		if(!search(0)){
+			return false;
+		}
+
+		if(key != null){
+			System.arraycopy(best, 0, key, 0, length);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Explores the search tree rooted at the current partition.
+	 * @param depth The number of vertices individualized so far.
+	 * @return False if the time limit was exceeded.
+	 */
+	private boolean search(int depth){
+		if(System.nanoTime() > deadline){
+			return false;
+		}
+
+		if(cells == n){
+			visitLeaf();
+			return true;
+		}
+
+		//first non-singleton cell
+		int target = 0;
+		while(cellEnd[target] - target == 1){
+			target = cellEnd[target];
+		}
+
+		int[] candidates = Arrays.copyOfRange(order, target, cellEnd[target]);
+		Arrays.sort(candidates);
+
+		int[] savedOrder = order.clone();
+		int[] savedPos = pos.clone();
+		int[] savedCell = cell.clone();
+		int[] savedEnd = cellEnd.clone();
+		int savedCells = cells;
+
+		int[] orbits = null;
+		int known = -1;
+		int explored = 0;
+		for(int v : candidates){
+			if(known != automorphisms.size()){
+				known = automorphisms.size();
+				orbits = computeOrbits(depth);
+			}
+
+			boolean skip = false;
+			for(int i = 0; i < explored && !skip; i++){
+				skip = find(orbits, candidates[i]) == find(orbits, v);
+			}
+
+			if(skip){
+				continue;
+			}
+
+			fixed[depth] = v;
+			individualize(v);
+			refine();
+			if(!search(depth + 1)){
+				return false;
+			}
+
+			System.arraycopy(savedOrder, 0, order, 0, n);
+			System.arraycopy(savedPos, 0, pos, 0, n);
+			System.arraycopy(savedCell, 0, cell, 0, n);
+			System.arraycopy(savedEnd, 0, cellEnd, 0, n);
+			cells = savedCells;
+
+			//move the explored vertex to the front of the candidates
+			int idx = explored;
+			while(candidates[idx] != v){
+				idx++;
+			}
+			candidates[idx] = candidates[explored];
+			candidates[explored++] = v;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Computes the canonical form of the graph at a leaf of the search tree and
+	 * compares it with the best canonical form found so far. If the forms are equal
+	 * an automorphism of the graph was found, if the new form is smaller then it
+	 * becomes the new best canonical form.
+	 */
+	private void visitLeaf(){
+		System.arraycopy(order, 0, leaf, 0, n);
+		int idx = n;
+		for(int i = 0; i < n; i++){
+			int v = order[i];
+			int start = data[outStart + v];
+			int end = data[outStart + v + 1];
+			leaf[idx++] = end - start;
+			int first = idx;
+			for(int e = start; e < end; e++){
+				leaf[idx++] = pos[data[outTargets + e]];
+			}
+			Arrays.sort(leaf, first, idx);
+		}
+
+		if(best == null){
+			length = idx;
+			best = leaf.clone();
+			return;
+		}
+
+		int cmp = 0;
+		for(int i = n; i < length && cmp == 0; i++){
+			cmp = Integer.compare(leaf[i], best[i]);
+		}
+
+		if(cmp < 0){
+			System.arraycopy(leaf, 0, best, 0, length);
+		}else if(cmp == 0){
+			int[] gamma = new int[n];
+			for(int i = 0; i < n; i++){
+				gamma[best[i]] = leaf[i];
+			}
+			automorphisms.add(gamma);
+		}
+	}
+
+	/**
+	 * Computes the orbits of the group generated by the found automorphisms
+	 * that fix all vertices individualized on the current search path.
+	 * @param depth The number of vertices individualized so far.
+	 * @return A union find structure over the vertices with the orbits.
+	 * @see #find(int[], int)
+	 */
+	private int[] computeOrbits(int depth){
+		int[] orbits = new int[n];
+		for(int i = 0; i < n; i++){
+			orbits[i] = i;
+		}
+
+		outer: for(int[] gamma : automorphisms){
+			for(int i = 0; i < depth; i++){
+				if(gamma[fixed[i]] != fixed[i]){
+					continue outer;
+				}
+			}
+
+			for(int v = 0; v < n; v++){
+				int a = find(orbits, v);
+				int b = find(orbits, gamma[v]);
+				if(a != b){
+					orbits[Math.max(a, b)] = Math.min(a, b);
+				}
+			}
+		}
+
+		return orbits;
+	}
+
+	/**
+	 * Finds the representative of the orbit of the given vertex.
+	 * @param orbits The union find structure with the orbits.
+	 * @param v The vertex to find the orbit of.
+	 * @return The representative of the orbit of the vertex.
+	 * @see #computeOrbits(int)
+	 */
+	private static int find(int[] orbits, int v){
+		while(orbits[v] != v){
+			orbits[v] = orbits[orbits[v]];
+			v = orbits[v];
+		}
+		return v;
+	}
+
+	/**
+	 * Individualizes the given vertex by splitting it from its
+	 * cell into a new singleton cell at the start of the cell.
+	 * @param v The vertex to individualize.
+	 */
+	private void individualize(int v){
+		int start = cell[v];
+		int end = cellEnd[start];
+		swap(pos[v], start);
+
+		cellEnd[start] = start + 1;
+		cellEnd[start + 1] = end;
+		for(int i = start + 1; i < end; i++){
+			cell[order[i]] = start + 1;
+		}
+
+		cells++;
+		enqueue(start);
+	}
+
+	/**
+	 * Refines the partition until it is equitable with respect to all
+	 * splitter cells in the queue. For every splitter cells are split on
+	 * the number of out neighbours in the splitter and subsequently on the
+	 * number of in neighbours in the splitter.
+	 */
+	private void refine(){
+		while(size > 0){
+			int splitter = queue[head];
+			head = (head + 1) % n;
+			size--;
+			queued[splitter] = false;
+			if(cells == n){
+				//discrete partitions cannot be refined further
+				continue;
+			}
+
+			int end = cellEnd[splitter];
+			for(int dir = 0; dir < 2; dir++){
+				int touches = 0;
+				for(int i = splitter; i < end; i++){
+					int w = order[i];
+					if(dir == 0){
+						//vertices with an out edge into the splitter
+						for(int e = inStart[w]; e < inStart[w + 1]; e++){
+							touches = touch(inSources[e], touches);
+						}
+					}else{
+						//vertices with an in edge from the splitter
+						for(int e = data[outStart + w]; e < data[outStart + w + 1]; e++){
+							touches = touch(data[outTargets + e], touches);
+						}
+					}
+				}
+
+				split(touches);
+			}
+		}
+	}
+
+	/**
+	 * Adds the given cell to the splitter queue if it is not queued already.
+	 * @param start The first position of the cell.
+	 */
+	private void enqueue(int start){
+		if(!queued[start]){
+			queued[start] = true;
+			queue[(head + size) % n] = start;
+			size++;
+		}
+	}
+
+	/**
+	 * Records that the given vertex has a neighbour in the current splitter.
+	 * @param v The vertex with a neighbour in the splitter.
+	 * @param touches The number of vertices touched so far.
+	 * @return The new number of vertices touched.
+	 */
+	private int touch(int v, int touches){
+		if(count[v]++ == 0){
+			touched[touches++] = v;
+		}
+		return touches;
+	}
+
+	/**
+	 * Splits all cells with touched vertices on the number of neighbours in
+	 * the current splitter and resets the neighbour counts. The fragments of
+	 * a cell are ordered by their number of neighbours in the splitter. If the
+	 * cell was not queued as a splitter yet, all but its largest fragment are
+	 * added to the splitter queue.
+	 * @param touches The number of touched vertices.
+	 */
+	private void split(int touches){
+		//move touched vertices to the end of their cell
+		int cellCount = 0;
+		for(int i = 0; i < touches; i++){
+			int v = touched[i];
+			int start = cell[v];
+			if(touchedCount[start] == 0){
+				touchedCells[cellCount++] = start;
+			}
+			swap(pos[v], cellEnd[start] - 1 - touchedCount[start]++);
+		}
+
+		//process cells in partition order
+		Arrays.sort(touchedCells, 0, cellCount);
+
+		for(int c = 0; c < cellCount; c++){
+			int start = touchedCells[c];
+			int end = cellEnd[start];
+			int first = end - touchedCount[start];
+			touchedCount[start] = 0;
+			if(end - start == 1){
+				continue;
+			}
+
+			for(int i = first; i < end; i++){
+				int v = order[i];
+				sort[i - first] = ((long)count[v] << 32) | v;
+			}
+			Arrays.sort(sort, 0, end - first);
+			for(int i = first; i < end; i++){
+				int v = (int)sort[i - first];
+				order[i] = v;
+				pos[v] = i;
+			}
+
+			//untouched vertices followed by runs of equal neighbour counts
+			int largest = start;
+			int largestSize = 0;
+			int fragment = start;
+			for(int i = start + 1; i <= end; i++){
+				if(i == end || i == first || (i > first && count[order[i]] != count[order[i - 1]])){
+					cellEnd[fragment] = i;
+					for(int j = fragment; j < i; j++){
+						cell[order[j]] = fragment;
+					}
+
+					if(fragment != start){
+						cells++;
+					}
+
+					if(i - fragment > largestSize){
+						largest = fragment;
+						largestSize = i - fragment;
+					}
+					fragment = i;
+				}
+			}
+
+			if(cellEnd[start] != end){
+				boolean wasQueued = queued[start];
+				for(int f = start; f < end; f = cellEnd[f]){
+					if(wasQueued || f != largest){
+						enqueue(f);
+					}
+				}
+			}
+		}
+
+		for(int i = 0; i < touches; i++){
+			count[touched[i]] = 0;
+		}
+	}
+
+	/**
+	 * Swaps the vertices at the given positions in the partition.
+	 * @param a The first position.
+	 * @param b The second position.
+	 */
+	private void swap(int a, int b){
+		int va = order[a];
+		int vb = order[b];
+		order[a] = vb;
+		order[b] = va;
+		pos[vb] = a;
+		pos[va] = b;
+	}
+
+	/**
+	 * Runs the refinement algorithm on the given input graph. The input graph
+	 * is first transformed into a coloured graph with its edge labels converted
+	 * to nodes. The native setup time reported is the time spent building the
+	 * data structures for the search.
+	 * @param input The input graph.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
+	 * @return An array of time measurements containing in the first
+	 *         index the graph transform time, in the second index the
+	 *         native setup time (graph construction) and in the third
+	 *         index the canonization time. All times are in nanoseconds.
+	 * @see CsrGraph#loadLabelled(Graph)
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 */
+	private static long[] computeCanon(Graph<Vertex, Predicate> input, CanonicalForm key){
+		long start = System.nanoTime();
+		CsrGraph graph = CsrGraph.local().loadLabelled(input);
+		int[] buffer = graph.prepareKey(key);
+		long setup = System.nanoTime();
+
+		long limit = Algorithm.getTimeLimit();
+		Refinement search = new Refinement(graph, limit == Algorithm.NO_TIME_LIMIT ? Long.MAX_VALUE : (setup + limit));
+		long canon = System.nanoTime();
+
+		boolean done = search.canonize(buffer);
+		long end = System.nanoTime();
+		if(key != null){
+			key.setLength(done ? search.length : 0);
+		}
+
+		return new long[]{
+			setup - start,
+			canon - setup,
+			done ? (end - canon) : Algorithm.TIME_LIMIT_EXCEEDED
+		};
+	}
+}
@@ -26,8 +26,17 @@ import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.CanonicalForm;
 import dev.roanh.cpqkeys.GraphUtil;
 import dev.roanh.cpqkeys.Main;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
@@ -37,36 +46,70 @@ import dev.roanh.gmark.util.Graph.GraphEdge;
 import dev.roanh.gmark.util.Graph.GraphNode;
 
 /**
- * Binding for Scott.
+ * Binding for Scott. Scott can either be run by starting a new Python
+ * process for every graph or by streaming graphs to persistent Python
+ * worker processes. The latter avoids the Python interpreter startup and
+ * Scott import cost for every graph. When a time limit is set, the Scott
+ * process is killed if it did not report its results within the time limit
+ * after the graph was written to it.
  * @author Roan
+ * @see Algorithm#getTimeLimit()
  * @see <a href="https://theplatypus.github.io/scott/">Scott website</a>
  */
 public class Scott{
 	/**
 	 * Algorithm binding for Scott that accepts directed graphs as input.
 	 */
-	public static final Algorithm DIRECTED = new Algorithm("Scott (directed)", Scott::runDirected);
+	public static final Algorithm DIRECTED = new Algorithm("Scott (directed)", (g, key)->runDirected(g, key, false), true);
 	/**
 	 * Algorithm binding for Scott that only accepts undirected graphs as input.
 	 */
-	public static final Algorithm UNDIRECTED = new Algorithm("Scott (undirected)", Scott::runUndirected);
+	public static final Algorithm UNDIRECTED = new Algorithm("Scott (undirected)", (g, key)->runUndirected(g, key, false), true);
+	/**
+	 * Algorithm binding for Scott that accepts directed graphs as input
+	 * and runs on persistent worker processes.
+	 */
+	public static final Algorithm DIRECTED_WORKER = new Algorithm("Scott (directed, worker)", (g, key)->runDirected(g, key, true), true);
+	/**
+	 * Algorithm binding for Scott that only accepts undirected graphs
+	 * as input and runs on persistent worker processes.
+	 */
+	public static final Algorithm UNDIRECTED_WORKER = new Algorithm("Scott (undirected, worker)", (g, key)->runUndirected(g, key, true), true);
+	/**
+	 * Idle persistent Scott worker processes by entrypoint.
+	 */
+	private static final Map<String, Queue<Session>> workers = new ConcurrentHashMap<String, Queue<Session>>();
+	/**
+	 * Executor used to kill Scott processes that exceed their time limit.
+	 */
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r->{
+		Thread thread = new Thread(r, "Scott watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	/**
 	 * Runs Scott on an undirected input graph that is constructed
 	 * from the given input graph by the undirected transform
 	 * {@link GraphUtil#toUndirectedGraph(Graph)}.
 	 * @param input The graph to run Scott on.
+	 * @param key The canonical form buffer, Scott does not export its
+	 *        canonical form so this buffer is only cleared.
+	 * @param worker True to run Scott on a persistent worker process,
+	 *        false to start a new Python process for this graph.
 	 * @return An array of time measurements containing in the first
 	 *         index the graph transform time, in the second index the
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 */
-	private static long[] runUndirected(Graph<Vertex, Predicate> input){
+	private static long[] runUndirected(Graph<Vertex, Predicate> input, CanonicalForm key, boolean worker){
+		clearKey(key);
+		Session scott = null;
 		try{
 			long start = System.nanoTime();
 			Graph<Object, Predicate> graph = GraphUtil.toUndirectedGraph(input);
-			Process scott = startSession("undirected");
-			PrintWriter out = new PrintWriter(scott.getOutputStream(), true);
+			scott = Session.open("undirected", worker);
+			PrintWriter out = scott.getWriter();
 
 			//write nodes
 			for(GraphNode<Object, Predicate> node : graph.getNodes()){
@@ -87,7 +130,8 @@ public class Scott{
 			long end = System.nanoTime();
 
 			//output
-			long[] times = readTimes(scott);
+			long[] times = scott.readTimes(Algorithm.getTimeLimit());
+			scott.release();
 			return new long[]{
 				end - start,
 				times[0],
@@ -96,6 +140,9 @@ public class Scott{
 		}catch(IOException e){
 			//should not normally happen
 			e.printStackTrace();
+			if(scott != null){
+				scott.destroy();
+			}
 			return null;
 		}
 	}
@@ -103,16 +150,22 @@ public class Scott{
 	/**
 	 * Runs Scott on a directed input graph.
 	 * @param graph The graph to run Scott on.
+	 * @param key The canonical form buffer, Scott does not export its
+	 *        canonical form so this buffer is only cleared.
+	 * @param worker True to run Scott on a persistent worker process,
+	 *        false to start a new Python process for this graph.
 	 * @return An array of time measurements containing in the first
 	 *         index the graph transform time, in the second index the
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 */
-	private static long[] runDirected(Graph<Vertex, Predicate> graph){
+	private static long[] runDirected(Graph<Vertex, Predicate> graph, CanonicalForm key, boolean worker){
+		clearKey(key);
+		Session scott = null;
 		try{
 			long start = System.nanoTime();
-			Process scott = startSession("directed");
-			PrintWriter out = new PrintWriter(scott.getOutputStream(), true);
+			scott = Session.open("directed", worker);
+			PrintWriter out = scott.getWriter();
 			
 			//write notes
 			for(GraphNode<Vertex, Predicate> node : graph.getNodes()){
@@ -127,7 +180,8 @@ public class Scott{
 			long end = System.nanoTime();
 			
 			//output
-			long[] times = readTimes(scott);
+			long[] times = scott.readTimes(Algorithm.getTimeLimit());
+			scott.release();
 			return new long[]{
 				end - start,
 				times[0],
@@ -136,23 +190,20 @@ public class Scott{
 		}catch(IOException e){
 			//should not normally happen
 			e.printStackTrace();
+			if(scott != null){
+				scott.destroy();
+			}
 			return null;
 		}
 	}
 	
 	/**
-	 * Reads the final runtime measurements from the Scott subprocess.
-	 * @param scott The Scott subprocess to read from.
-	 * @return An array containing two times. First the setup time in
-	 *         nanoseconds and second the canonization time in nanoseconds.
-	 * @throws IOException When an IOException occurs.
+	 * Clears the given canonical form buffer if it is not <code>null</code>.
+	 * @param key The canonical form buffer to clear.
 	 */
-	private static long[] readTimes(Process scott) throws IOException{
-		try(BufferedReader in = new BufferedReader(new InputStreamReader(scott.getInputStream()))){
-			return new long[]{
-				Long.parseLong(in.readLine().substring(11).trim()),
-				Long.parseLong(in.readLine().substring(11).trim())
-			};
+	private static void clearKey(CanonicalForm key){
+		if(key != null){
+			key.clear();
 		}
 	}
 	
@@ -184,19 +235,212 @@ public class Scott{
 	}
 	
 	/**
-	 * Starts a new Scott process and returns it.
-	 * @param entrypoint The Python script to run. Either
-	 *        'undirected' or 'directed'.
-	 * @return The started Scott process.
-	 * @throws IOException When an IO exception occurs.
+	 * Stops all idle persistent Scott worker processes. Workers
+	 * that are in use will still be returned to the pool.
 	 */
-	private static Process startSession(String entrypoint) throws IOException{
-		Path dir = Paths.get("bindings").resolve("scott");
-		ProcessBuilder builder = new ProcessBuilder(Main.PYTHON_COMMAND, dir.resolve(entrypoint + ".py").toAbsolutePath().toString());
-		builder.redirectError(Redirect.INHERIT);
-		builder.redirectOutput(Redirect.PIPE);
-		builder.redirectInput(Redirect.PIPE);
-		builder.directory(dir.toAbsolutePath().toFile());
-		return builder.start();
+	public static void shutdownWorkers(){
+		for(Queue<Session> pool : workers.values()){
+			Session session;
+			while((session = pool.poll()) != null){
+				session.close();
+			}
+		}
+	}
+	
+	/**
+	 * Represents a running Scott Python process that graphs can be written to.
+	 * A session is either used for a single graph, or it is a persistent worker
+	 * that is returned to a pool of idle workers after each graph. Persistent
+	 * workers expect every graph to be preceded by the line 'graph' and exit
+	 * when the line 'exit' is read or their input is closed.
+	 * @author Roan
+	 */
+	private static final class Session{
+		/**
+		 * The Python entrypoint this session is running.
+		 */
+		private final String entrypoint;
+		/**
+		 * True if this session is a persistent worker.
+		 */
+		private final boolean worker;
+		/**
+		 * The running Scott process.
+		 */
+		private final Process process;
+		/**
+		 * Writer to the standard input of the Scott process.
+		 */
+		private final PrintWriter out;
+		/**
+		 * Reader for the standard output of the Scott process.
+		 */
+		private final BufferedReader in;
+		/**
+		 * True if the Scott process was killed for exceeding its time limit.
+		 */
+		private volatile boolean killed = false;
+		
+		/**
+		 * Starts a new Scott process.
+		 * @param entrypoint The Python script to run. Either
+		 *        'undirected' or 'directed'.
+		 * @param worker True to start a persistent worker.
+		 * @throws IOException When an IO exception occurs.
+		 */
+		private Session(String entrypoint, boolean worker) throws IOException{
+			this.entrypoint = entrypoint;
+			this.worker = worker;
+			
+			Path dir = Paths.get("bindings").resolve("scott");
+			ProcessBuilder builder = worker ? new ProcessBuilder(Main.PYTHON_COMMAND, dir.resolve(entrypoint + ".py").toAbsolutePath().toString(), "worker")
+				: new ProcessBuilder(Main.PYTHON_COMMAND, dir.resolve(entrypoint + ".py").toAbsolutePath().toString());
+			builder.redirectError(Redirect.INHERIT);
+			builder.redirectOutput(Redirect.PIPE);
+			builder.redirectInput(Redirect.PIPE);
+			builder.directory(dir.toAbsolutePath().toFile());
+			process = builder.start();
+			
+			out = new PrintWriter(process.getOutputStream(), false);
+			in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		}
+		
+		/**
+		 * Opens a session that a single graph can be written to. For persistent
+		 * workers an idle worker is reused if available, otherwise a new worker
+		 * is started. The returned session is ready to receive the node declarations.
+		 * @param entrypoint The Python script to run. Either
+		 *        'undirected' or 'directed'.
+		 * @param worker True to use a persistent worker, false
+		 *        to start a new process for this graph only.
+		 * @return The opened session.
+		 * @throws IOException When an IO exception occurs.
+		 * @see #release()
+		 */
+		private static Session open(String entrypoint, boolean worker) throws IOException{
+			Session session = null;
+			if(worker){
+				session = workers.computeIfAbsent(entrypoint, k->new ConcurrentLinkedQueue<Session>()).poll();
+			}
+			
+			if(session == null){
+				session = new Session(entrypoint, worker);
+			}
+			
+			if(worker){
+				session.out.println("graph");
+			}
+			
+			return session;
+		}
+		
+		/**
+		 * Gets the writer to write the graph to.
+		 * @return The writer for the standard input of Scott.
+		 */
+		private PrintWriter getWriter(){
+			return out;
+		}
+		
+		/**
+		 * Reads the final runtime measurements for the last graph.
+		 * @return An array containing two times. First the setup time in
+		 *         nanoseconds and second the canonization time in nanoseconds.
+		 * @throws IOException When an IOException occurs or when
+		 *         the Scott process terminated unexpectedly.
+		 */
+		private long[] readTimes() throws IOException{
+			return new long[]{
+				parseTime(in.readLine()),
+				parseTime(in.readLine())
+			};
+		}
+		
+		/**
+		 * Reads the final runtime measurements for the last graph. If Scott does
+		 * not produce its results within the given time limit then the Scott process
+		 * is killed and the canonization time is reported as exceeding the time limit.
+		 * A session that was killed is closed instead of reused when it is released.
+		 * @param timeout The time limit in nanoseconds for the last graph.
+		 * @return An array containing two times. First the setup time in
+		 *         nanoseconds and second the canonization time in nanoseconds
+		 *         or {@link Algorithm#TIME_LIMIT_EXCEEDED}.
+		 * @throws IOException When an IOException occurs or when
+		 *         the Scott process terminated unexpectedly.
+		 * @see #readTimes()
+		 */
+		private long[] readTimes(long timeout) throws IOException{
+			if(timeout == Algorithm.NO_TIME_LIMIT){
+				return readTimes();
+			}
+			
+			ScheduledFuture<?> kill = watchdog.schedule(()->{
+				killed = true;
+				process.destroy();
+			}, timeout, TimeUnit.NANOSECONDS);
+			
+			try{
+				return readTimes();
+			}catch(IOException e){
+				if(killed){
+					return new long[]{0L, Algorithm.TIME_LIMIT_EXCEEDED};
+				}
+				throw e;
+			}finally{
+				kill.cancel(false);
+			}
+		}
+		
+		/**
+		 * Parses a single time measurement line written by Scott.
+		 * @param line The line to parse.
+		 * @return The parsed time in nanoseconds.
+		 * @throws IOException When the line is <code>null</code>
+		 *         because the Scott process terminated.
+		 */
+		private static long parseTime(String line) throws IOException{
+			if(line == null){
+				throw new IOException("Scott process terminated unexpectedly.");
+			}
+			
+			return Long.parseLong(line.substring(11).trim());
+		}
+		
+		/**
+		 * Releases this session after all output was read. Persistent
+		 * workers are returned to the pool of idle workers, while single
+		 * graph sessions and killed sessions are closed.
+		 */
+		private void release(){
+			if(worker && !killed){
+				workers.get(entrypoint).add(this);
+			}else{
+				close();
+			}
+		}
+		
+		/**
+		 * Closes this session, persistent workers are asked to exit.
+		 */
+		private void close(){
+			if(worker){
+				out.println("exit");
+			}
+			out.close();
+			try{
+				in.close();
+			}catch(IOException ignore){
+				//process is gone already
+			}
+		}
+		
+		/**
+		 * Forcibly terminates this session, used when
+		 * the Scott process got into an unknown state.
+		 */
+		private void destroy(){
+			process.destroy();
+			close();
+		}
 	}
 }
@@ -18,9 +18,17 @@
  */
 package dev.roanh.cpqkeys.algo;
 
+import java.nio.IntBuffer;
+import java.util.List;
+
 import dev.roanh.cpqkeys.Algorithm;
+import dev.roanh.cpqkeys.CanonicalForm;
+import dev.roanh.cpqkeys.CsrGraph;
+import dev.roanh.cpqkeys.GraphBatch;
+import dev.roanh.cpqkeys.HardwareCounters;
+import dev.roanh.cpqkeys.NativeWorker;
+import dev.roanh.cpqkeys.SearchStatistics;
 import dev.roanh.cpqkeys.GraphUtil;
-import dev.roanh.cpqkeys.GraphUtil.ColoredGraph;
 import dev.roanh.gmark.conjunct.cpq.QueryGraphCPQ.Vertex;
 import dev.roanh.gmark.core.graph.Predicate;
 import dev.roanh.gmark.util.Graph;
@@ -35,55 +43,30 @@ public class Traces{
 	/**
 	 * Algorithm binding for traces.
 	 */
-	public static final Algorithm INSTANCE = new Algorithm("Traces", Traces::computeCanon);
+	public static final Algorithm INSTANCE = new Algorithm("Traces", Traces::computeCanon, Traces::computeCanonBatch, true);
+	/**
+	 * Algorithm binding for traces running in separate worker processes.
+	 */
+	public static final Algorithm ISOLATED = NativeWorker.isolate(Traces.class, "Traces (isolated)", Traces::toBidirectionalGraph, (graph, key)->Nauty.run(graph, key, Traces::computeCanon));
 	
 	/**
-	 * Runs Traces on the given input graph. The input graph is first
-	 * converted to an undirected graph, then has its edge labels
-	 * converted to nodes and is then converted to a coloured graph
-	 * and has all its edges duplicated (undirected edges are represented
-	 * as bidirectional edges).
+	 * Runs Traces on the given input graph. The input graph is
+	 * first transformed using {@link #toBidirectionalGraph(Graph)}.
 	 * @param input The input graph.
+	 * @param key The buffer to write the canonical form to or <code>null</code>.
 	 * @return An array of time measurements containing in the first
 	 *         index the graph transform time, in the second index the
 	 *         native setup time (graph construction) and in the third
 	 *         index the canonization time. All times are in nanoseconds.
 	 */
-	private static long[] computeCanon(Graph<Vertex, Predicate> input){
+	private static long[] computeCanon(Graph<Vertex, Predicate> input, CanonicalForm key){
 		long start = System.nanoTime();
-		ColoredGraph graph = GraphUtil.toColoredGraph(Util.edgeLabelsToNodes(GraphUtil.toUndirectedGraph(input)));
-		int[][] adj = graph.getAdjacencyList();
-		
-		//in degree
-		int[] deg = new int[graph.getNodeCount()];
-		for(int[] row : adj){
-			for(int node : row){
-				deg[node]++;
-			}
-		}
-		
-		//copy data
-		int[] idx = new int[graph.getNodeCount()];
-		for(int i = 0; i < adj.length; i++){
-			int[] data = new int[adj[i].length + deg[i]];
-			System.arraycopy(adj[i], 0, data, 0, adj[i].length);
-			idx[i] = adj[i].length;
-			deg[i] = adj[i].length;
-			adj[i] = data;
-		}
-		
-		//add all edges reversed (undirected edges are represented as bidirectional edges)
-		for(int src = 0; src < adj.length; src++){
-			for(int i = 0; i < deg[src]; i++){
-				int node = adj[src][i];
-				adj[node][idx[node]++] = src;
-			}
-		}
-		
-		int[] colors = Nauty.prepareColors(graph);
+		CsrGraph graph = toBidirectionalGraph(input);
+		int[] buffer = graph.prepareKey(key);
 		long end = System.nanoTime();
 		
-		long[] times = computeCanon(adj, colors);
+		long[] times = Nauty.run(graph, buffer, Traces::computeCanon);
+		Nauty.finishKey(key, times);
 		return new long[]{
 			end - start,
 			times[0],
@@ -91,19 +74,66 @@ public class Traces{
 		};
 	}
 	
+	/**
+	 * Runs Traces on all the given input graphs in a single native call. The
+	 * input graphs are first transformed using {@link #toBidirectionalGraph(Graph)}.
+	 * @param input The input graphs.
+	 * @param keys The buffers to write the canonical forms to or <code>null</code>.
+	 * @return An array of time measurements containing for every graph the graph
+	 *         transform time, native setup time and canonization time in nanoseconds.
+	 */
+	private static long[] computeCanonBatch(List<Graph<Vertex, Predicate>> input, CanonicalForm[] keys){
+		return Nauty.runBatch(GraphBatch.pack(input, Traces::toBidirectionalGraph), keys, Traces::computeCanonBatch);
+	}
+	
+	/**
+	 * Transforms the given input graph to the coloured CSR graph used as input for
+	 * Traces. The input graph is first converted to an undirected graph, then has its
+	 * edge labels converted to nodes and is then converted to a coloured CSR graph with
+	 * all its edges duplicated (undirected edges are represented as bidirectional edges).
+	 * @param input The input graph.
+	 * @return The transformed graph, this is the reusable CSR graph of the calling thread.
+	 * @see CsrGraph#local()
+	 * @see CsrGraph#loadUndirected(Graph)
+	 * @see GraphUtil#toUndirectedGraph(Graph)
+	 * @see Util#edgeLabelsToNodes(Graph)
+	 */
+	private static CsrGraph toBidirectionalGraph(Graph<Vertex, Predicate> input){
+		return CsrGraph.local().loadUndirected(input);
+	}
+	
 	/**
 	 * Computes the canonical form of the given coloured graph using traces. Returns
 	 * the time in nanoseconds required for computations.
-	 * @param adj The input graph in adjacency list format, <code>n</code>
-	 *        arrays with each the indices of the neighbours of the <code>
-	 *        n</code>-th vertex.
-	 * @param colors The array containing raw color information data. Contains vertex
-	 *        indices in blocks of the same color with the start of a block of the same
-	 *        color being indicated by a negated value. All vertex indices are also always
-	 *        one higher than their actual index in the graph.
-	 * @return An array with two elements, first the time in nanoseconds it
-	 *         took to construct the graph and second the time in nanoseconds
-	 *         it took to compute the canonical form of the graph.
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param graph Direct buffer with the input graph record.
+	 * @param key The buffer to write the canonical form of the graph to or
+	 *        <code>null</code> if the canonical form is not required.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form.
+	 * @return An array with first the time in nanoseconds it took to construct
+	 *         the graph, second the time in nanoseconds it took to compute the
+	 *         canonical form of the graph (or {@link Algorithm#TIME_LIMIT_EXCEEDED}),
+	 *         third the number of integers written to the key buffer, then
+	 *         the search statistics of the graph and lastly the hardware counters.
+	 * @see CsrGraph
+	 * @see CanonicalForm
+	 * @see SearchStatistics#fromNative(long[], int)
+	 * @see HardwareCounters#fromNative(long[], int)
+	 */
+	private static native long[] computeCanon(long workspace, IntBuffer graph, int[] key, long timeout);
+	
+	/**
+	 * Computes the canonical form of all the coloured graphs in the given batch using traces.
+	 * @param workspace Pointer to the native workspace to use.
+	 * @param data The packed graph records of the batch.
+	 * @param index The start of the record of every graph in the batch.
+	 * @param count The number of graphs in the batch.
+	 * @param keys The buffer to write the canonical forms of all graphs to
+	 *        or <code>null</code> if the canonical forms are not required.
+	 * @param results The buffer to write for every graph the native setup time,
+	 *        canonization time and length of its canonical form to.
+	 * @param timeout The time limit in nanoseconds for computing the canonical form of every graph.
+	 * @see GraphBatch
 	 */
-	private static native long[] computeCanon(int[][] adj, int[] colors);
+	private static native void computeCanonBatch(long workspace, int[] data, int[] index, int count, int[] keys, long[] results, long timeout);
 }